@@ -1,14 +1,26 @@
 package com.ait.shop.controller;
 
+import com.ait.shop.dto.cart.CartOperationDto;
+import com.ait.shop.dto.cart.CartSummaryDto;
 import com.ait.shop.dto.customer.CustomerDto;
+import com.ait.shop.dto.customer.CustomerPageDto;
+import com.ait.shop.dto.export.ExportFormat;
 import com.ait.shop.dto.customer.CustomerSaveDto;
+import com.ait.shop.dto.customer.CustomerSummaryDto;
 import com.ait.shop.dto.customer.CustomerUpdateDto;
+import com.ait.shop.dto.order.OrderDto;
+import com.ait.shop.dto.order.OrderPageDto;
 import com.ait.shop.dto.position.PositionUpdateDto;
 import com.ait.shop.service.interfaces.CustomerService;
+import com.ait.shop.service.interfaces.ExportService;
+import com.ait.shop.service.interfaces.OrderService;
 import jakarta.validation.Valid;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -19,9 +31,13 @@ import java.util.List;
 public class CustomerController {
 
     private final CustomerService service;
+    private final ExportService exportService;
+    private final OrderService orderService;
 
-    public CustomerController(CustomerService service) {
+    public CustomerController(CustomerService service, ExportService exportService, OrderService orderService) {
         this.service = service;
+        this.exportService = exportService;
+        this.orderService = orderService;
     }
 
     //    Сохранить покупателя в базе данных.
@@ -38,6 +54,37 @@ public class CustomerController {
         return service.getAllCustomers();
     }
 
+    //    Вернуть страницу активных покупателей без корзин: только количество товаров и стоимость корзины.
+    // GET -> http://10.20.30.40:8080/customers/page?after=120&limit=20
+    @GetMapping("/page")
+    public CustomerPageDto getPage(
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "20") int limit
+    ) {
+        return service.getActiveCustomersPage(after, limit);
+    }
+
+    //    Найти активных покупателей по имени.
+    // GET -> http://10.20.30.40:8080/customers/search?name=ann&page=0&size=20
+    @GetMapping("/search")
+    public List<CustomerSummaryDto> search(
+            @RequestParam String name,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size
+    ) {
+        return service.searchActiveCustomers(name, page, size);
+    }
+
+    //    Выгрузить всех активных покупателей потоком (NDJSON или CSV), не собирая список в памяти.
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "NDJSON") ExportFormat format) {
+        StreamingResponseBody body = outputStream -> exportService.exportCustomers(format, outputStream);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getContentType()))
+                .body(body);
+    }
+
     //    Вернуть одного покупателя из базы данных по его идентификатору.
     @GetMapping("/{id}")
     public CustomerDto getById(@PathVariable Long id) {
@@ -69,6 +116,12 @@ public class CustomerController {
         return service.getAllCustomersCount();
     }
 
+    //    Вернуть итоги корзины покупателя одним запросом: количество товаров, стоимость и среднюю цену.
+    @GetMapping("/{id}/cart/summary")
+    public CartSummaryDto getCustomerCartSummary(@PathVariable Long id) {
+        return service.getCustomerCartSummary(id);
+    }
+
     //    Вернуть стоимость корзины покупателя по его идентификатору.
     @GetMapping("/{id}/cart/total-cost")
     public BigDecimal getCustomerCartTotalCost(@PathVariable Long id) {
@@ -87,6 +140,13 @@ public class CustomerController {
         service.addPositionToCustomerCart(customerId, productId, positionUpdateDto);
     }
 
+    //    Применить к корзине пакет операций (ADD, REMOVE, SET) одной транзакцией, в ответе - итоги корзины.
+    // POST -> http://10.20.30.40:8080/customers/5/cart/items/batch -> ожидаем массив операций в теле запроса
+    @PostMapping("/{customerId}/cart/items/batch")
+    public CartSummaryDto applyCartOperations(@PathVariable Long customerId, @RequestBody List<CartOperationDto> operations) {
+        return service.applyCartOperations(customerId, operations);
+    }
+
     //    Удалить товар из корзины покупателя по их идентификаторам.
     @PutMapping("/{customerId}/cart/items/{productId}/remove")
     public void deletePositionFromCustomerCart(@PathVariable Long customerId, @PathVariable Long productId, @RequestBody PositionUpdateDto positionUpdateDto) {
@@ -99,6 +159,25 @@ public class CustomerController {
         service.clearCustomerCart(customerId);
     }
 
+    //    Оформить заказ из корзины покупателя, в ответе - созданный заказ.
+    // POST -> http://10.20.30.40:8080/customers/5/checkout
+    @PostMapping("/{customerId}/checkout")
+    @ResponseStatus(HttpStatus.CREATED)
+    public OrderDto checkout(@PathVariable Long customerId) {
+        return orderService.checkout(customerId);
+    }
+
+    //    Вернуть историю заказов покупателя от новых к старым (keyset-пагинация).
+    // GET -> http://10.20.30.40:8080/customers/5/orders?before=120&limit=20
+    @GetMapping("/{customerId}/orders")
+    public OrderPageDto getCustomerOrders(
+            @PathVariable Long customerId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "20") int limit
+    ) {
+        return orderService.getCustomerOrders(customerId, before, limit);
+    }
+
     @PostMapping(value = "/{id}/image", consumes = "multipart/form-data")
     public void addImage(@PathVariable Long id, @RequestParam MultipartFile image) throws IOException {
         service.addImage(id, image);
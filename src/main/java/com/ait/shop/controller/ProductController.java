@@ -1,12 +1,26 @@
 package com.ait.shop.controller;
 
+import com.ait.shop.dto.export.ExportFormat;
 import com.ait.shop.dto.product.ProductDto;
+import com.ait.shop.dto.product.ProductImportResultDto;
+import com.ait.shop.dto.product.ProductPageDto;
+import com.ait.shop.dto.product.ProductRepriceDto;
+import com.ait.shop.dto.product.ProductRepriceResultDto;
 import com.ait.shop.dto.product.ProductSaveDto;
+import com.ait.shop.dto.product.ProductSortField;
+import com.ait.shop.dto.product.ProductStockDto;
 import com.ait.shop.dto.product.ProductUpdateDto;
+import com.ait.shop.service.interfaces.ExportService;
+import com.ait.shop.service.interfaces.ProductImportService;
+import com.ait.shop.service.interfaces.ProductRepricingService;
 import com.ait.shop.service.interfaces.ProductService;
+import com.ait.shop.service.interfaces.ProductStockService;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -23,9 +37,23 @@ import java.util.List;
 public class ProductController {
 
     private final ProductService service;
-
-    public ProductController(ProductService service) {
+    private final ExportService exportService;
+    private final ProductImportService importService;
+    private final ProductRepricingService repricingService;
+    private final ProductStockService stockService;
+
+    public ProductController(
+            ProductService service,
+            ExportService exportService,
+            ProductImportService importService,
+            ProductRepricingService repricingService,
+            ProductStockService stockService
+    ) {
         this.service = service;
+        this.exportService = exportService;
+        this.importService = importService;
+        this.repricingService = repricingService;
+        this.stockService = stockService;
     }
 
     //    Сохранить продукт в базе данных (при сохранении продукт автоматически считается активным).
@@ -36,6 +64,26 @@ public class ProductController {
         return service.save(saveDto);
     }
 
+    //    Массово импортировать продукты из JSON-массива, в ответе - отчёт с ошибками по строкам.
+    // POST -> http://10.20.30.40:8080/products/import -> ожидаем массив продуктов в теле запроса
+    @PostMapping(value = "/import", consumes = "application/json")
+    public ProductImportResultDto importProducts(@RequestBody List<ProductSaveDto> rows) {
+        return importService.importProducts(rows);
+    }
+
+    //    Массово импортировать продукты из CSV-файла (title,price).
+    @PostMapping(value = "/import", consumes = "multipart/form-data")
+    public ProductImportResultDto importProductsCsv(@RequestParam MultipartFile file) throws IOException {
+        return importService.importProducts(file);
+    }
+
+    //    Массово изменить цены: селектор (IDS, PRICE_RANGE, ALL_ACTIVE), операция (SET, PERCENT, DELTA) и округление.
+    // POST -> http://10.20.30.40:8080/products/reprice -> ожидаем параметры изменения в теле запроса
+    @PostMapping("/reprice")
+    public ProductRepriceResultDto reprice(@RequestBody ProductRepriceDto repriceDto) {
+        return repricingService.reprice(repriceDto);
+    }
+
     //    Вернуть все продукты из базы данных (активные).
     // GET -> http://10.20.30.40:8080/products
     @GetMapping
@@ -43,6 +91,41 @@ public class ProductController {
         return service.getAllActiveProducts();
     }
 
+    //    Выгрузить все активные продукты потоком (NDJSON или CSV), не собирая список в памяти.
+    // GET -> http://10.20.30.40:8080/products/export?format=CSV
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "NDJSON") ExportFormat format) {
+        StreamingResponseBody body = outputStream -> exportService.exportProducts(format, outputStream);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getContentType()))
+                .body(body);
+    }
+
+    //    Вернуть страницу активных продуктов (keyset-пагинация, сортировка и фильтр по цене).
+    // GET -> http://10.20.30.40:8080/products/page?after=UFJJQ0U6MTIwOjI1LjAw&limit=20&sort=PRICE&minPrice=10&maxPrice=50
+    @GetMapping("/page")
+    public ProductPageDto getPage(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(defaultValue = "ID") ProductSortField sort,
+            @RequestParam(required = false) BigDecimal minPrice,
+            @RequestParam(required = false) BigDecimal maxPrice
+    ) {
+        return service.getActiveProductsPage(after, limit, sort, minPrice, maxPrice);
+    }
+
+    //    Найти активные продукты по названию.
+    // GET -> http://10.20.30.40:8080/products/search?q=ban&page=0&size=20
+    @GetMapping("/search")
+    public List<ProductDto> search(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size
+    ) {
+        return service.searchActiveProducts(q, page, size);
+    }
+
 
     //    Вернуть один продукт из базы данных по его идентификатору (если он активен).
     // GET -> http://10.20.30.40:8080/products/5
@@ -71,6 +154,20 @@ public class ProductController {
         service.restoreById(id);
     }
 
+    //    Вернуть доступный остаток продукта (null - остаток не отслеживается).
+    // GET -> http://10.20.30.40:8080/products/5/stock
+    @GetMapping("/{id}/stock")
+    public ProductStockDto getStock(@PathVariable Long id) {
+        return stockService.getStock(id);
+    }
+
+    //    Задать доступный остаток продукта (null - перестать отслеживать остаток).
+    // PUT -> http://10.20.30.40:8080/products/5/stock -> ожидаем {"stock": 100} в теле запроса
+    @PutMapping("/{id}/stock")
+    public ProductStockDto setStock(@PathVariable Long id, @RequestBody ProductStockDto stockDto) {
+        return stockService.setStock(id, stockDto.getStock());
+    }
+
     //    Вернуть общее количество продуктов в базе данных (активных).
     @GetMapping("/count")
     public long getProductsQuantity() {
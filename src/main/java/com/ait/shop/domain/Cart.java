@@ -1,7 +1,9 @@
 package com.ait.shop.domain;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
 
+import java.math.BigDecimal;
 import java.util.Objects;
 import java.util.Set;
 
@@ -14,13 +16,28 @@ public class Cart {
     @Column(name = "id")
     private Long id;
 
-    @OneToMany(fetch = FetchType.EAGER, cascade = CascadeType.ALL, mappedBy = "cart", orphanRemoval = true)
+    //Позиции грузятся по требованию: нужный план загрузки объявляет сам запрос (см. Customer),
+    //а если позиции всё же догружаются лениво - сразу для нескольких корзин одним запросом
+    @OneToMany(fetch = FetchType.LAZY, cascade = CascadeType.ALL, mappedBy = "cart", orphanRemoval = true)
+    @BatchSize(size = 50)
     private Set<Position> positions;
 
     @OneToOne
     @JoinColumn(name = "customer_id", nullable = false)
     private Customer customer;
 
+    @Version
+    @Column(name = "version")
+    private long version;
+
+    //Итоги по активным продуктам корзины. Меняются только SQL-запросами вместе с позициями
+    //(CartItemWriter, CartTotalsService), поэтому JPA их только вставляет и никогда не перезаписывает
+    @Column(name = "item_count", updatable = false)
+    private int itemCount;
+
+    @Column(name = "total_cost", updatable = false)
+    private BigDecimal totalCost = BigDecimal.ZERO;
+
     public Cart() {
     }
 
@@ -48,6 +65,50 @@ public class Cart {
         this.customer = customer;
     }
 
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public void setItemCount(int itemCount) {
+        this.itemCount = itemCount;
+    }
+
+    public BigDecimal getTotalCost() {
+        return totalCost;
+    }
+
+    public void setTotalCost(BigDecimal totalCost) {
+        this.totalCost = totalCost;
+    }
+
+    //Корзина может быть сохранена сразу с позициями - итоги должны им соответствовать
+    @PrePersist
+    private void initTotals() {
+        itemCount = 0;
+        totalCost = BigDecimal.ZERO;
+
+        if (positions == null) {
+            return;
+        }
+
+        for (Position position : positions) {
+            if (position.getProduct() != null && position.getProduct().isActive()) {
+                itemCount += position.getQuantity();
+                totalCost = totalCost.add(
+                        position.getProduct().getPrice().multiply(BigDecimal.valueOf(position.getQuantity()))
+                );
+            }
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object object) {
         if (this == object) {
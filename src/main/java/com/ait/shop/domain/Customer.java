@@ -5,10 +5,26 @@ import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Pattern;
 
+import java.time.LocalDateTime;
 import java.util.Objects;
 
+/*
+Планы загрузки покупателя:
+    1. Customer.withCartAndProducts - покупатель, корзина, позиции и продукты одним запросом (детальный просмотр)
+    2. Списки грузят только корзину через join fetch: обратную сторону @OneToOne Hibernate не умеет делать ленивой,
+    и без join fetch корзина догружалась бы отдельным запросом на каждого покупателя
+ */
+
 @Entity
 @Table(name = "customer")
+@NamedEntityGraph(
+        name = "Customer.withCartAndProducts",
+        attributeNodes = @NamedAttributeNode(value = "cart", subgraph = "cart"),
+        subgraphs = {
+                @NamedSubgraph(name = "cart", attributeNodes = @NamedAttributeNode(value = "positions", subgraph = "positions")),
+                @NamedSubgraph(name = "positions", attributeNodes = @NamedAttributeNode("product"))
+        }
+)
 public class Customer {
 
     @Id
@@ -34,6 +50,10 @@ public class Customer {
     @Column(name = "image_url")
     private String imageUrl;
 
+    //Момент удаления покупателя: от него отсчитывается срок до переноса в customer_archive
+    @Column(name = "deactivated_at")
+    private LocalDateTime deactivatedAt;
+
     public Customer() {
     }
 
@@ -77,6 +97,14 @@ public class Customer {
         this.imageUrl = imageUrl;
     }
 
+    public LocalDateTime getDeactivatedAt() {
+        return deactivatedAt;
+    }
+
+    public void setDeactivatedAt(LocalDateTime deactivatedAt) {
+        this.deactivatedAt = deactivatedAt;
+    }
+
     @Override
     public boolean equals(Object object) {
         if (this == object) {
@@ -30,6 +30,10 @@ public class Position {
     @JoinColumn(name = "cart_id", nullable = false)
     private Cart cart;
 
+    @Version
+    @Column(name = "version")
+    private long version;
+
     public Position() {
     }
 
@@ -71,6 +75,14 @@ public class Position {
         this.cart = cart;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
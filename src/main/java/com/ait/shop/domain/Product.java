@@ -5,12 +5,17 @@ import jakarta.validation.constraints.*;
 import org.hibernate.validator.constraints.Length;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.Objects;
 
 @Entity
 @Table(name = "product")
 public class Product {
 
+    //Границы цены для валидации; ими же пользуются запросы, которым нужен весь допустимый диапазон
+    public static final String MIN_PRICE = "0.00";
+    public static final String MAX_PRICE = "1000.00";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id")
@@ -34,11 +39,11 @@ public class Product {
     @Column(name = "price")
     @NotNull(message = "Product price cannot be null")
     @DecimalMin(
-            value = "0.00",
+            value = MIN_PRICE,
             message = "Product price should be greater or equal than zero"
     )
     @DecimalMax(
-            value = "1000.00",
+            value = MAX_PRICE,
             inclusive = false,
             message = "Product price should be lesser than 1000"
     )
@@ -50,6 +55,10 @@ public class Product {
     @Column(name = "image_url")
     private String imageUrl;
 
+    //Когда продукт стал неактивным. Через archive.retention-days дней ArchiveService перенесёт его в product_archive
+    @Column(name = "deactivated_at")
+    private LocalDateTime deactivatedAt;
+
     public Product() {
     }
 
@@ -93,6 +102,14 @@ public class Product {
         this.imageUrl = imageUrl;
     }
 
+    public LocalDateTime getDeactivatedAt() {
+        return deactivatedAt;
+    }
+
+    public void setDeactivatedAt(LocalDateTime deactivatedAt) {
+        this.deactivatedAt = deactivatedAt;
+    }
+
     //!!!
     @Override
     public boolean equals(Object object) {
@@ -30,6 +30,11 @@ public class User {
     @Enumerated(EnumType.STRING)
     private Role role;
 
+    //Версия состояния пользователя, зашитая в access token (claim ver). Увеличивается при изменении роли
+    //или подтверждения - токены со старой версией перестают приниматься
+    @Column(name = "token_version")
+    private int tokenVersion;
+
     public User() {
     }
 
@@ -81,6 +86,14 @@ public class User {
         this.role = role;
     }
 
+    public int getTokenVersion() {
+        return tokenVersion;
+    }
+
+    public void setTokenVersion(int tokenVersion) {
+        this.tokenVersion = tokenVersion;
+    }
+
     @Override
     public boolean equals(Object object) {
         if (this == object) {
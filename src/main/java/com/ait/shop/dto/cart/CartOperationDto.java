@@ -0,0 +1,47 @@
+package com.ait.shop.dto.cart;
+
+//Одна операция пакетного изменения корзины. Для SET количество 0 означает удаление позиции
+public class CartOperationDto {
+
+    private CartOperationType type;
+    private Long productId;
+    private int quantity;
+
+    public CartOperationDto() {
+    }
+
+    public CartOperationDto(CartOperationType type, Long productId, int quantity) {
+        this.type = type;
+        this.productId = productId;
+        this.quantity = quantity;
+    }
+
+    public CartOperationType getType() {
+        return type;
+    }
+
+    public void setType(CartOperationType type) {
+        this.type = type;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Long productId) {
+        this.productId = productId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CartOperationDto: type - %s, product id - %d, quantity - %d", type, productId, quantity);
+    }
+}
@@ -0,0 +1,8 @@
+package com.ait.shop.dto.cart;
+
+//Тип операции над позицией корзины: добавить количество, убрать количество, установить точное количество
+public enum CartOperationType {
+    ADD,
+    REMOVE,
+    SET
+}
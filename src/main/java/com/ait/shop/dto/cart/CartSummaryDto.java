@@ -0,0 +1,60 @@
+package com.ait.shop.dto.cart;
+
+import java.math.BigDecimal;
+
+//Итоги корзины покупателя: учитываются только активные продукты
+public class CartSummaryDto {
+
+    private Long customerId;
+    private long itemsCount;
+    private BigDecimal totalCost;
+    private BigDecimal averagePrice;
+
+    public CartSummaryDto() {
+    }
+
+    public CartSummaryDto(Long customerId, long itemsCount, BigDecimal totalCost, BigDecimal averagePrice) {
+        this.customerId = customerId;
+        this.itemsCount = itemsCount;
+        this.totalCost = totalCost;
+        this.averagePrice = averagePrice;
+    }
+
+    public Long getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(Long customerId) {
+        this.customerId = customerId;
+    }
+
+    public long getItemsCount() {
+        return itemsCount;
+    }
+
+    public void setItemsCount(long itemsCount) {
+        this.itemsCount = itemsCount;
+    }
+
+    public BigDecimal getTotalCost() {
+        return totalCost;
+    }
+
+    public void setTotalCost(BigDecimal totalCost) {
+        this.totalCost = totalCost;
+    }
+
+    public BigDecimal getAveragePrice() {
+        return averagePrice;
+    }
+
+    public void setAveragePrice(BigDecimal averagePrice) {
+        this.averagePrice = averagePrice;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CartSummaryDto: customer id - %d, items - %d, total cost - %s, average price - %s",
+                customerId, itemsCount, totalCost, averagePrice);
+    }
+}
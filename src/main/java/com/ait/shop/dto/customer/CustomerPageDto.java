@@ -0,0 +1,40 @@
+package com.ait.shop.dto.customer;
+
+import java.util.List;
+
+//Dto для постраничной выдачи покупателей (keyset-пагинация)
+public class CustomerPageDto {
+
+    private List<CustomerSummaryDto> customers;
+    private Long nextCursor;
+
+    public CustomerPageDto() {
+    }
+
+    public CustomerPageDto(List<CustomerSummaryDto> customers, Long nextCursor) {
+        this.customers = customers;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<CustomerSummaryDto> getCustomers() {
+        return customers;
+    }
+
+    public void setCustomers(List<CustomerSummaryDto> customers) {
+        this.customers = customers;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Long nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CustomerPageDto: customers - %d, next cursor - %s",
+                customers == null ? 0 : customers.size(), nextCursor == null ? "none" : nextCursor);
+    }
+}
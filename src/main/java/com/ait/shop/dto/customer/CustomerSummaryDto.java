@@ -0,0 +1,70 @@
+package com.ait.shop.dto.customer;
+
+import java.math.BigDecimal;
+
+//Облегчённое Dto покупателя для списков: вместо корзины - количество товаров и её стоимость
+public class CustomerSummaryDto {
+
+    private Long id;
+    private String name;
+    private String imageUrl;
+    private long cartItemsCount;
+    private BigDecimal cartTotalCost;
+
+    public CustomerSummaryDto() {
+    }
+
+    public CustomerSummaryDto(Long id, String name, String imageUrl, long cartItemsCount, BigDecimal cartTotalCost) {
+        this.id = id;
+        this.name = name;
+        this.imageUrl = imageUrl;
+        this.cartItemsCount = cartItemsCount;
+        this.cartTotalCost = cartTotalCost;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public void setImageUrl(String imageUrl) {
+        this.imageUrl = imageUrl;
+    }
+
+    public long getCartItemsCount() {
+        return cartItemsCount;
+    }
+
+    public void setCartItemsCount(long cartItemsCount) {
+        this.cartItemsCount = cartItemsCount;
+    }
+
+    public BigDecimal getCartTotalCost() {
+        return cartTotalCost;
+    }
+
+    public void setCartTotalCost(BigDecimal cartTotalCost) {
+        this.cartTotalCost = cartTotalCost;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CustomerSummaryDto: id - %d, name - %s, cart items - %d, cart total cost - %s",
+                id, name, cartItemsCount, cartTotalCost);
+    }
+}
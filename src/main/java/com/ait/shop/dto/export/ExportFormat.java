@@ -0,0 +1,17 @@
+package com.ait.shop.dto.export;
+
+//Формат потоковой выгрузки: одна запись - одна строка
+public enum ExportFormat {
+    NDJSON("application/x-ndjson"),
+    CSV("text/csv");
+
+    private final String contentType;
+
+    ExportFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+}
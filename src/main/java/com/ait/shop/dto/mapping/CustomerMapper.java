@@ -4,10 +4,18 @@ import com.ait.shop.domain.Customer;
 import com.ait.shop.dto.customer.CustomerDto;
 import com.ait.shop.dto.customer.CustomerSaveDto;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+import org.mapstruct.Named;
 
 @Mapper(componentModel = "spring", uses = CartMapper.class)
 public interface CustomerMapper {
 
     CustomerDto mapEntityToDto(Customer entity);
+
+    //Для списков: корзина не маппится и, соответственно, её позиции не загружаются
+    @Named("withoutCart")
+    @Mapping(target = "cart", ignore = true)
+    CustomerDto mapEntityToListDto(Customer entity);
+
     Customer mapDtoToEntity(CustomerSaveDto saveDto);
 }
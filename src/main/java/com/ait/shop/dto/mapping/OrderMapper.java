@@ -0,0 +1,17 @@
+package com.ait.shop.dto.mapping;
+
+import com.ait.shop.domain.CustomerOrder;
+import com.ait.shop.domain.OrderLine;
+import com.ait.shop.dto.order.OrderDto;
+import com.ait.shop.dto.order.OrderLineDto;
+import org.mapstruct.Mapper;
+
+import java.util.List;
+
+@Mapper(componentModel = "spring")
+public interface OrderMapper {
+
+    OrderDto mapEntityToDto(CustomerOrder entity);
+    List<OrderDto> mapEntityListToDtoList(List<CustomerOrder> entityList);
+    OrderLineDto mapLineToDto(OrderLine entity);
+}
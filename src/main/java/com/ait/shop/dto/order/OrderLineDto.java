@@ -0,0 +1,59 @@
+package com.ait.shop.dto.order;
+
+import java.math.BigDecimal;
+
+public class OrderLineDto {
+
+    private Long productId;
+    private String title;
+    private BigDecimal price;
+    private int quantity;
+
+    public OrderLineDto() {
+    }
+
+    public OrderLineDto(Long productId, String title, BigDecimal price, int quantity) {
+        this.productId = productId;
+        this.title = title;
+        this.price = price;
+        this.quantity = quantity;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Long productId) {
+        this.productId = productId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public void setPrice(BigDecimal price) {
+        this.price = price;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OrderLine: product id - %d, title - %s, price - %s, quantity - %d",
+                productId, title, price, quantity);
+    }
+}
@@ -0,0 +1,40 @@
+package com.ait.shop.dto.order;
+
+import java.util.List;
+
+//Dto для постраничной истории заказов (keyset-пагинация от новых к старым)
+public class OrderPageDto {
+
+    private List<OrderDto> orders;
+    private Long nextCursor;
+
+    public OrderPageDto() {
+    }
+
+    public OrderPageDto(List<OrderDto> orders, Long nextCursor) {
+        this.orders = orders;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<OrderDto> getOrders() {
+        return orders;
+    }
+
+    public void setOrders(List<OrderDto> orders) {
+        this.orders = orders;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Long nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OrderPageDto: orders - %d, next cursor - %s",
+                orders == null ? 0 : orders.size(), nextCursor == null ? "none" : nextCursor);
+    }
+}
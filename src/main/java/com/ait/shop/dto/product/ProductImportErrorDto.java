@@ -0,0 +1,49 @@
+package com.ait.shop.dto.product;
+
+import java.util.List;
+
+//Ошибки одной строки массового импорта (номер строки считается с 1)
+public class ProductImportErrorDto {
+
+    private int row;
+    private String title;
+    private List<String> messages;
+
+    public ProductImportErrorDto() {
+    }
+
+    public ProductImportErrorDto(int row, String title, List<String> messages) {
+        this.row = row;
+        this.title = title;
+        this.messages = messages;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<String> messages) {
+        this.messages = messages;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProductImportErrorDto: row - %d, title - %s, messages - %s", row, title, messages);
+    }
+}
@@ -0,0 +1,70 @@
+package com.ait.shop.dto.product;
+
+import java.util.List;
+
+//Итог массового импорта продуктов
+public class ProductImportResultDto {
+
+    private int totalRows;
+    private int importedRows;
+    private List<ProductImportErrorDto> errors;
+    private long durationMillis;
+    private long rowsPerSecond;
+
+    public ProductImportResultDto() {
+    }
+
+    public ProductImportResultDto(int totalRows, int importedRows, List<ProductImportErrorDto> errors, long durationMillis) {
+        this.totalRows = totalRows;
+        this.importedRows = importedRows;
+        this.errors = errors;
+        this.durationMillis = durationMillis;
+        this.rowsPerSecond = durationMillis == 0 ? importedRows : importedRows * 1000L / durationMillis;
+    }
+
+    public int getTotalRows() {
+        return totalRows;
+    }
+
+    public void setTotalRows(int totalRows) {
+        this.totalRows = totalRows;
+    }
+
+    public int getImportedRows() {
+        return importedRows;
+    }
+
+    public void setImportedRows(int importedRows) {
+        this.importedRows = importedRows;
+    }
+
+    public List<ProductImportErrorDto> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<ProductImportErrorDto> errors) {
+        this.errors = errors;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    public long getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    public void setRowsPerSecond(long rowsPerSecond) {
+        this.rowsPerSecond = rowsPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProductImportResultDto: total - %d, imported - %d, errors - %d, %d rows/s",
+                totalRows, importedRows, errors == null ? 0 : errors.size(), rowsPerSecond);
+    }
+}
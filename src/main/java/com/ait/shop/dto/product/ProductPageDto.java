@@ -0,0 +1,40 @@
+package com.ait.shop.dto.product;
+
+import java.util.List;
+
+//Dto для постраничной выдачи продуктов (keyset-пагинация)
+public class ProductPageDto {
+
+    private List<ProductDto> products;
+    private String nextCursor;
+
+    public ProductPageDto() {
+    }
+
+    public ProductPageDto(List<ProductDto> products, String nextCursor) {
+        this.products = products;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<ProductDto> getProducts() {
+        return products;
+    }
+
+    public void setProducts(List<ProductDto> products) {
+        this.products = products;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProductPageDto: products - %d, next cursor - %s",
+                products == null ? 0 : products.size(), nextCursor == null ? "none" : nextCursor);
+    }
+}
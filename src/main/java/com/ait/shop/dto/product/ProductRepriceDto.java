@@ -0,0 +1,82 @@
+package com.ait.shop.dto.product;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+//Dto для массового изменения цен
+public class ProductRepriceDto {
+
+    private ProductRepriceSelector selector;
+    private List<Long> ids;
+    private BigDecimal minPrice;
+    private BigDecimal maxPrice;
+    private ProductRepriceOperation operation;
+    private BigDecimal value;
+    private RoundingMode rounding = RoundingMode.HALF_UP;
+
+    public ProductRepriceDto() {
+    }
+
+    public ProductRepriceSelector getSelector() {
+        return selector;
+    }
+
+    public void setSelector(ProductRepriceSelector selector) {
+        this.selector = selector;
+    }
+
+    public List<Long> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<Long> ids) {
+        this.ids = ids;
+    }
+
+    public BigDecimal getMinPrice() {
+        return minPrice;
+    }
+
+    public void setMinPrice(BigDecimal minPrice) {
+        this.minPrice = minPrice;
+    }
+
+    public BigDecimal getMaxPrice() {
+        return maxPrice;
+    }
+
+    public void setMaxPrice(BigDecimal maxPrice) {
+        this.maxPrice = maxPrice;
+    }
+
+    public ProductRepriceOperation getOperation() {
+        return operation;
+    }
+
+    public void setOperation(ProductRepriceOperation operation) {
+        this.operation = operation;
+    }
+
+    public BigDecimal getValue() {
+        return value;
+    }
+
+    public void setValue(BigDecimal value) {
+        this.value = value;
+    }
+
+    public RoundingMode getRounding() {
+        return rounding;
+    }
+
+    public void setRounding(RoundingMode rounding) {
+        this.rounding = rounding;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProductRepriceDto: selector - %s, operation - %s, value - %s, rounding - %s",
+                selector, operation, value, rounding);
+    }
+}
@@ -0,0 +1,8 @@
+package com.ait.shop.dto.product;
+
+//Как меняется цена: установить значение, изменить на процент или на абсолютную величину
+public enum ProductRepriceOperation {
+    SET,
+    PERCENT,
+    DELTA
+}
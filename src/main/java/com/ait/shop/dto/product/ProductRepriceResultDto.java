@@ -0,0 +1,58 @@
+package com.ait.shop.dto.product;
+
+//Итог массового изменения цен. skipped - продукты, у которых новая цена вышла бы за пределы 0-1000
+public class ProductRepriceResultDto {
+
+    private long matched;
+    private long updated;
+    private long skipped;
+    private long durationMillis;
+
+    public ProductRepriceResultDto() {
+    }
+
+    public ProductRepriceResultDto(long matched, long updated, long durationMillis) {
+        this.matched = matched;
+        this.updated = updated;
+        this.skipped = matched - updated;
+        this.durationMillis = durationMillis;
+    }
+
+    public long getMatched() {
+        return matched;
+    }
+
+    public void setMatched(long matched) {
+        this.matched = matched;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(long updated) {
+        this.updated = updated;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(long skipped) {
+        this.skipped = skipped;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProductRepriceResultDto: matched - %d, updated - %d, skipped - %d",
+                matched, updated, skipped);
+    }
+}
@@ -0,0 +1,8 @@
+package com.ait.shop.dto.product;
+
+//Какие продукты затрагивает массовое изменение цены
+public enum ProductRepriceSelector {
+    IDS,
+    PRICE_RANGE,
+    ALL_ACTIVE
+}
@@ -0,0 +1,8 @@
+package com.ait.shop.dto.product;
+
+//Поле, по которому сортируется постраничная выдача продуктов
+public enum ProductSortField {
+    ID,
+    PRICE,
+    TITLE
+}
@@ -0,0 +1,37 @@
+package com.ait.shop.dto.product;
+
+//Dto остатка продукта: stock - сколько ещё можно положить в корзины, null - остаток не отслеживается
+public class ProductStockDto {
+
+    private Long productId;
+    private Integer stock;
+
+    public ProductStockDto() {
+    }
+
+    public ProductStockDto(Long productId, Integer stock) {
+        this.productId = productId;
+        this.stock = stock;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Long productId) {
+        this.productId = productId;
+    }
+
+    public Integer getStock() {
+        return stock;
+    }
+
+    public void setStock(Integer stock) {
+        this.stock = stock;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProductStockDto: product id - %d, stock - %s", productId, stock);
+    }
+}
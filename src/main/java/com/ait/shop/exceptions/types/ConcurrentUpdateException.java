@@ -0,0 +1,7 @@
+package com.ait.shop.exceptions.types;
+
+public class ConcurrentUpdateException extends RuntimeException {
+    public ConcurrentUpdateException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
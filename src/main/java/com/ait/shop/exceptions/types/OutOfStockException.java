@@ -0,0 +1,8 @@
+package com.ait.shop.exceptions.types;
+
+public class OutOfStockException extends RuntimeException {
+    public OutOfStockException(Long productId, int requested, int available) {
+        super(String.format("Product with id %d is out of stock: requested %d, available %d",
+                productId, requested, available));
+    }
+}
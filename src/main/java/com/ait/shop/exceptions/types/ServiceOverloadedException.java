@@ -0,0 +1,7 @@
+package com.ait.shop.exceptions.types;
+
+public class ServiceOverloadedException extends RuntimeException {
+    public ServiceOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -1,14 +1,84 @@
 package com.ait.shop.repository;
 
 import com.ait.shop.domain.Customer;
+import com.ait.shop.domain.Position;
+import com.ait.shop.repository.projection.CartSummaryView;
+import com.ait.shop.repository.projection.CustomerNameView;
+import com.ait.shop.repository.projection.CustomerSummaryView;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface CustomerRepository extends JpaRepository<Customer, Long> {
 
+    //Список без позиций: корзина подтягивается тем же запросом, чтобы не было N+1
+    @EntityGraph(attributePaths = "cart")
     List<Customer> findAllByActiveTrue();
+
     Optional<Customer> findByIdAndActiveTrue(Long id);
+
+    //Детальный просмотр: покупатель, позиции и продукты одним запросом
+    @EntityGraph("Customer.withCartAndProducts")
+    Optional<Customer> findWithCartByIdAndActiveTrue(Long id);
+
+    @Query("select ca.id from Customer c join c.cart ca where c.id = :id and c.active = true")
+    Optional<Long> findActiveCartId(@Param("id") Long id);
+
     long countByActiveTrue();
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select c from Customer c left join fetch c.cart where c.active = true order by c.id")
+    Stream<Customer> streamAllActive();
+
+    //Позиции нескольких корзин вместе с продуктами одним запросом - для выгрузки кусками
+    @Query("select p from Position p join fetch p.product where p.cart.id in :cartIds")
+    List<Position> findPositionsWithProductsByCartIds(@Param("cartIds") Collection<Long> cartIds);
+
+    //Итоги корзины хранятся в самой корзине (item_count, total_cost), поэтому это чтение одной строки по ключу
+    @Query("""
+            select cast(ca.itemCount as Long) as itemsCount, ca.totalCost as totalCost
+            from Customer c
+            join c.cart ca
+            where c.id = :id and c.active = true
+            """)
+    Optional<CartSummaryView> findActiveCartSummary(@Param("id") Long id);
+
+    //Keyset-страница облегчённых покупателей: итоги корзины берутся из её денормализованных колонок,
+    //сущности и MapStruct не участвуют
+    @Query("""
+            select c.id as id, c.name as name, c.imageUrl as imageUrl,
+                   cast(ca.itemCount as Long) as itemsCount, ca.totalCost as totalCost
+            from Customer c
+            join c.cart ca
+            where c.active = true and c.id > :afterId
+            order by c.id
+            """)
+    List<CustomerSummaryView> findActiveSummaryPage(@Param("afterId") Long afterId, Limit limit);
+
+    //Те же облегчённые покупатели по списку id (страница результатов поиска). Активность перепроверяется в БД,
+    //поэтому покупатель, удалённый после попадания в индекс, в выдачу не попадёт
+    @Query("""
+            select c.id as id, c.name as name, c.imageUrl as imageUrl,
+                   cast(ca.itemCount as Long) as itemsCount, ca.totalCost as totalCost
+            from Customer c
+            join c.cart ca
+            where c.active = true and c.id in :ids
+            """)
+    List<CustomerSummaryView> findActiveSummariesByIds(@Param("ids") Collection<Long> ids);
+
+    @Query("select c.id as id, c.name as name from Customer c where c.active = true and c.id > :afterId order by c.id")
+    List<CustomerNameView> findActiveNamePage(@Param("afterId") Long afterId, Limit limit);
 }
@@ -0,0 +1,18 @@
+package com.ait.shop.repository;
+
+import com.ait.shop.domain.CustomerOrder;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import java.util.List;
+
+public interface OrderRepository extends JpaRepository<CustomerOrder, Long> {
+
+    //Keyset-страница истории заказов от новых к старым по индексу (customer_id, id).
+    //Строки заказов догружаются пачками через @BatchSize, а не отдельным запросом на каждый заказ
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    List<CustomerOrder> findByCustomerIdAndIdLessThanOrderByIdDesc(Long customerId, Long before, Limit limit);
+}
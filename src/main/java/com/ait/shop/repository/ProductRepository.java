@@ -1,10 +1,20 @@
 package com.ait.shop.repository;
 
 import com.ait.shop.domain.Product;
+import com.ait.shop.repository.projection.ProductStatisticsView;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /*
 Как работает технология Spring Data JPA?
@@ -23,4 +33,74 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     List<Product> findAllByActiveTrue();
     Optional<Product> findByIdAndActiveTrue(Long id);
     long countByActiveTrue();
+
+    @Query("select count(p) as productsCount, sum(p.price) as totalCost from Product p where p.active = true")
+    ProductStatisticsView getActiveStatistics();
+
+    @Query("select p.title from Product p where p.title in :titles")
+    List<String> findExistingTitles(@Param("titles") Collection<String> titles);
+
+    List<Product> findAllByTitleIn(Collection<String> titles);
+
+    List<Product> findAllByIdInAndActiveTrue(Collection<Long> ids);
+
+    //Потоковое чтение для выгрузок: драйвер получает строки порциями по fetch size,
+    //а не весь результат сразу. Вызывать только внутри транзакции и обязательно закрывать Stream
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select p from Product p where p.active = true order by p.id")
+    Stream<Product> streamAllActive();
+
+    //Keyset-пагинация: вместо OFFSET продолжаем выборку сразу после последней записи предыдущей страницы.
+    //Запросы опираются на индексы (active, id), (active, price, id) и (active, title, id),
+    //поэтому время выдачи страницы не зависит от того, насколько глубоко листает клиент.
+    //Условие "k >= :after" избыточно по смыслу, но даёт БД нижнюю границу для поиска по индексу:
+    //без него сравнение через OR читает индекс от начала диапазона цен или от первого названия
+    @Query("""
+            select p from Product p
+            where p.active = true
+              and p.price between :minPrice and :maxPrice
+              and p.id > :afterId
+            order by p.id
+            """)
+    List<Product> findActivePageOrderById(
+            @Param("afterId") Long afterId,
+            @Param("minPrice") BigDecimal minPrice,
+            @Param("maxPrice") BigDecimal maxPrice,
+            Limit limit
+    );
+
+    @Query("""
+            select p from Product p
+            where p.active = true
+              and p.price between :minPrice and :maxPrice
+              and p.price >= :afterPrice
+              and (p.price > :afterPrice or (p.price = :afterPrice and p.id > :afterId))
+            order by p.price, p.id
+            """)
+    List<Product> findActivePageOrderByPrice(
+            @Param("afterPrice") BigDecimal afterPrice,
+            @Param("afterId") Long afterId,
+            @Param("minPrice") BigDecimal minPrice,
+            @Param("maxPrice") BigDecimal maxPrice,
+            Limit limit
+    );
+
+    @Query("""
+            select p from Product p
+            where p.active = true
+              and p.price between :minPrice and :maxPrice
+              and p.title >= :afterTitle
+              and (p.title > :afterTitle or (p.title = :afterTitle and p.id > :afterId))
+            order by p.title, p.id
+            """)
+    List<Product> findActivePageOrderByTitle(
+            @Param("afterTitle") String afterTitle,
+            @Param("afterId") Long afterId,
+            @Param("minPrice") BigDecimal minPrice,
+            @Param("maxPrice") BigDecimal maxPrice,
+            Limit limit
+    );
 }
@@ -2,10 +2,24 @@ package com.ait.shop.repository;
 
 import com.ait.shop.domain.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
 
     Optional<User> findByEmail(String email);
+
+    @Query("select u.tokenVersion from User u where u.email = :email")
+    Optional<Integer> findTokenVersionByEmail(@Param("email") String email);
+
+    @Modifying
+    @Query("update User u set u.password = :newPassword where u.email = :email and u.password = :oldPassword")
+    int updatePassword(
+            @Param("email") String email,
+            @Param("oldPassword") String oldPassword,
+            @Param("newPassword") String newPassword
+    );
 }
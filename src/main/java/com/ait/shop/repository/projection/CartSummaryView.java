@@ -0,0 +1,11 @@
+package com.ait.shop.repository.projection;
+
+import java.math.BigDecimal;
+
+//Агрегаты по активным продуктам в корзине покупателя, посчитанные в БД одним запросом
+public interface CartSummaryView {
+
+    Long getItemsCount();
+
+    BigDecimal getTotalCost();
+}
@@ -0,0 +1,9 @@
+package com.ait.shop.repository.projection;
+
+//Покупатель для поискового индекса: только id и имя
+public interface CustomerNameView {
+
+    Long getId();
+
+    String getName();
+}
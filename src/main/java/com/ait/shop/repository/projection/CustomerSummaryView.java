@@ -0,0 +1,17 @@
+package com.ait.shop.repository.projection;
+
+import java.math.BigDecimal;
+
+//Покупатель для списков: без корзины, только её итоги, посчитанные в БД
+public interface CustomerSummaryView {
+
+    Long getId();
+
+    String getName();
+
+    String getImageUrl();
+
+    Long getItemsCount();
+
+    BigDecimal getTotalCost();
+}
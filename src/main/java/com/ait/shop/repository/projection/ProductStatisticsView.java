@@ -0,0 +1,11 @@
+package com.ait.shop.repository.projection;
+
+import java.math.BigDecimal;
+
+//Агрегаты по активным продуктам, посчитанные в БД одним запросом
+public interface ProductStatisticsView {
+
+    Long getProductsCount();
+
+    BigDecimal getTotalCost();
+}
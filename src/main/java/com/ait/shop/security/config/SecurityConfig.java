@@ -1,6 +1,8 @@
 package com.ait.shop.security.config;
 
+import com.ait.shop.security.filter.RateLimitFilter;
 import com.ait.shop.security.filter.TokenFilter;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -24,13 +26,18 @@ public class SecurityConfig {
     @Value("${security.csrf-enabled:true}")
     private boolean csrfEnabled;
 
+    //Стоимость BCrypt (4-31). После увеличения старые хеши перехешируются при входе пользователя
     @Bean
-    public BCryptPasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public BCryptPasswordEncoder passwordEncoder(@Value("${security.password.bcrypt-strength:10}") int strength) {
+        return new BCryptPasswordEncoder(strength);
     }
 
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http, TokenFilter filter) throws Exception {
+    public SecurityFilterChain securityFilterChain(
+            HttpSecurity http,
+            TokenFilter filter,
+            RateLimitFilter rateLimitFilter
+    ) throws Exception {
         return http
                 .csrf(x -> {
                             if (csrfEnabled) {
@@ -53,29 +60,47 @@ public class SecurityConfig {
                 )
                 .httpBasic(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(
-                        x -> x.requestMatchers(HttpMethod.POST, "/products").hasRole("ADMIN")
+                        //Потоковые ответы (выгрузки) завершаются повторной ASYNC-диспетчеризацией того же запроса.
+                        //TokenFilter на ней не срабатывает, а сам запрос уже прошёл проверку прав при первом входе
+                        x -> x.dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+
+                                .requestMatchers(HttpMethod.POST, "/products").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.GET, "/products").permitAll()
+                                .requestMatchers(HttpMethod.GET, "/products/page").permitAll()
+                                .requestMatchers(HttpMethod.GET, "/products/search").permitAll()
                                 .requestMatchers(HttpMethod.GET, "/products/{id:\\d+}").hasAnyRole("ADMIN", "USER")
                                 .requestMatchers(HttpMethod.PUT, "/products/{id:\\d+}").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.DELETE, "/products/{id:\\d+}").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.PUT, "/products/{id:\\d+}/restore").hasRole("ADMIN")
+                                .requestMatchers(HttpMethod.GET, "/products/{id:\\d+}/stock").hasRole("ADMIN")
+                                .requestMatchers(HttpMethod.PUT, "/products/{id:\\d+}/stock").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.GET, "/products/count").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.GET, "/products/total-cost").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.GET, "/products/avg-price").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.POST, "/products/{id:\\d+}/image").hasRole("ADMIN")
+                                .requestMatchers(HttpMethod.GET, "/products/export").hasRole("ADMIN")
+                                .requestMatchers(HttpMethod.POST, "/products/import").hasRole("ADMIN")
+                                .requestMatchers(HttpMethod.POST, "/products/reprice").hasRole("ADMIN")
 
                                 .requestMatchers(HttpMethod.POST, "/customers").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.GET, "/customers").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.GET, "/customers/{id:\\d+}").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.GET, "/customers/count").hasRole("ADMIN")
+                                .requestMatchers(HttpMethod.GET, "/customers/page").hasRole("ADMIN")
+                                .requestMatchers(HttpMethod.GET, "/customers/search").hasRole("ADMIN")
+                                .requestMatchers(HttpMethod.GET, "/customers/export").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.PUT, "/customers/{id:\\d+}").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.PUT, "/customers/{id:\\d+}/restore").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.DELETE, "/customers/{id:\\d+}").hasRole("ADMIN")
                                 .requestMatchers(HttpMethod.POST, "/customers/{customerId:\\d+}/cart/items/{productId:\\d+}").hasAnyRole("ADMIN", "USER")
+                                .requestMatchers(HttpMethod.POST, "/customers/{customerId:\\d+}/cart/items/batch").hasAnyRole("ADMIN", "USER")
                                 .requestMatchers(HttpMethod.PUT, "/customers/{customerId:\\d+}/cart/items/{productId:\\d+}/remove").hasAnyRole("ADMIN", "USER")
+                                .requestMatchers(HttpMethod.GET, "/customers/{customerId:\\d+}/cart/summary").hasAnyRole("ADMIN", "USER")
                                 .requestMatchers(HttpMethod.GET, "/customers/{customerId:\\d+}/cart/total-cost").hasAnyRole("ADMIN", "USER")
                                 .requestMatchers(HttpMethod.GET, "/customers/{customerId:\\d+}/cart/avg-price").hasAnyRole("ADMIN", "USER")
                                 .requestMatchers(HttpMethod.DELETE, "/customers/{customerId:\\d+}/cart/items").hasAnyRole("ADMIN", "USER")
+                                .requestMatchers(HttpMethod.POST, "/customers/{customerId:\\d+}/checkout").hasAnyRole("ADMIN", "USER")
+                                .requestMatchers(HttpMethod.GET, "/customers/{customerId:\\d+}/orders").hasAnyRole("ADMIN", "USER")
                                 .requestMatchers(HttpMethod.POST, "/customers/{customerId:\\d+}/image").hasAnyRole("ADMIN", "USER")
 
                                 .requestMatchers(HttpMethod.POST, "/auth/login").permitAll()
@@ -86,6 +111,9 @@ public class SecurityConfig {
                                 .requestMatchers(HttpMethod.POST, "users/register").permitAll()
                                 .requestMatchers(HttpMethod.GET, "users/confirm/{code}").permitAll()
 
+                                .requestMatchers(HttpMethod.GET, "/actuator/health").permitAll()
+                                .requestMatchers(HttpMethod.GET, "/actuator/**").hasRole("ADMIN")
+
                                 .requestMatchers(
                                         "/v3/api-docs/**",
                                         "/swagger-ui/**",
@@ -95,6 +123,7 @@ public class SecurityConfig {
                                 .anyRequest().denyAll()
                 )
                 .addFilterBefore(filter, UsernamePasswordAuthenticationFilter.class)
+                .addFilterBefore(rateLimitFilter, TokenFilter.class)
                 .build();
     }
 }
@@ -0,0 +1,47 @@
+package com.ait.shop.security.filter;
+
+import com.ait.shop.security.service.RateLimiter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/*
+Лимит попыток входа, обновления токена и регистрации с одного IP (RateLimiter).
+Стоит первым в цепочке безопасности: отклонённый запрос не проверяет токен, не читает тело и не ходит в БД.
+ */
+
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final RateLimiter rateLimiter;
+
+    public RateLimitFilter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        String route = rateLimiter.findRoute(request.getMethod(), request.getServletPath());
+
+        if (route != null) {
+            long retryAfterSeconds = rateLimiter.acquireByIp(route, request.getRemoteAddr());
+
+            if (retryAfterSeconds > 0) {
+                response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+                response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+                response.setContentType("text/plain");
+                response.getWriter().write("Too many attempts, please repeat later");
+                return;
+            }
+        }
+
+        filterChain.doFilter(request, response);
+    }
+}
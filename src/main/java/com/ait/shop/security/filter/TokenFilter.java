@@ -3,6 +3,7 @@ package com.ait.shop.security.filter;
 import com.ait.shop.constants.Constants;
 import com.ait.shop.domain.User;
 import com.ait.shop.security.service.TokenService;
+import com.ait.shop.security.service.TokenVersionCache;
 import com.ait.shop.service.interfaces.UserService;
 import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
@@ -10,42 +11,79 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.List;
 
 import static com.ait.shop.constants.Constants.ACCESS_TOKEN_COOKIE_NAME;
 
+/*
+Аутентификация запроса по access token.
+    1. Токен содержит роль и версию пользователя (claims role и ver) - принципал строится прямо из проверенных
+    claims, без чтения пользователя из БД. Версия сверяется с TokenVersionCache: токены, выпущенные до
+    изменения роли или подтверждения, отклоняются
+    2. Токены без claim role (выпущенные до появления claims) по-прежнему проверяются через UserService
+ */
+
 @Component
 public class TokenFilter extends OncePerRequestFilter {
 
     private final TokenService tokenService;
     private final UserService userService;
+    private final TokenVersionCache tokenVersionCache;
 
-    public TokenFilter(TokenService tokenService, UserService userService) {
+    public TokenFilter(TokenService tokenService, UserService userService, TokenVersionCache tokenVersionCache) {
         this.tokenService = tokenService;
         this.userService = userService;
+        this.tokenVersionCache = tokenVersionCache;
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
         String accessToken = tokenService.getTokenFromRequest(request, ACCESS_TOKEN_COOKIE_NAME);
 
-        if (accessToken != null && tokenService.validateAccessToken(accessToken)) {
-            Claims claims = tokenService.getAccessClaims(accessToken);
-            String email = claims.getSubject();
-            UserDetails userDetails = userService.loadUserByUsername(email);
+        //Одна проверка подписи на запрос, а для повторяющегося токена - ни одной (кэш в TokenService)
+        Claims claims = tokenService.verifyAccessToken(accessToken).orElse(null);
 
-            UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                    userDetails, null, userDetails.getAuthorities()
-            );
+        if (claims != null) {
+            UsernamePasswordAuthenticationToken authToken = claims.get(TokenService.ROLE_CLAIM) == null
+                    ? authenticateFromDatabase(claims)
+                    : authenticateFromClaims(claims);
 
-            SecurityContextHolder.getContext().setAuthentication(authToken);
+            if (authToken != null) {
+                SecurityContextHolder.getContext().setAuthentication(authToken);
+            }
         }
 
         filterChain.doFilter(request, response);
     }
+
+    private UsernamePasswordAuthenticationToken authenticateFromClaims(Claims claims) {
+        String email = claims.getSubject();
+        Integer version = claims.get(TokenService.VERSION_CLAIM, Integer.class);
+
+        if (email == null || version == null || !tokenVersionCache.isCurrent(email, version)) {
+            return null;
+        }
+
+        List<GrantedAuthority> authorities = List.of(
+                new SimpleGrantedAuthority(claims.get(TokenService.ROLE_CLAIM, String.class))
+        );
+
+        return new UsernamePasswordAuthenticationToken(email, null, authorities);
+    }
+
+    private UsernamePasswordAuthenticationToken authenticateFromDatabase(Claims claims) {
+        UserDetails userDetails = userService.loadUserByUsername(claims.getSubject());
+
+        return new UsernamePasswordAuthenticationToken(
+                userDetails, null, userDetails.getAuthorities()
+        );
+    }
 }
@@ -2,47 +2,61 @@ package com.ait.shop.security.service;
 
 import com.ait.shop.constants.Constants;
 import com.ait.shop.exceptions.types.AuthorizationException;
+import com.ait.shop.exceptions.types.ServiceOverloadedException;
+import com.ait.shop.security.AuthUserDetails;
 import com.ait.shop.security.dto.LoginRequestDto;
 import com.ait.shop.security.dto.TokenResponseDto;
 import com.ait.shop.service.interfaces.UserService;
 import io.jsonwebtoken.Claims;
 import jakarta.servlet.http.HttpServletRequest;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.time.Instant;
 
 import static com.ait.shop.constants.Constants.REFRESH_TOKEN_COOKIE_NAME;
 
 @Service
 public class AuthService {
 
+    private final Logger logger = LoggerFactory.getLogger(AuthService.class);
     private final UserService userService;
     private final TokenService tokenService;
-    private final BCryptPasswordEncoder passwordEncoder;
-    private final Map<String, String> refreshStorage;
-
-    public AuthService(UserService userService, TokenService tokenService, BCryptPasswordEncoder passwordEncoder) {
+    private final PasswordHasher passwordHasher;
+    private final RefreshTokenStore refreshTokenStore;
+    private final RateLimiter rateLimiter;
+
+    public AuthService(
+            UserService userService,
+            TokenService tokenService,
+            PasswordHasher passwordHasher,
+            RefreshTokenStore refreshTokenStore,
+            RateLimiter rateLimiter
+    ) {
         this.userService = userService;
         this.tokenService = tokenService;
-        this.passwordEncoder = passwordEncoder;
-        refreshStorage = new ConcurrentHashMap<>();
+        this.passwordHasher = passwordHasher;
+        this.refreshTokenStore = refreshTokenStore;
+        this.rateLimiter = rateLimiter;
     }
 
     public TokenResponseDto login(LoginRequestDto requestDto) {
         String email = requestDto.getEmail();
-        UserDetails userDetails = userService.loadUserByUsername(email);
+        //До запроса в БД и BCrypt: перебор паролей одного email с разных IP отклоняется сразу
+        rateLimiter.checkEmail(RateLimiter.LOGIN, email);
+        AuthUserDetails userDetails = loadUser(email);
 
         if (!userDetails.isEnabled()) {
             throw new AuthorizationException("Email is not confirmed");
         }
 
-        if (passwordEncoder.matches(requestDto.getPassword(), userDetails.getPassword())) {
-            String accessToken = tokenService.generateAccessToken(email);
+        if (passwordHasher.matches(requestDto.getPassword(), userDetails.getPassword())) {
+            rehashIfNeeded(email, requestDto.getPassword(), userDetails.getPassword());
+
+            String accessToken = tokenService.generateAccessToken(userDetails.getUser());
             String refreshToken = tokenService.generateRefreshToken(email);
-            refreshStorage.put(email, refreshToken);
+            refreshTokenStore.save(email, refreshToken, Instant.now().plus(TokenService.REFRESH_TOKEN_LIFETIME));
 
             return new TokenResponseDto(accessToken, refreshToken);
         } else {
@@ -52,14 +66,14 @@ public class AuthService {
 
     public TokenResponseDto getAccessToken(HttpServletRequest request) {
         String refreshToken = tokenService.getTokenFromRequest(request, REFRESH_TOKEN_COOKIE_NAME);
+        Claims claims = tokenService.verifyRefreshToken(refreshToken).orElse(null);
 
-        if (refreshToken != null && tokenService.validateRefreshToken(refreshToken)) {
-            Claims claims = tokenService.getRefreshClaims(refreshToken);
+        if (claims != null) {
             String email = claims.getSubject();
-            String savedRefreshToken = refreshStorage.get(email);
 
-            if (savedRefreshToken != null && savedRefreshToken.equals(refreshToken)) {
-                String accessToken = tokenService.generateAccessToken(email);
+            if (refreshTokenStore.isActive(email, refreshToken)) {
+                //Обновление токена - редкая операция, здесь роль и версия берутся из БД заново
+                String accessToken = tokenService.generateAccessToken(loadUser(email).getUser());
                 return new TokenResponseDto(accessToken);
             }
         }
@@ -70,10 +84,27 @@ public class AuthService {
     public void removeUserRefreshToken(HttpServletRequest request) {
         String refreshToken = tokenService.getTokenFromRequest(request, REFRESH_TOKEN_COOKIE_NAME);
 
-        if (refreshToken != null && tokenService.validateRefreshToken(refreshToken)) {
-            Claims claims = tokenService.getRefreshClaims(refreshToken);
-            String email = claims.getSubject();
-            refreshStorage.remove(email);
+        //Завершается только эта сессия, входы пользователя с других устройств остаются
+        if (tokenService.verifyRefreshToken(refreshToken).isPresent()) {
+            refreshTokenStore.remove(refreshToken);
+        }
+    }
+
+    //Стоимость BCrypt увеличили - пароль известен только при входе, поэтому хеш обновляется здесь.
+    //Пул хеширования перегружен - вход не отклоняем, перехешируем при следующем входе
+    private void rehashIfNeeded(String email, String rawPassword, String passwordHash) {
+        if (!passwordHasher.needsRehash(passwordHash)) {
+            return;
+        }
+
+        try {
+            userService.rehashPassword(email, passwordHash, passwordHasher.encode(rawPassword));
+        } catch (ServiceOverloadedException e) {
+            logger.warn("Password rehash of user {} is postponed: {}", email, e.getMessage());
         }
     }
+
+    private AuthUserDetails loadUser(String email) {
+        return (AuthUserDetails) userService.loadUserByUsername(email);
+    }
 }
@@ -0,0 +1,62 @@
+package com.ait.shop.security.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Сессии refresh token в памяти узла - для одиночного узла и тестов. После рестарта все пользователи
+входят заново, на других узлах сессии не видны.
+    1. Ключ - SHA-256 токена, как и в таблице refresh_token
+    2. Истёкшие сессии удаляются раз в sweep-interval-ms
+ */
+
+@Service
+@ConditionalOnProperty(name = "security.refresh-store.mode", havingValue = "memory")
+public class InMemoryRefreshTokenStore implements RefreshTokenStore {
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(String email, String refreshToken, Instant expiresAt) {
+        Objects.requireNonNull(email, "Email cannot be null");
+        Objects.requireNonNull(refreshToken, "Refresh token cannot be null");
+        Objects.requireNonNull(expiresAt, "Expiration cannot be null");
+
+        sessions.put(TokenService.sha256(refreshToken), new Session(email, expiresAt));
+    }
+
+    @Override
+    public boolean isActive(String email, String refreshToken) {
+        if (email == null || refreshToken == null) {
+            return false;
+        }
+
+        Session session = sessions.get(TokenService.sha256(refreshToken));
+        return session != null && session.email().equals(email) && session.expiresAt().isAfter(Instant.now());
+    }
+
+    @Override
+    public void remove(String refreshToken) {
+        if (refreshToken != null) {
+            sessions.remove(TokenService.sha256(refreshToken));
+        }
+    }
+
+    @Scheduled(
+            initialDelayString = "${security.refresh-store.sweep-interval-ms:600000}",
+            fixedDelayString = "${security.refresh-store.sweep-interval-ms:600000}"
+    )
+    public void sweepExpired() {
+        Instant now = Instant.now();
+        sessions.values().removeIf(session -> !session.expiresAt().isAfter(now));
+    }
+
+    private record Session(String email, Instant expiresAt) {
+    }
+}
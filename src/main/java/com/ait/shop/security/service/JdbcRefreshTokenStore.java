@@ -0,0 +1,181 @@
+package com.ait.shop.security.service;
+
+import com.ait.shop.service.DatabaseLease;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/*
+Сессии refresh token в таблице refresh_token - общие для всех узлов и переживают рестарт.
+    1. В таблице только SHA-256 токена (TokenService.sha256), сам токен нигде не хранится
+    2. Перед таблицей - near-cache найденных и ненайденных сессий по хешу токена на cache-ttl-ms (Caffeine,
+    не больше cache-max-entries, метрики cache.* с тегом cache=refresh-sessions). Выход сбрасывает запись
+    на своём узле сразу, а на других узлах завершённая сессия принимается не дольше cache-ttl-ms -
+    это окно держится намного короче срока жизни access token. cache-ttl-ms = 0 выключает кэш
+    3. Истёкшие строки удаляются раз в sweep-interval-ms по индексу expires_at кусками по chunk-size,
+    под арендой refresh-token-sweep в scheduler_lease - в кластере чистит один узел.
+    Метрика security.refresh-tokens.expired - сколько строк удалено
+ */
+
+@Service
+@ConditionalOnProperty(name = "security.refresh-store.mode", havingValue = "database", matchIfMissing = true)
+public class JdbcRefreshTokenStore implements RefreshTokenStore {
+
+    private static final String LEASE_NAME = "refresh-token-sweep";
+
+    private static final String INSERT_SQL = """
+            insert into refresh_token (token_hash, email, created_at, expires_at)
+            values (:hash, :email, :createdAt, :expiresAt)
+            """;
+
+    private static final String FIND_SQL = "select email, expires_at from refresh_token where token_hash = :hash";
+
+    private static final String DELETE_SQL = "delete from refresh_token where token_hash = :hash";
+
+    private static final String FIND_EXPIRED_SQL = """
+            select token_hash from refresh_token where expires_at < :now order by expires_at limit :limit
+            """;
+
+    private static final String DELETE_EXPIRED_SQL = """
+            delete from refresh_token where token_hash in (:hashes) and expires_at < :now
+            """;
+
+    private final Logger logger = LoggerFactory.getLogger(JdbcRefreshTokenStore.class);
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final DatabaseLease lease;
+    private final MeterRegistry meterRegistry;
+    private final int chunkSize;
+    private final Duration leaseTtl;
+    private final Cache<String, Optional<Session>> sessions;
+
+    public JdbcRefreshTokenStore(
+            NamedParameterJdbcTemplate jdbcTemplate,
+            DatabaseLease lease,
+            MeterRegistry meterRegistry,
+            @Value("${security.refresh-store.chunk-size:1000}") int chunkSize,
+            @Value("${security.refresh-store.lease-ttl-ms:600000}") long leaseTtlMs,
+            @Value("${security.refresh-store.cache-ttl-ms:5000}") long cacheTtlMs,
+            @Value("${security.refresh-store.cache-max-entries:100000}") long cacheMaxEntries
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.lease = lease;
+        this.meterRegistry = meterRegistry;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.leaseTtl = Duration.ofMillis(Math.max(1000, leaseTtlMs));
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(cacheTtlMs > 0 ? Math.max(1, cacheMaxEntries) : 0)
+                .expireAfterWrite(Duration.ofMillis(Math.max(0, cacheTtlMs)))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, sessions, "refresh-sessions");
+    }
+
+    @Override
+    public void save(String email, String refreshToken, Instant expiresAt) {
+        Objects.requireNonNull(email, "Email cannot be null");
+        Objects.requireNonNull(refreshToken, "Refresh token cannot be null");
+        Objects.requireNonNull(expiresAt, "Expiration cannot be null");
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("hash", TokenService.sha256(refreshToken))
+                .addValue("email", email)
+                .addValue("createdAt", Timestamp.from(Instant.now()))
+                .addValue("expiresAt", Timestamp.from(expiresAt));
+
+        jdbcTemplate.update(INSERT_SQL, params);
+    }
+
+    @Override
+    public boolean isActive(String email, String refreshToken) {
+        if (email == null || refreshToken == null) {
+            return false;
+        }
+
+        //Срок проверяется при каждом обращении: закэшированная сессия могла истечь после чтения из БД
+        return sessions.get(TokenService.sha256(refreshToken), this::find)
+                .filter(session -> session.email().equals(email) && session.expiresAt().isAfter(Instant.now()))
+                .isPresent();
+    }
+
+    @Override
+    public void remove(String refreshToken) {
+        if (refreshToken == null) {
+            return;
+        }
+
+        String hash = TokenService.sha256(refreshToken);
+        jdbcTemplate.update(DELETE_SQL, new MapSqlParameterSource("hash", hash));
+        sessions.invalidate(hash);
+    }
+
+    @Scheduled(
+            initialDelayString = "${security.refresh-store.sweep-interval-ms:600000}",
+            fixedDelayString = "${security.refresh-store.sweep-interval-ms:600000}"
+    )
+    public void sweepExpired() {
+        if (!lease.tryAcquire(LEASE_NAME, leaseTtl)) {
+            return;
+        }
+
+        long total = 0;
+
+        try {
+            //Каждый кусок - один DELETE в своей транзакции (autocommit), долгих блокировок на таблице нет
+            while (true) {
+                MapSqlParameterSource params = new MapSqlParameterSource()
+                        .addValue("now", Timestamp.from(Instant.now()))
+                        .addValue("limit", chunkSize);
+                List<String> hashes = jdbcTemplate.queryForList(FIND_EXPIRED_SQL, params, String.class);
+
+                if (!hashes.isEmpty()) {
+                    total += jdbcTemplate.update(DELETE_EXPIRED_SQL, params.addValue("hashes", hashes));
+                }
+
+                if (hashes.size() < chunkSize) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            //Оставшиеся строки удалит следующий запуск, до тех пор они не принимаются по expires_at
+            logger.error("Refresh token sweep failed after {} rows", total, e);
+        } finally {
+            lease.release(LEASE_NAME);
+        }
+
+        meterRegistry.counter("security.refresh-tokens.expired").increment(total);
+
+        if (total > 0) {
+            logger.info("Removed {} expired refresh tokens", total);
+        }
+    }
+
+    private Optional<Session> find(String hash) {
+        List<Session> rows = jdbcTemplate.query(
+                FIND_SQL,
+                new MapSqlParameterSource("hash", hash),
+                (rs, rowNum) -> new Session(rs.getString("email"), rs.getTimestamp("expires_at").toInstant())
+        );
+
+        return rows.stream().findFirst();
+    }
+
+    private record Session(String email, Instant expiresAt) {
+    }
+}
@@ -0,0 +1,131 @@
+package com.ait.shop.security.service;
+
+import com.ait.shop.exceptions.types.ServiceOverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Хеширование и проверка паролей (BCrypt) на отдельном ограниченном пуле.
+    1. BCrypt нагружает процессор, поэтому пул размером threads (по умолчанию - число ядер), а не потоки Tomcat:
+    всплеск входов занимает только этот пул, запросы каталога продолжают обслуживаться
+    2. Очередь ограничена queue-capacity (по умолчанию - QUEUE_PER_THREAD задачи на поток пула): при переполнении
+    или ожидании дольше timeout-ms - ServiceOverloadedException (503). Поток Tomcat ждёт хеш, пока задача
+    в очереди, поэтому очередь короткая: всплеск сверх нескольких хешей на поток отклоняется сразу,
+    а не держит сотни потоков Tomcat до timeout-ms
+    3. Стоимость BCrypt - security.password.bcrypt-strength (SecurityConfig). needsRehash - хеш создан
+    с меньшей стоимостью, чем текущая: AuthService перехеширует пароль при успешном входе
+    4. Метрики: security.password.hash (время с ожиданием в очереди, тег operation),
+    security.password.queue, security.password.rejected
+ */
+
+@Service
+public class PasswordHasher {
+
+    private static final int QUEUE_PER_THREAD = 2;
+
+    private final BCryptPasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final MeterRegistry meterRegistry;
+    private final Timer encodeTimer;
+    private final Timer matchTimer;
+    private final long timeoutMs;
+
+    public PasswordHasher(
+            BCryptPasswordEncoder passwordEncoder,
+            MeterRegistry meterRegistry,
+            @Value("${security.password.threads:0}") int threads,
+            @Value("${security.password.queue-capacity:0}") int queueCapacity,
+            @Value("${security.password.timeout-ms:5000}") long timeoutMs
+    ) {
+        this.passwordEncoder = passwordEncoder;
+        this.meterRegistry = meterRegistry;
+        this.timeoutMs = Math.max(1, timeoutMs);
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        int queueSize = queueCapacity > 0 ? queueCapacity : poolSize * QUEUE_PER_THREAD;
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+
+        meterRegistry.gauge("security.password.queue", executor.getQueue(), BlockingQueue::size);
+        encodeTimer = meterRegistry.timer("security.password.hash", "operation", "encode");
+        matchTimer = meterRegistry.timer("security.password.hash", "operation", "match");
+    }
+
+    public String encode(String rawPassword) {
+        return execute(encodeTimer, () -> passwordEncoder.encode(rawPassword));
+    }
+
+    public boolean matches(String rawPassword, String encodedPassword) {
+        return execute(matchTimer, () -> passwordEncoder.matches(rawPassword, encodedPassword));
+    }
+
+    //Хеш создан с меньшей стоимостью, чем текущая bcrypt-strength. Проверка читает только префикс хеша
+    public boolean needsRehash(String encodedPassword) {
+        return passwordEncoder.upgradeEncoding(encodedPassword);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> T execute(Timer timer, Callable<T> task) {
+        long startedAt = System.nanoTime();
+        Future<T> future;
+
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            meterRegistry.counter("security.password.rejected").increment();
+            throw new ServiceOverloadedException("Too many login attempts in progress, please repeat the request later");
+        }
+
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        } catch (TimeoutException e) {
+            //Задача могла ещё не начаться: отменённая задача не будет считать хеш, ответ клиенту уже не нужен
+            future.cancel(true);
+            meterRegistry.counter("security.password.rejected").increment();
+            throw new ServiceOverloadedException("Login is taking too long, please repeat the request later");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("Login was interrupted");
+        } finally {
+            timer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+}
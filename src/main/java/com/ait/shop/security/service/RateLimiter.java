@@ -0,0 +1,135 @@
+package com.ait.shop.security.service;
+
+import com.ait.shop.exceptions.types.RateLimitExceededException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+Ограничение частоты входа, обновления токена и регистрации - каждая попытка стоит запроса в БД и BCrypt
+(или письма при регистрации).
+    1. Отдельные корзины токенов (TokenBucket) на IP и на email для каждого маршрута, лимит -
+    capacity попыток за period-ms с непрерывным пополнением. Лимиты по IP проверяет RateLimitFilter до
+    разбора запроса, лимиты по email - AuthService и UserServiceImpl до обращения к БД
+    2. Корзины лежат в Caffeine: чтение без блокировок, размер ограничен max-buckets, корзина без обращений
+    удаляется через idle-eviction-ms. Срок простоя не меньше самого длинного периода - к этому моменту
+    корзина всё равно была бы полной, поэтому вытеснение не даёт лишних попыток
+    3. Отказ - 429 с Retry-After (секунды до следующей попытки), стоит одного чтения корзины
+    4. IP - адрес соединения. За прокси нужен server.forward-headers-strategy, иначе все клиенты - один IP
+    5. Метрики: security.rate-limit.rejected с тегами route и key, cache.* с тегом cache=rate-limit-buckets
+ */
+
+@Service
+public class RateLimiter {
+
+    public static final String LOGIN = "login";
+    public static final String ACCESS = "access";
+    public static final String REGISTER = "register";
+
+    private static final Map<String, String> ROUTES_BY_PATH = Map.of(
+            "/auth/login", LOGIN,
+            "/auth/access", ACCESS,
+            "/users/register", REGISTER
+    );
+
+    private final boolean enabled;
+    private final Map<String, Limit> ipLimits;
+    private final Map<String, Limit> emailLimits;
+    private final Cache<String, TokenBucket> buckets;
+    private final MeterRegistry meterRegistry;
+    private final long startedAt = System.nanoTime();
+
+    public RateLimiter(
+            MeterRegistry meterRegistry,
+            @Value("${security.rate-limit.enabled:true}") boolean enabled,
+            @Value("${security.rate-limit.max-buckets:100000}") long maxBuckets,
+            @Value("${security.rate-limit.idle-eviction-ms:600000}") long idleEvictionMs,
+            @Value("${security.rate-limit.login.ip-capacity:20}") long loginIpCapacity,
+            @Value("${security.rate-limit.login.email-capacity:5}") long loginEmailCapacity,
+            @Value("${security.rate-limit.login.period-ms:60000}") long loginPeriodMs,
+            @Value("${security.rate-limit.access.ip-capacity:60}") long accessIpCapacity,
+            @Value("${security.rate-limit.access.period-ms:60000}") long accessPeriodMs,
+            @Value("${security.rate-limit.register.ip-capacity:5}") long registerIpCapacity,
+            @Value("${security.rate-limit.register.email-capacity:3}") long registerEmailCapacity,
+            @Value("${security.rate-limit.register.period-ms:3600000}") long registerPeriodMs
+    ) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+
+        ipLimits = Map.of(
+                LOGIN, new Limit(loginIpCapacity, loginPeriodMs),
+                ACCESS, new Limit(accessIpCapacity, accessPeriodMs),
+                REGISTER, new Limit(registerIpCapacity, registerPeriodMs)
+        );
+
+        emailLimits = Map.of(
+                LOGIN, new Limit(loginEmailCapacity, loginPeriodMs),
+                REGISTER, new Limit(registerEmailCapacity, registerPeriodMs)
+        );
+
+        long longestPeriodMs = Math.max(loginPeriodMs, Math.max(accessPeriodMs, registerPeriodMs));
+
+        buckets = Caffeine.newBuilder()
+                .maximumSize(Math.max(1, maxBuckets))
+                .expireAfterAccess(Duration.ofMillis(Math.max(idleEvictionMs, longestPeriodMs)))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, buckets, "rate-limit-buckets");
+    }
+
+    //Маршрут с лимитом по пути запроса или null
+    public String findRoute(String method, String path) {
+        return "POST".equals(method) ? ROUTES_BY_PATH.get(path) : null;
+    }
+
+    //Попытка с этого IP. 0 - разрешена, иначе через сколько секунд можно повторить
+    public long acquireByIp(String route, String ip) {
+        return acquire(route, "ip", ip, ipLimits.get(route));
+    }
+
+    //Попытка для этого email. Лимит исчерпан - RateLimitExceededException (429)
+    public void checkEmail(String route, String email) {
+        if (email == null) {
+            return;
+        }
+
+        long retryAfterSeconds = acquire(route, "email", email.trim().toLowerCase(Locale.ROOT), emailLimits.get(route));
+
+        if (retryAfterSeconds > 0) {
+            throw new RateLimitExceededException("Too many attempts for this email, please repeat later", retryAfterSeconds);
+        }
+    }
+
+    private long acquire(String route, String keyType, String key, Limit limit) {
+        if (!enabled || limit == null || key == null) {
+            return 0;
+        }
+
+        long nowMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        TokenBucket bucket = buckets.get(
+                route + ':' + keyType + ':' + key,
+                x -> new TokenBucket(limit.capacity(), limit.periodMs(), nowMs)
+        );
+
+        long retryAfterMs = bucket.tryAcquire(nowMs);
+
+        if (retryAfterMs == 0) {
+            return 0;
+        }
+
+        meterRegistry.counter("security.rate-limit.rejected", "route", route, "key", keyType).increment();
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(retryAfterMs + 999));
+    }
+
+    private record Limit(long capacity, long periodMs) {
+    }
+}
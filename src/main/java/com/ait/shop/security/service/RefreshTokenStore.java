@@ -0,0 +1,22 @@
+package com.ait.shop.security.service;
+
+import java.time.Instant;
+
+/*
+Хранилище сессий refresh token. Реализация выбирается свойством security.refresh-store.mode:
+    database (по умолчанию) - таблица refresh_token, общая для всех узлов и переживающая рестарт (JdbcRefreshTokenStore)
+    memory - в памяти узла, для одиночного узла и тестов (InMemoryRefreshTokenStore)
+У одного email может быть несколько сессий - по одной на каждый вход.
+ */
+
+public interface RefreshTokenStore {
+
+//    Сохранить refresh token новой сессии пользователя.
+    void save(String email, String refreshToken, Instant expiresAt);
+
+//    Проверить, что сессия с этим токеном есть, принадлежит email и не истекла.
+    boolean isActive(String email, String refreshToken);
+
+//    Завершить сессию с этим токеном (выход). Остальные сессии пользователя остаются.
+    void remove(String refreshToken);
+}
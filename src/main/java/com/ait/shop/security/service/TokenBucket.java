@@ -0,0 +1,55 @@
+package com.ait.shop.security.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Корзина токенов без блокировок: всё состояние упаковано в один AtomicLong и меняется одним CAS.
+    1. Старшие 22 бита - запас в тысячных долях запроса (до 4194 запросов), младшие 42 бита -
+    время последнего пополнения в мс от старта приложения (хватает на 139 лет)
+    2. Запас пополняется непрерывно: capacity запросов за periodMs, но не больше capacity
+    3. Отказ ничего не пишет - только чтение и расчёт времени до следующего токена
+ */
+
+class TokenBucket {
+
+    static final long MAX_CAPACITY = 4000;
+
+    private static final int TIME_BITS = 42;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+    private static final long ONE_TOKEN = 1000;
+
+    private final long capacity;
+    private final long periodMs;
+    private final AtomicLong state;
+
+    TokenBucket(long capacity, long periodMs, long nowMs) {
+        this.capacity = Math.min(MAX_CAPACITY, Math.max(1, capacity)) * ONE_TOKEN;
+        this.periodMs = Math.max(1, periodMs);
+        this.state = new AtomicLong(pack(this.capacity, nowMs));
+    }
+
+    //Взять один токен. 0 - запрос разрешён, иначе через сколько мс появится следующий токен
+    long tryAcquire(long nowMs) {
+        while (true) {
+            long current = state.get();
+            long elapsed = Math.max(0, nowMs - (current & TIME_MASK));
+
+            //elapsed ограничен периодом, поэтому умножение не переполняется
+            long tokens = elapsed >= periodMs
+                    ? capacity
+                    : Math.min(capacity, (current >>> TIME_BITS) + elapsed * capacity / periodMs);
+
+            if (tokens < ONE_TOKEN) {
+                return Math.max(1, ((ONE_TOKEN - tokens) * periodMs + capacity - 1) / capacity);
+            }
+
+            if (state.compareAndSet(current, pack(tokens - ONE_TOKEN, nowMs))) {
+                return 0;
+            }
+        }
+    }
+
+    private static long pack(long tokens, long nowMs) {
+        return (tokens << TIME_BITS) | (nowMs & TIME_MASK);
+    }
+}
@@ -1,53 +1,126 @@
 package com.ait.shop.security.service;
 
+import com.ait.shop.domain.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
 import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+Выпуск и проверка JWT.
+    1. Парсеры (ключ, алгоритм, десериализатор) собираются один раз на ключ в конструкторе и потокобезопасны
+    2. Проверка токена - один разбор с проверкой подписи: сразу возвращает claims или пустой Optional
+    3. Проверенные access token кэшируются (Caffeine) по SHA-256 от токена: сам токен в памяти не хранится,
+    повторный запрос с тем же токеном не декодирует Base64/JSON и не проверяет подпись заново.
+    Запись живёт не дольше срока действия токена и не дольше max-ttl-ms, max-entries = 0 выключает кэш.
+    Метрики - cache.* с тегом cache=verified-tokens
+    4. Refresh token используются редко и не кэшируются
+ */
 
 @Service
 public class TokenService {
 
+    public static final String ROLE_CLAIM = "role";
+    public static final String VERSION_CLAIM = "ver";
+    public static final Duration REFRESH_TOKEN_LIFETIME = Duration.ofDays(1);
+
     private final SecretKey accessKey;
     private final SecretKey refreshKey;
+    private final JwtParser accessParser;
+    private final JwtParser refreshParser;
+    private final Cache<String, Claims> verifiedAccessTokens;
 
     public TokenService(
             @Value("${KEY_PHRASE_ACCESS}") String accessPhrase,
-            @Value("${KEY_PHRASE_REFRESH}") String refreshPhrase
+            @Value("${KEY_PHRASE_REFRESH}") String refreshPhrase,
+            @Value("${security.verified-tokens.max-entries:10000}") long maxEntries,
+            @Value("${security.verified-tokens.max-ttl-ms:60000}") long maxTtlMs,
+            MeterRegistry meterRegistry
     ) {
         accessKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(accessPhrase));
         refreshKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(refreshPhrase));
+        accessParser = Jwts.parser().verifyWith(accessKey).build();
+        refreshParser = Jwts.parser().verifyWith(refreshKey).build();
+
+        if (maxEntries > 0) {
+            verifiedAccessTokens = Caffeine.newBuilder()
+                    .maximumSize(maxEntries)
+                    .expireAfter(new UntilTokenExpiration(TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxTtlMs))))
+                    .recordStats()
+                    .build();
+
+            CaffeineCacheMetrics.monitor(meterRegistry, verifiedAccessTokens, "verified-tokens");
+        } else {
+            verifiedAccessTokens = null;
+        }
     }
 
-    public String generateAccessToken(String email) {
-        return generateToken(email, accessKey, 15 * 60 * 1000);
+    //Роль и версия пользователя едут в самом токене, поэтому TokenFilter не читает пользователя из БД
+    public String generateAccessToken(User user) {
+        Map<String, Object> claims = Map.of(
+                ROLE_CLAIM, user.getRole().name(),
+                VERSION_CLAIM, user.getTokenVersion()
+        );
+
+        return generateToken(user.getEmail(), claims, accessKey, 15 * 60 * 1000);
     }
 
+    //jti делает токены разных сессий одного пользователя различимыми, даже если они выпущены в одну секунду
     public String generateRefreshToken(String email) {
-        return generateToken(email, refreshKey, 24 * 60 * 60 * 1000);
+        Map<String, Object> claims = Map.of(Claims.ID, UUID.randomUUID().toString());
+        return generateToken(email, claims, refreshKey, (int) REFRESH_TOKEN_LIFETIME.toMillis());
     }
 
-    public boolean validateAccessToken(String accessToken) {
-        return validateToken(accessToken, accessKey);
-    }
+    //Проверить access token и вернуть его claims. Пустой Optional - токена нет, подпись неверна или срок истёк
+    public Optional<Claims> verifyAccessToken(String accessToken) {
+        if (accessToken == null) {
+            return Optional.empty();
+        }
 
-    public boolean validateRefreshToken(String refreshToken) {
-        return validateToken(refreshToken,refreshKey);
-    }
+        if (verifiedAccessTokens == null) {
+            return verify(accessToken, accessParser);
+        }
 
-    public Claims getAccessClaims(String accessToken) {
-        return getClaims(accessToken, accessKey);
+        String key = sha256(accessToken);
+        Claims cached = verifiedAccessTokens.getIfPresent(key);
+
+        //Caffeine вытесняет просроченные записи лениво, поэтому срок действия проверяем и при попадании
+        if (cached != null && !isExpired(cached)) {
+            return Optional.of(cached);
+        }
+
+        Optional<Claims> claims = verify(accessToken, accessParser);
+        claims.ifPresent(x -> verifiedAccessTokens.put(key, x));
+
+        return claims;
     }
 
-    public Claims getRefreshClaims(String refreshToken) {
-        return getClaims(refreshToken, refreshKey);
+    //Проверить refresh token и вернуть его claims. Пустой Optional - токена нет, подпись неверна или срок истёк
+    public Optional<Claims> verifyRefreshToken(String refreshToken) {
+        return refreshToken == null ? Optional.empty() : verify(refreshToken, refreshParser);
     }
 
     public String getTokenFromRequest(HttpServletRequest request, String cookieName) {
@@ -64,34 +137,64 @@ public class TokenService {
         return null;
     }
 
-    private String generateToken(String email, SecretKey key, int expirationMillis) {
+    private String generateToken(String email, Map<String, Object> claims, SecretKey key, int expirationMillis) {
         Date now = new Date(); // now
         Date expiration = new Date(now.getTime() + expirationMillis); //future
 
         return Jwts.builder()
                 .subject(email)
+                .claims(claims)
                 .expiration(expiration)
                 .signWith(key)
                 .compact();
     }
 
-    private boolean validateToken(String token, SecretKey key) {
+    private Optional<Claims> verify(String token, JwtParser parser) {
+        try {
+            return Optional.of(parser.parseSignedClaims(token).getPayload());
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static boolean isExpired(Claims claims) {
+        Date expiration = claims.getExpiration();
+        return expiration != null && expiration.getTime() <= System.currentTimeMillis();
+    }
+
+    //SHA-256 токена в Base64: ключ кэша проверенных токенов и строки refresh_token
+    static String sha256(String token) {
         try {
-            Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parseSignedClaims(token);
-            return true;
-        } catch (Exception e) {
-            return false;
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
         }
     }
 
-    private Claims getClaims(String token, SecretKey key) {
-        return Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+    //Запись о проверенном токене живёт до его exp, но не дольше maxTtlNanos
+    private record UntilTokenExpiration(long maxTtlNanos) implements Expiry<String, Claims> {
+
+        @Override
+        public long expireAfterCreate(String key, Claims claims, long currentTime) {
+            Date expiration = claims.getExpiration();
+
+            if (expiration == null) {
+                return maxTtlNanos;
+            }
+
+            long untilExpiration = TimeUnit.MILLISECONDS.toNanos(expiration.getTime() - System.currentTimeMillis());
+            return Math.max(0, Math.min(maxTtlNanos, untilExpiration));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, claims, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
     }
 }
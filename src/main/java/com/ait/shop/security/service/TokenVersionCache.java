@@ -0,0 +1,54 @@
+package com.ait.shop.security.service;
+
+import com.ait.shop.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/*
+Проверка версии пользователя из access token без запроса в БД на каждый запрос.
+    1. Текущая версия (account.token_version) кэшируется на ttl-ms, промах кэша - один запрос только за версией
+    2. На этом узле изменение роли или подтверждения сбрасывает запись сразу (invalidate),
+    на других узлах старые токены перестают приниматься не позже чем через ttl-ms
+    3. Пользователя нет в БД - версия не совпадает ни с какой, токен отклоняется
+    4. Размер ограничен max-entries (Caffeine), метрики - cache.* с тегом cache=token-versions
+ */
+
+@Service
+public class TokenVersionCache {
+
+    private static final int MISSING_USER = -1;
+
+    private final UserRepository repository;
+    private final Cache<String, Integer> versions;
+
+    public TokenVersionCache(
+            UserRepository repository,
+            MeterRegistry meterRegistry,
+            @Value("${security.token-version.cache-ttl-ms:30000}") long ttlMs,
+            @Value("${security.token-version.cache-max-entries:100000}") long maxEntries
+    ) {
+        this.repository = repository;
+        this.versions = Caffeine.newBuilder()
+                .maximumSize(Math.max(1, maxEntries))
+                .expireAfterWrite(Duration.ofMillis(Math.max(0, ttlMs)))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, versions, "token-versions");
+    }
+
+    public boolean isCurrent(String email, int tokenVersion) {
+        int version = versions.get(email, key -> repository.findTokenVersionByEmail(key).orElse(MISSING_USER));
+        return version != MISSING_USER && version == tokenVersion;
+    }
+
+    public void invalidate(String email) {
+        versions.invalidate(email);
+    }
+}
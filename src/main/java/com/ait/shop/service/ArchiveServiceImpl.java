@@ -0,0 +1,330 @@
+package com.ait.shop.service;
+
+import com.ait.shop.exceptions.types.EntityUpdateException;
+import com.ait.shop.service.interfaces.ArchiveService;
+import com.ait.shop.service.interfaces.ProductStockService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/*
+Архивирование удалённых покупателей и продуктов.
+    1. Строки с active = false, у которых deactivated_at старше retention-days, переносятся
+    в customer_archive / product_archive и удаляются из основных таблиц - выборки активных строк
+    и их индексы больше не растут от давно удалённых записей
+    2. Вместе с покупателем удаляется его корзина: позиции, корзина, действующий резерв остатка возвращается.
+    Вместе с продуктом удаляются его позиции в корзинах и строки product_stock. Итоги корзин при этом
+    не меняются - неактивные продукты в них и так не учитываются
+    3. Заказы - снимок на момент оформления и не ссылаются на архивируемые строки, история заказов сохраняется
+    4. Перенос идёт кусками по chunk-size, каждый кусок - своя транзакция. Строки блокируются и условия
+    перепроверяются под блокировкой: строку могли восстановить между выборкой и переносом
+    5. restoreById сервисов прозрачно возвращает строку из архива: с тем же id, неактивной
+    (у покупателя - с новой пустой корзиной), дальше обычное восстановление делает её активной.
+    Продукт без строк product_stock возвращается с неотслеживаемым остатком
+    6. Запуск раз в interval-ms под арендой archive в scheduler_lease - в кластере архивирует один узел
+    7. Метрики: archive.rows и archive.duration с тегом entity
+ */
+
+@Service
+public class ArchiveServiceImpl implements ArchiveService {
+
+    private static final String LEASE_NAME = "archive";
+
+    private static final String FIND_CUSTOMERS_SQL = """
+            select id from customer where active = false and deactivated_at < :cutoff order by id limit :limit
+            """;
+
+    private static final String LOCK_CUSTOMERS_SQL = """
+            select id from customer where id in (:ids) and active = false and deactivated_at < :cutoff for update
+            """;
+
+    private static final String LOCK_CARTS_SQL = "select id from cart where customer_id in (:ids) for update";
+
+    //Истёкший резерв (reserved = false) уже вернул остаток через releaseAbandoned - возвращаем только действующий
+    private static final String FIND_CART_POSITIONS_SQL = """
+            select po.product_id, po.quantity from position po
+            where po.cart_id in (select id from cart where customer_id in (:ids)) and po.reserved = true
+              and exists (select 1 from product_stock ps where ps.product_id = po.product_id)
+            """;
+
+    private static final String DELETE_CART_POSITIONS_SQL = """
+            delete from position where cart_id in (select id from cart where customer_id in (:ids))
+            """;
+
+    private static final String DELETE_CARTS_SQL = "delete from cart where customer_id in (:ids)";
+
+    private static final String ARCHIVE_CUSTOMERS_SQL = """
+            insert into customer_archive (id, name, image_url, deactivated_at, archived_at)
+            select id, name, image_url, deactivated_at, :now from customer where id in (:ids)
+            """;
+
+    private static final String DELETE_CUSTOMERS_SQL = "delete from customer where id in (:ids)";
+
+    private static final String FIND_PRODUCTS_SQL = """
+            select id from product where active = false and deactivated_at < :cutoff order by id limit :limit
+            """;
+
+    private static final String LOCK_PRODUCTS_SQL = """
+            select id from product where id in (:ids) and active = false and deactivated_at < :cutoff for update
+            """;
+
+    private static final String DELETE_PRODUCT_POSITIONS_SQL = "delete from position where product_id in (:ids)";
+
+    private static final String DELETE_PRODUCT_STOCK_SQL = "delete from product_stock where product_id in (:ids)";
+
+    private static final String ARCHIVE_PRODUCTS_SQL = """
+            insert into product_archive (id, title, price, image_url, deactivated_at, archived_at)
+            select id, title, price, image_url, deactivated_at, :now from product where id in (:ids)
+            """;
+
+    private static final String DELETE_PRODUCTS_SQL = "delete from product where id in (:ids)";
+
+    private static final String LOCK_ARCHIVED_CUSTOMER_SQL = "select id from customer_archive where id = :id for update";
+
+    private static final String RESTORE_CUSTOMER_SQL = """
+            insert into customer (id, name, active, image_url, deactivated_at)
+            select id, name, false, image_url, deactivated_at from customer_archive where id = :id
+            """;
+
+    private static final String CREATE_CART_SQL = "insert into cart (customer_id) values (:id)";
+
+    private static final String DELETE_ARCHIVED_CUSTOMER_SQL = "delete from customer_archive where id = :id";
+
+    private static final String LOCK_ARCHIVED_PRODUCT_SQL = "select title from product_archive where id = :id for update";
+
+    private static final String RESTORE_PRODUCT_SQL = """
+            insert into product (id, title, price, active, image_url, deactivated_at)
+            select id, title, price, false, image_url, deactivated_at from product_archive where id = :id
+            """;
+
+    private static final String DELETE_ARCHIVED_PRODUCT_SQL = "delete from product_archive where id = :id";
+
+    private static final String CUSTOMER_ARCHIVED_SQL = "select count(*) from customer_archive where id = :id";
+
+    private final Logger logger = LoggerFactory.getLogger(ArchiveServiceImpl.class);
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DatabaseLease lease;
+    private final ProductStockService stockService;
+    private final ProductCache productCache;
+    private final MeterRegistry meterRegistry;
+    private final int chunkSize;
+    private final Duration leaseTtl;
+    private final Duration retention;
+
+    public ArchiveServiceImpl(
+            NamedParameterJdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            DatabaseLease lease,
+            ProductStockService stockService,
+            ProductCache productCache,
+            MeterRegistry meterRegistry,
+            @Value("${archive.chunk-size:500}") int chunkSize,
+            @Value("${archive.lease-ttl-ms:600000}") long leaseTtlMs,
+            @Value("${archive.retention-days:180}") long retentionDays
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.lease = lease;
+        this.stockService = stockService;
+        this.productCache = productCache;
+        this.meterRegistry = meterRegistry;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.leaseTtl = Duration.ofMillis(Math.max(1000, leaseTtlMs));
+        this.retention = Duration.ofDays(Math.max(1, retentionDays));
+    }
+
+    @Override
+    @Scheduled(
+            initialDelayString = "${archive.interval-ms:3600000}",
+            fixedDelayString = "${archive.interval-ms:3600000}"
+    )
+    public Map<String, Long> archive() {
+        if (!lease.tryAcquire(LEASE_NAME, leaseTtl)) {
+            return Map.of();
+        }
+
+        Map<String, Long> archived = new LinkedHashMap<>();
+
+        try {
+            archived.put("customers", runChunks("customers", this::archiveCustomersChunk));
+            archived.put("products", runChunks("products", this::archiveProductsChunk));
+        } finally {
+            lease.release(LEASE_NAME);
+        }
+
+        return archived;
+    }
+
+    @Override
+    public boolean restoreCustomer(Long id) {
+        Objects.requireNonNull(id, "Customer id cannot be null");
+        MapSqlParameterSource params = new MapSqlParameterSource("id", id);
+
+        //Блокировка строки архива: параллельное восстановление того же покупателя дождётся нас и уже не найдёт её
+        if (jdbcTemplate.queryForList(LOCK_ARCHIVED_CUSTOMER_SQL, params, Long.class).isEmpty()) {
+            return false;
+        }
+
+        jdbcTemplate.update(RESTORE_CUSTOMER_SQL, params);
+        jdbcTemplate.update(CREATE_CART_SQL, params);
+        jdbcTemplate.update(DELETE_ARCHIVED_CUSTOMER_SQL, params);
+
+        logger.info("Customer id {} restored from archive", id);
+        return true;
+    }
+
+    @Override
+    public boolean restoreProduct(Long id) {
+        Objects.requireNonNull(id, "Product id cannot be null");
+        MapSqlParameterSource params = new MapSqlParameterSource("id", id);
+
+        List<String> titles = jdbcTemplate.queryForList(LOCK_ARCHIVED_PRODUCT_SQL, params, String.class);
+
+        if (titles.isEmpty()) {
+            return false;
+        }
+
+        try {
+            jdbcTemplate.update(RESTORE_PRODUCT_SQL, params);
+        } catch (DuplicateKeyException e) {
+            //Пока продукт лежал в архиве, его название мог занять новый продукт
+            throw new EntityUpdateException(
+                    String.format("Product id %d cannot be restored: title %s is already used", id, titles.get(0))
+            );
+        }
+
+        jdbcTemplate.update(DELETE_ARCHIVED_PRODUCT_SQL, params);
+
+        logger.info("Product id {} restored from archive", id);
+        return true;
+    }
+
+    @Override
+    public boolean isCustomerArchived(Long id) {
+        Objects.requireNonNull(id, "Customer id cannot be null");
+
+        Long count = jdbcTemplate.queryForObject(CUSTOMER_ARCHIVED_SQL, new MapSqlParameterSource("id", id), Long.class);
+        return count != null && count > 0;
+    }
+
+    //Выполнять куски, пока очередной кусок не окажется неполным
+    private long runChunks(String entity, IntSupplier chunk) {
+        long startedAt = System.nanoTime();
+        long total = 0;
+
+        try {
+            while (true) {
+                Integer moved = transactionTemplate.execute(status -> chunk.getAsInt());
+                int rows = moved == null ? 0 : moved;
+                total += rows;
+
+                if (rows < chunkSize) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            //Уже перенесённые куски закоммичены, остальное перенесёт следующий запуск
+            logger.error("Archiving of {} failed after {} rows", entity, total, e);
+        }
+
+        long duration = System.nanoTime() - startedAt;
+        meterRegistry.counter("archive.rows", "entity", entity).increment(total);
+        meterRegistry.timer("archive.duration", "entity", entity).record(duration, TimeUnit.NANOSECONDS);
+
+        if (total > 0) {
+            logger.info("Archived {} {} in {} ms", total, entity, TimeUnit.NANOSECONDS.toMillis(duration));
+        }
+
+        return total;
+    }
+
+    private int archiveCustomersChunk() {
+        MapSqlParameterSource params = chunkParams();
+        List<Long> ids = jdbcTemplate.queryForList(FIND_CUSTOMERS_SQL, params, Long.class);
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        params.addValue("ids", ids);
+        List<Long> locked = jdbcTemplate.queryForList(LOCK_CUSTOMERS_SQL, params, Long.class);
+
+        if (!locked.isEmpty()) {
+            MapSqlParameterSource lockedParams = new MapSqlParameterSource()
+                    .addValue("ids", locked)
+                    .addValue("now", params.getValue("now"));
+            //Корзины неактивных покупателей не меняются через API, блокировка нужна против очистки и оформления
+            jdbcTemplate.queryForList(LOCK_CARTS_SQL, lockedParams, Long.class);
+
+            Map<Long, Integer> releases = new TreeMap<>();
+            jdbcTemplate.query(FIND_CART_POSITIONS_SQL, lockedParams, (RowCallbackHandler) rs ->
+                    releases.merge(rs.getLong("product_id"), -rs.getInt("quantity"), Integer::sum)
+            );
+
+            jdbcTemplate.update(DELETE_CART_POSITIONS_SQL, lockedParams);
+            stockService.adjust(releases);
+            jdbcTemplate.update(DELETE_CARTS_SQL, lockedParams);
+            jdbcTemplate.update(ARCHIVE_CUSTOMERS_SQL, lockedParams);
+            jdbcTemplate.update(DELETE_CUSTOMERS_SQL, lockedParams);
+        }
+
+        //Размер выборки, а не число перенесённых строк: иначе кусок с восстановленными строками остановил бы перенос
+        return ids.size();
+    }
+
+    private int archiveProductsChunk() {
+        MapSqlParameterSource params = chunkParams();
+        List<Long> ids = jdbcTemplate.queryForList(FIND_PRODUCTS_SQL, params, Long.class);
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        params.addValue("ids", ids);
+        List<Long> locked = jdbcTemplate.queryForList(LOCK_PRODUCTS_SQL, params, Long.class);
+
+        if (!locked.isEmpty()) {
+            MapSqlParameterSource lockedParams = new MapSqlParameterSource()
+                    .addValue("ids", locked)
+                    .addValue("now", params.getValue("now"));
+
+            jdbcTemplate.update(DELETE_PRODUCT_POSITIONS_SQL, lockedParams);
+            jdbcTemplate.update(DELETE_PRODUCT_STOCK_SQL, lockedParams);
+            jdbcTemplate.update(ARCHIVE_PRODUCTS_SQL, lockedParams);
+            jdbcTemplate.update(DELETE_PRODUCTS_SQL, lockedParams);
+
+            TransactionUtils.runAfterCommit(() -> productCache.invalidateAll(locked));
+        }
+
+        return ids.size();
+    }
+
+    private MapSqlParameterSource chunkParams() {
+        LocalDateTime now = LocalDateTime.now();
+
+        return new MapSqlParameterSource()
+                .addValue("now", Timestamp.valueOf(now))
+                .addValue("cutoff", Timestamp.valueOf(now.minus(retention)))
+                .addValue("limit", chunkSize);
+    }
+}
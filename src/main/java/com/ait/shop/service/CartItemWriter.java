@@ -0,0 +1,321 @@
+package com.ait.shop.service;
+
+import com.ait.shop.dto.cart.CartOperationDto;
+import com.ait.shop.service.interfaces.CartTotalsService;
+import com.ait.shop.service.interfaces.ProductStockService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/*
+Запись позиций корзины напрямую в таблицу position, без загрузки корзины и её позиций.
+    1. Добавление - один атомарный upsert по уникальному ключу (cart_id, product_id):
+    два параллельных добавления одного продукта больше не теряют друг друга
+    2. Уменьшение количества и очистка читают позиции без блокировки и пишут с проверкой version:
+    декремент, а если позиция уходит в ноль - удаление. Если позицию успели изменить, строка не меняется,
+    бросается OptimisticLockingFailureException, и CartRetryExecutor повторяет операцию на свежих данных
+    3. Верхняя граница 99 проверяется в самом SQL: если сумма её превышает, строка не меняется
+    4. Каждое изменение увеличивает version строки, поэтому параллельные уменьшение, очистка и пакет,
+    прочитавшие позицию до него, получат конфликт версии, а JPA-сущности Position/Cart - конфликт
+    оптимистической блокировки при сохранении. Добавление версию не проверяет: атомарный upsert
+    прибавляет количество к текущему значению строки и ничего не перезаписывает
+    5. Пакет операций читает позиции корзины одним запросом, считает итог в памяти и пишет разницу
+    тремя JDBC batch с проверкой версий строк: если позицию успели изменить, пакет откатывается и повторяется
+    6. Итоги корзины (cart.item_count, cart.total_cost) меняются в той же транзакции: одиночные операции
+    прибавляют или вычитают дельту по цене активного продукта, пакет и очистка пересчитывают итоги корзины целиком
+    7. Добавление резервирует остаток продукта, уменьшение и очистка возвращают его (ProductStockService) -
+    всё в одной транзакции с позициями, поэтому отказ по остатку откатывает и изменение корзины.
+    Каждое изменение обновляет cart.updated_at - по нему находятся заброшенные корзины.
+    У позиции заброшенной корзины резерв истекает (position.reserved = false), а сама позиция остаётся:
+    её изменение резервирует заново всё новое количество, а уменьшение и очистка ничего не возвращают
+    8. На Postgres используется INSERT ... ON CONFLICT DO UPDATE. H2 (тесты) его не поддерживает,
+    поэтому там тот же результат даёт пара UPDATE / INSERT с повтором при конфликте ключа
+ */
+
+@Component
+public class CartItemWriter {
+
+    public static final int MAX_QUANTITY = 99;
+
+    private static final String UPSERT_SQL = """
+            insert into position (cart_id, product_id, quantity)
+            values (:cartId, :productId, :quantity)
+            on conflict (cart_id, product_id) do update
+            set quantity = position.quantity + excluded.quantity, version = position.version + 1
+            where position.quantity + excluded.quantity <= :maxQuantity
+            """;
+
+    private static final String INCREMENT_SQL = """
+            update position set quantity = quantity + :quantity, version = version + 1
+            where cart_id = :cartId and product_id = :productId and quantity + :quantity <= :maxQuantity
+            """;
+
+    private static final String INSERT_SQL = """
+            insert into position (cart_id, product_id, quantity)
+            values (:cartId, :productId, :quantity)
+            """;
+
+    private static final String DECREMENT_SQL = """
+            update position set quantity = quantity - :quantity, version = version + 1
+            where cart_id = :cartId and product_id = :productId and version = :version
+            """;
+
+    private static final String TOUCH_CART_SQL = "update cart set updated_at = current_timestamp where id = :cartId";
+
+    private static final String FIND_POSITIONS_SQL = """
+            select product_id, quantity, reserved, version from position where cart_id = :cartId
+            """;
+
+    private static final String UPDATE_VERSIONED_SQL = """
+            update position set quantity = :quantity, reserved = true, version = version + 1
+            where cart_id = :cartId and product_id = :productId and version = :version
+            """;
+
+    private static final String DELETE_VERSIONED_SQL = """
+            delete from position
+            where cart_id = :cartId and product_id = :productId and version = :version
+            """;
+
+    private static final String FIND_POSITION_SQL = """
+            select quantity, reserved, version from position where cart_id = :cartId and product_id = :productId
+            """;
+
+    private static final String MARK_RESERVED_SQL = """
+            update position set reserved = true
+            where cart_id = :cartId and product_id = :productId and reserved = false
+            """;
+
+    private static final String FIND_QUANTITY_SQL = """
+            select quantity from position where cart_id = :cartId and product_id = :productId
+            """;
+
+    private static final String ADJUST_TOTALS_SQL = """
+            update cart
+            set item_count = item_count + :quantity
+                    * (select count(*) from product where id = :productId and active = true),
+                total_cost = total_cost + :quantity
+                    * coalesce((select price from product where id = :productId and active = true), 0),
+                updated_at = current_timestamp
+            where id = :cartId
+            """;
+
+    private static final String TOUCH_CART_VERSION_SQL = """
+            update cart set version = version + 1, updated_at = current_timestamp where id = :cartId
+            """;
+
+    private final Logger logger = LoggerFactory.getLogger(CartItemWriter.class);
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final CartTotalsService cartTotalsService;
+    private final ProductStockService stockService;
+    private final boolean nativeUpsert;
+
+    public CartItemWriter(
+            NamedParameterJdbcTemplate jdbcTemplate,
+            CartTotalsService cartTotalsService,
+            ProductStockService stockService,
+            DataSource dataSource
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cartTotalsService = cartTotalsService;
+        this.stockService = stockService;
+        this.nativeUpsert = isPostgres(dataSource);
+    }
+
+    //Добавить количество продукта в корзину. Вернёт false, если итоговое количество превысило бы MAX_QUANTITY.
+    //Вызывать внутри транзакции: при нехватке остатка OutOfStockException должен откатить и позицию
+    public boolean add(Long cartId, Long productId, int quantity) {
+        MapSqlParameterSource params = params(cartId, productId, quantity);
+
+        if (!upsert(params)) {
+            return false;
+        }
+
+        //Резерв позиции истёк - резервируем всё её количество, а не только добавленное
+        if (jdbcTemplate.update(MARK_RESERVED_SQL, params) > 0) {
+            stockService.reserve(productId, jdbcTemplate.queryForObject(FIND_QUANTITY_SQL, params, Integer.class));
+        } else {
+            stockService.reserve(productId, quantity);
+        }
+        jdbcTemplate.update(ADJUST_TOTALS_SQL, params);
+        return true;
+    }
+
+    private boolean upsert(MapSqlParameterSource params) {
+        if (nativeUpsert) {
+            return jdbcTemplate.update(UPSERT_SQL, params) > 0;
+        }
+
+        if (jdbcTemplate.update(INCREMENT_SQL, params) > 0) {
+            return true;
+        }
+
+        try {
+            return jdbcTemplate.update(INSERT_SQL, params) > 0;
+        } catch (DuplicateKeyException e) {
+            //Позицию параллельно создал другой запрос - теперь она точно есть, достаточно инкремента
+            return jdbcTemplate.update(INCREMENT_SQL, params) > 0;
+        }
+    }
+
+    //Уменьшить количество продукта в корзине, при количестве не больше запрошенного - удалить позицию.
+    //Вернёт false, если такой позиции в корзине нет. Вызывать внутри транзакции: если позицию изменили
+    //после чтения, бросает OptimisticLockingFailureException, и транзакция должна откатиться целиком
+    public boolean remove(Long cartId, Long productId, int quantity) {
+        MapSqlParameterSource params = params(cartId, productId, quantity);
+        List<Map<String, Object>> existing = jdbcTemplate.queryForList(FIND_POSITION_SQL, params);
+
+        if (existing.isEmpty()) {
+            return false;
+        }
+
+        //Прочитанное количество точно знает, сколько единиц уйдёт из итогов корзины, пока версия не изменилась
+        int current = ((Number) existing.get(0).get("quantity")).intValue();
+        params.addValue("version", ((Number) existing.get(0).get("version")).longValue());
+
+        if (jdbcTemplate.update(current > quantity ? DECREMENT_SQL : DELETE_VERSIONED_SQL, params) == 0) {
+            throw new OptimisticLockingFailureException("Cart position was modified concurrently");
+        }
+
+        int released = Math.min(current, quantity);
+
+        if (Boolean.TRUE.equals(existing.get(0).get("reserved"))) {
+            stockService.release(productId, released);
+        }
+        jdbcTemplate.update(ADJUST_TOTALS_SQL, params(cartId, productId, -released));
+
+        return true;
+    }
+
+    //Удалить все позиции корзины, вернуть количество удалённых позиций. Вызывать внутри транзакции,
+    //как и remove. Состав корзины меняется целиком, поэтому версия увеличивается и у самой корзины
+    public int clear(Long cartId) {
+        MapSqlParameterSource params = new MapSqlParameterSource("cartId", cartId);
+        List<MapSqlParameterSource> deletes = new ArrayList<>();
+        Map<Long, Integer> releases = new HashMap<>();
+
+        jdbcTemplate.query(FIND_POSITIONS_SQL, params, (RowCallbackHandler) rs -> {
+            deletes.add(params(cartId, rs.getLong("product_id"), 0).addValue("version", rs.getLong("version")));
+
+            if (rs.getBoolean("reserved")) {
+                releases.put(rs.getLong("product_id"), -rs.getInt("quantity"));
+            }
+        });
+
+        //Позиции раньше корзины - тот же порядок блокировок, что у add/remove.
+        //Итоги пересчитываются, а не обнуляются: позицию, добавленную после чтения, очистка не удаляет
+        checkVersioned(jdbcTemplate.batchUpdate(DELETE_VERSIONED_SQL, deletes.toArray(MapSqlParameterSource[]::new)));
+        stockService.adjust(releases);
+        cartTotalsService.recalculate(List.of(cartId));
+        jdbcTemplate.update(TOUCH_CART_VERSION_SQL, params);
+
+        return deletes.size();
+    }
+
+    //Применить пакет операций к корзине. Вызывать внутри транзакции: при параллельном изменении
+    //тех же позиций бросает OptimisticLockingFailureException, и транзакция должна откатиться целиком
+    public void apply(Long cartId, List<CartOperationDto> operations) {
+        Map<Long, Integer> current = new HashMap<>();
+        Map<Long, Long> versions = new HashMap<>();
+        Set<Long> unreserved = new HashSet<>();
+
+        jdbcTemplate.query(FIND_POSITIONS_SQL, new MapSqlParameterSource("cartId", cartId), (RowCallbackHandler) rs -> {
+            current.put(rs.getLong("product_id"), rs.getInt("quantity"));
+            versions.put(rs.getLong("product_id"), rs.getLong("version"));
+
+            if (!rs.getBoolean("reserved")) {
+                unreserved.add(rs.getLong("product_id"));
+            }
+        });
+
+        Map<Long, Integer> target = new HashMap<>(current);
+        CartQuantities.apply(target, operations);
+
+        Map<Long, Integer> stockDeltas = new HashMap<>();
+        List<MapSqlParameterSource> inserts = new ArrayList<>();
+        List<MapSqlParameterSource> updates = new ArrayList<>();
+        List<MapSqlParameterSource> deletes = new ArrayList<>();
+
+        Set<Long> productIds = new HashSet<>(current.keySet());
+        productIds.addAll(target.keySet());
+
+        for (Long productId : productIds) {
+            Integer before = current.get(productId);
+            Integer after = target.get(productId);
+
+            if (Objects.equals(before, after)) {
+                continue;
+            }
+
+            //Изменённая позиция снова держит резерв целиком, даже если её резерв истёк
+            int held = before == null || unreserved.contains(productId) ? 0 : before;
+            stockDeltas.put(productId, (after == null ? 0 : after) - held);
+
+            MapSqlParameterSource params = params(cartId, productId, after == null ? 0 : after)
+                    .addValue("version", versions.get(productId));
+
+            if (before == null) {
+                inserts.add(params);
+            } else if (after == null) {
+                deletes.add(params);
+            } else {
+                updates.add(params);
+            }
+        }
+
+        checkVersioned(jdbcTemplate.batchUpdate(UPDATE_VERSIONED_SQL, updates.toArray(MapSqlParameterSource[]::new)));
+        checkVersioned(jdbcTemplate.batchUpdate(DELETE_VERSIONED_SQL, deletes.toArray(MapSqlParameterSource[]::new)));
+
+        try {
+            jdbcTemplate.batchUpdate(INSERT_SQL, inserts.toArray(MapSqlParameterSource[]::new));
+        } catch (DuplicateKeyException e) {
+            throw new OptimisticLockingFailureException("Cart position was created concurrently", e);
+        }
+
+        stockService.adjust(stockDeltas);
+        cartTotalsService.recalculate(List.of(cartId));
+        jdbcTemplate.update(TOUCH_CART_SQL, new MapSqlParameterSource("cartId", cartId));
+    }
+
+    private void checkVersioned(int[] counts) {
+        for (int count : counts) {
+            if (count == 0) {
+                throw new OptimisticLockingFailureException("Cart position was modified concurrently");
+            }
+        }
+    }
+
+    private MapSqlParameterSource params(Long cartId, Long productId, int quantity) {
+        return new MapSqlParameterSource()
+                .addValue("cartId", cartId)
+                .addValue("productId", productId)
+                .addValue("quantity", quantity)
+                .addValue("maxQuantity", MAX_QUANTITY);
+    }
+
+    private boolean isPostgres(DataSource dataSource) {
+        try {
+            String productName = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+            return "PostgreSQL".equalsIgnoreCase(productName);
+        } catch (MetaDataAccessException e) {
+            logger.warn("Cannot detect database, native upsert for cart items is disabled", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.ait.shop.service;
+
+import com.ait.shop.dto.cart.CartOperationDto;
+import com.ait.shop.exceptions.types.EntityUpdateException;
+
+import java.util.List;
+import java.util.Map;
+
+//Применение пакета операций к содержимому корзины (product_id -> quantity).
+//Общая логика для хранения в БД и в памяти: операции применяются по порядку,
+//выход за MAX_QUANTITY отклоняет весь пакет
+final class CartQuantities {
+
+    private CartQuantities() {
+    }
+
+    static void apply(Map<Long, Integer> quantities, List<CartOperationDto> operations) {
+        for (CartOperationDto operation : operations) {
+            Long productId = operation.getProductId();
+            int current = quantities.getOrDefault(productId, 0);
+
+            int next = switch (operation.getType()) {
+                case ADD -> current + operation.getQuantity();
+                case REMOVE -> Math.max(0, current - operation.getQuantity());
+                case SET -> operation.getQuantity();
+            };
+
+            if (next > CartItemWriter.MAX_QUANTITY) {
+                throw new EntityUpdateException(String.format(
+                        "Product id %d quantity cannot greater than %d", productId, CartItemWriter.MAX_QUANTITY
+                ));
+            }
+
+            if (next == 0) {
+                quantities.remove(productId);
+            } else {
+                quantities.put(productId, next);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.ait.shop.service;
+
+import com.ait.shop.exceptions.types.ConcurrentUpdateException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/*
+Выполнение операций над корзиной с повтором при конфликтах.
+    1. Каждая попытка - отдельная транзакция: после конфликта версии (или взаимоблокировки)
+    транзакция откатывается целиком и операция выполняется заново на свежих данных
+    2. Число попыток ограничено, между попытками - пауза со случайной задержкой (full jitter),
+    чтобы конфликтующие запросы не повторялись синхронно
+    3. Если попытки кончились - ConcurrentUpdateException (409)
+    4. Внутри уже открытой транзакции повтор невозможен, поэтому там операция выполняется один раз
+    Версии строк при записи проверяют remove, clear и пакеты операций. Добавление - атомарный upsert
+    без проверки версии, поэтому у него повторяются только взаимоблокировки и таймауты блокировок
+    5. Метрики: cart.operation.conflicts, cart.operation.retries, cart.operation.failures с тегом operation
+ */
+
+@Component
+public class CartRetryExecutor {
+
+    private final Logger logger = LoggerFactory.getLogger(CartRetryExecutor.class);
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+
+    public CartRetryExecutor(
+            TransactionTemplate transactionTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${cart.retry.max-attempts:5}") int maxAttempts,
+            @Value("${cart.retry.base-backoff-ms:5}") long baseBackoffMs,
+            @Value("${cart.retry.max-backoff-ms:100}") long maxBackoffMs
+    ) {
+        this.transactionTemplate = transactionTemplate;
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffMs = Math.max(1, baseBackoffMs);
+        this.maxBackoffMs = Math.max(this.baseBackoffMs, maxBackoffMs);
+    }
+
+    public void execute(String operation, Runnable action) {
+        execute(operation, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public <T> T execute(String operation, Supplier<T> action) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return action.get();
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> action.get());
+            } catch (ConcurrencyFailureException e) {
+                counter("cart.operation.conflicts", operation).increment();
+
+                if (attempt >= maxAttempts) {
+                    counter("cart.operation.failures", operation).increment();
+                    logger.warn("Cart operation {} failed after {} attempts due to concurrent updates", operation, attempt);
+
+                    throw new ConcurrentUpdateException(
+                            "Cart was modified concurrently, please repeat the request", e
+                    );
+                }
+
+                counter("cart.operation.retries", operation).increment();
+                logger.debug("Cart operation {} conflict on attempt {}, retrying", operation, attempt);
+                backoff(attempt);
+            }
+        }
+    }
+
+    private void backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempt - 1, 20));
+
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConcurrentUpdateException("Cart operation was interrupted", e);
+        }
+    }
+
+    private Counter counter(String name, String operation) {
+        return meterRegistry.counter(name, "operation", operation);
+    }
+}
@@ -0,0 +1,167 @@
+package com.ait.shop.service;
+
+import com.ait.shop.service.interfaces.CartTotalsService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Денормализованные итоги корзины (cart.item_count, cart.total_cost) по активным продуктам.
+    1. Изменения позиций поправляют итоги в той же транзакции (CartItemWriter, WriteBehindCartStore)
+    2. Изменение цены, удаление и восстановление продукта затрагивают чужие корзины, поэтому
+    их id копятся в очереди и раз в propagation-interval-ms корзины с этими продуктами пересчитываются
+    пачками по chunk-size. Пересчёт идёт из позиций, а не дельтой. Сначала строки корзин блокируются
+    отдельным запросом (в порядке id), и только потом выполняется UPDATE: в READ COMMITTED снимок
+    подзапросов берётся в начале оператора, и UPDATE, дождавшийся блокировки параллельного изменения,
+    перезаписал бы его дельту итогом по позициям без этого изменения. После блокировки UPDATE видит
+    все закоммиченные позиции, а незакоммиченные изменения поправят итог своей дельтой уже поверх пересчёта
+    3. Раз в verify-interval-ms все корзины сверяются с позициями, расхождения исправляются,
+    пишутся в лог и считаются в метрике cart.totals.drift
+ */
+
+@Service
+public class CartTotalsServiceImpl implements CartTotalsService {
+
+    private static final String LOCK_CARTS_SQL = "select id from cart where id in (:cartIds) order by id for update";
+
+    private static final String RECALCULATE_SQL = """
+            update cart
+            set item_count = (select coalesce(sum(po.quantity), 0)
+                              from position po
+                              join product pr on pr.id = po.product_id
+                              where po.cart_id = cart.id and pr.active = true),
+                total_cost = (select coalesce(sum(pr.price * po.quantity), 0)
+                              from position po
+                              join product pr on pr.id = po.product_id
+                              where po.cart_id = cart.id and pr.active = true)
+            where id in (:cartIds)
+            """;
+
+    private static final String FIND_CARTS_BY_PRODUCT_SQL = """
+            select distinct cart_id from position where product_id in (:productIds) order by cart_id
+            """;
+
+    private static final String MAX_CART_ID_SQL = "select coalesce(max(id), 0) from cart";
+
+    private static final String FIND_DRIFTED_CARTS_SQL = """
+            select c.id
+            from cart c
+            left join (select po.cart_id, sum(po.quantity) as items, sum(pr.price * po.quantity) as cost
+                       from position po
+                       join product pr on pr.id = po.product_id
+                       where pr.active = true and po.cart_id > :afterId and po.cart_id <= :toId
+                       group by po.cart_id) a on a.cart_id = c.id
+            where c.id > :afterId and c.id <= :toId
+              and (c.item_count <> coalesce(a.items, 0) or c.total_cost <> coalesce(a.cost, 0))
+            """;
+
+    private final Logger logger = LoggerFactory.getLogger(CartTotalsServiceImpl.class);
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Set<Long> pendingProducts = ConcurrentHashMap.newKeySet();
+    private final Counter driftCounter;
+    private final int chunkSize;
+
+    public CartTotalsServiceImpl(
+            NamedParameterJdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${cart.totals.chunk-size:500}") int chunkSize
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.driftCounter = meterRegistry.counter("cart.totals.drift");
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    @Override
+    public void recalculate(Collection<Long> cartIds) {
+        if (cartIds.isEmpty()) {
+            return;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource("cartIds", cartIds);
+        jdbcTemplate.queryForList(LOCK_CARTS_SQL, params, Long.class);
+        jdbcTemplate.update(RECALCULATE_SQL, params);
+    }
+
+    @Override
+    public void onProductsChanged(Collection<Long> productIds) {
+        List<Long> ids = List.copyOf(productIds);
+        TransactionUtils.runAfterCommit(() -> pendingProducts.addAll(ids));
+    }
+
+    @Scheduled(
+            initialDelayString = "${cart.totals.propagation-interval-ms:1000}",
+            fixedDelayString = "${cart.totals.propagation-interval-ms:1000}"
+    )
+    public void propagateProductChanges() {
+        if (pendingProducts.isEmpty()) {
+            return;
+        }
+
+        List<Long> productIds = new ArrayList<>(pendingProducts);
+        pendingProducts.removeAll(productIds);
+
+        try {
+            List<Long> cartIds = jdbcTemplate.queryForList(
+                    FIND_CARTS_BY_PRODUCT_SQL, new MapSqlParameterSource("productIds", productIds), Long.class
+            );
+
+            for (int from = 0; from < cartIds.size(); from += chunkSize) {
+                List<Long> chunk = cartIds.subList(from, Math.min(from + chunkSize, cartIds.size()));
+                transactionTemplate.executeWithoutResult(status -> recalculate(chunk));
+            }
+
+            logger.info("Cart totals recalculated after product changes: {} products, {} carts",
+                    productIds.size(), cartIds.size());
+        } catch (RuntimeException e) {
+            //Вернём продукты в очередь - следующий запуск повторит пересчёт
+            pendingProducts.addAll(productIds);
+            logger.error("Cart totals propagation failed for {} products", productIds.size(), e);
+        }
+    }
+
+    @Override
+    @Scheduled(
+            initialDelayString = "${cart.totals.verify-interval-ms:600000}",
+            fixedDelayString = "${cart.totals.verify-interval-ms:600000}"
+    )
+    public long verify() {
+        long maxId = jdbcTemplate.queryForObject(MAX_CART_ID_SQL, new MapSqlParameterSource(), Long.class);
+        long drifted = 0;
+
+        for (long afterId = 0; afterId < maxId; afterId += chunkSize) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("afterId", afterId)
+                    .addValue("toId", afterId + chunkSize);
+
+            List<Long> cartIds = jdbcTemplate.queryForList(FIND_DRIFTED_CARTS_SQL, params, Long.class);
+
+            if (!cartIds.isEmpty()) {
+                drifted += cartIds.size();
+                logger.warn("Cart totals drift found in {} carts, e.g. cart ids {}",
+                        cartIds.size(), cartIds.subList(0, Math.min(10, cartIds.size())));
+                transactionTemplate.executeWithoutResult(status -> recalculate(cartIds));
+            }
+        }
+
+        driftCounter.increment(drifted);
+        logger.info("Cart totals verification finished: carts up to id {} checked, {} drifted", maxId, drifted);
+
+        return drifted;
+    }
+}
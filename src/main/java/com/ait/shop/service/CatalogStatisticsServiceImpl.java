@@ -0,0 +1,180 @@
+package com.ait.shop.service;
+
+import com.ait.shop.repository.ProductRepository;
+import com.ait.shop.repository.projection.ProductStatisticsView;
+import com.ait.shop.service.interfaces.CatalogStatisticsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+Количество и суммарная стоимость активных продуктов хранятся в памяти как накопительные агрегаты.
+ProductServiceImpl сообщает об изменениях внутри транзакции, изменение применяется после её коммита,
+а периодическая сверка с SUM/COUNT в БД исправляет возможный дрейф (например, при изменениях в обход сервиса).
+Сверка принимает результат запроса, только если за время запроса ни одно изменение не было в полёте:
+иначе SUM мог уже включать коммит, чьё изменение ещё не применено, и оно было бы учтено дважды.
+ */
+
+@Service
+public class CatalogStatisticsServiceImpl implements CatalogStatisticsService {
+
+    private static final int MAX_RECONCILE_ATTEMPTS = 3;
+
+    private final Logger logger = LoggerFactory.getLogger(CatalogStatisticsServiceImpl.class);
+    private final ProductRepository repository;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+    //Изменения, о которых сообщили, но транзакция которых ещё не завершилась, и номер последнего изменения
+    private final AtomicLong pendingChanges = new AtomicLong();
+    private final AtomicLong startedChanges = new AtomicLong();
+
+    public CatalogStatisticsServiceImpl(ProductRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public void onProductActivated(BigDecimal price) {
+        applyAfterCommit(1, price);
+    }
+
+    @Override
+    public void onProductDeactivated(BigDecimal price) {
+        applyAfterCommit(-1, price.negate());
+    }
+
+    @Override
+    public void onPriceChanged(BigDecimal oldPrice, BigDecimal newPrice) {
+        applyAfterCommit(0, newPrice.subtract(oldPrice));
+    }
+
+    @Override
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(
+            initialDelayString = "${catalog.statistics.reconcile-interval-ms:60000}",
+            fixedDelayString = "${catalog.statistics.reconcile-interval-ms:60000}"
+    )
+    public void reconcile() {
+        for (int attempt = 0; attempt < MAX_RECONCILE_ATTEMPTS; attempt++) {
+            //Порядок чтения обратен applyAfterCommit: pending увеличивается раньше started
+            long started = startedChanges.get();
+
+            if (pendingChanges.get() > 0) {
+                continue;
+            }
+
+            Snapshot before = snapshot.get();
+            Snapshot reconciled = loadFromDatabase(before.version() + 1);
+
+            //Изменение, начатое во время запроса, могло попасть в SUM раньше, чем в агрегаты - повторяем
+            if (startedChanges.get() != started) {
+                continue;
+            }
+
+            if (snapshot.compareAndSet(before, reconciled)) {
+                if (before.initialized()
+                        && (before.count() != reconciled.count()
+                        || before.totalCost().compareTo(reconciled.totalCost()) != 0)) {
+                    logger.warn("Catalog statistics drift fixed: count {} -> {}, total cost {} -> {}",
+                            before.count(), reconciled.count(), before.totalCost(), reconciled.totalCost());
+                }
+                return;
+            }
+        }
+
+        logger.debug("Catalog statistics reconciliation skipped due to concurrent updates");
+    }
+
+    @Override
+    public long getActiveCount() {
+        return currentSnapshot().count();
+    }
+
+    @Override
+    public BigDecimal getTotalCost() {
+        return currentSnapshot().totalCost();
+    }
+
+    @Override
+    public BigDecimal getAveragePrice() {
+        Snapshot current = currentSnapshot();
+
+        if (current.count() == 0) {
+            return BigDecimal.ZERO;
+        }
+
+        return current.totalCost().divide(BigDecimal.valueOf(current.count()), 2, RoundingMode.HALF_UP);
+    }
+
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot.get();
+
+        if (!current.initialized()) {
+            reconcile();
+            current = snapshot.get();
+        }
+
+        //Агрегаты ещё не сверены из-за непрерывных изменений - отвечаем прямо из БД
+        return current.initialized() ? current : loadFromDatabase(current.version());
+    }
+
+    private Snapshot loadFromDatabase(long version) {
+        ProductStatisticsView view = repository.getActiveStatistics();
+
+        long count = view.getProductsCount() == null ? 0 : view.getProductsCount();
+        BigDecimal totalCost = view.getTotalCost() == null ? BigDecimal.ZERO : view.getTotalCost();
+
+        return new Snapshot(count, totalCost, version, true);
+    }
+
+    //Изменение считается в полёте с момента сообщения и до завершения транзакции (коммит или откат)
+    private void applyAfterCommit(long countDelta, BigDecimal costDelta) {
+        pendingChanges.incrementAndGet();
+        startedChanges.incrementAndGet();
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            try {
+                apply(countDelta, costDelta);
+            } finally {
+                pendingChanges.decrementAndGet();
+            }
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                try {
+                    if (status == STATUS_COMMITTED) {
+                        apply(countDelta, costDelta);
+                    }
+                } finally {
+                    pendingChanges.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    private void apply(long countDelta, BigDecimal costDelta) {
+        snapshot.updateAndGet(x -> new Snapshot(
+                x.count() + countDelta,
+                x.totalCost().add(costDelta),
+                x.version() + 1,
+                x.initialized()
+        ));
+    }
+
+    //Счётчик и сумма меняются одним CAS, поэтому читатели всегда видят согласованную пару
+    private record Snapshot(long count, BigDecimal totalCost, long version, boolean initialized) {
+
+        private static final Snapshot EMPTY = new Snapshot(0, BigDecimal.ZERO, 0, false);
+    }
+}
@@ -0,0 +1,71 @@
+package com.ait.shop.service;
+
+import com.ait.shop.domain.Customer;
+import com.ait.shop.repository.CustomerRepository;
+import com.ait.shop.repository.projection.CustomerNameView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+//Поисковый индекс по именам активных покупателей. Значение документа - только id:
+//данные для выдачи читаются из БД по найденным id, поэтому индексу не нужно следить за картинками и корзинами.
+//Строится при старте из CustomerRepository и поддерживается CustomerServiceImpl после коммитов
+@Component
+public class CustomerSearchIndex {
+
+    private static final int BUILD_CHUNK_SIZE = 5000;
+
+    private final Logger logger = LoggerFactory.getLogger(CustomerSearchIndex.class);
+    private final CustomerRepository repository;
+    private final TextSearchIndex<Long> index;
+
+    public CustomerSearchIndex(
+            CustomerRepository repository,
+            @Value("${customer.search.max-candidates:5000}") int maxCandidates
+    ) {
+        this.repository = repository;
+        this.index = new TextSearchIndex<>(maxCandidates);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        long startedAt = System.currentTimeMillis();
+        long afterId = 0;
+        List<CustomerNameView> chunk;
+
+        index.beginLoad();
+        try {
+            do {
+                chunk = repository.findActiveNamePage(afterId, Limit.of(BUILD_CHUNK_SIZE));
+                chunk.forEach(x -> index.load(x.getId(), x.getName(), x.getId()));
+
+                if (!chunk.isEmpty()) {
+                    afterId = chunk.get(chunk.size() - 1).getId();
+                }
+            } while (chunk.size() == BUILD_CHUNK_SIZE);
+        } finally {
+            index.endLoad();
+        }
+
+        logger.info("Customer search index built: {} names in {} ms",
+                index.size(), System.currentTimeMillis() - startedAt);
+    }
+
+    public void put(Customer customer) {
+        if (customer.isActive()) {
+            index.put(customer.getId(), customer.getName(), customer.getId());
+        } else {
+            index.remove(customer.getId());
+        }
+    }
+
+    public List<Long> search(String query, int page, int size) {
+        return index.search(query, page * size, size);
+    }
+}
@@ -2,9 +2,12 @@ package com.ait.shop.service;
 
 import com.ait.shop.domain.Cart;
 import com.ait.shop.domain.Customer;
-import com.ait.shop.domain.Position;
-import com.ait.shop.domain.Product;
+import com.ait.shop.dto.cart.CartOperationDto;
+import com.ait.shop.dto.cart.CartOperationType;
+import com.ait.shop.dto.cart.CartSummaryDto;
 import com.ait.shop.dto.customer.CustomerDto;
+import com.ait.shop.dto.customer.CustomerPageDto;
+import com.ait.shop.dto.customer.CustomerSummaryDto;
 import com.ait.shop.dto.customer.CustomerSaveDto;
 import com.ait.shop.dto.customer.CustomerUpdateDto;
 import com.ait.shop.dto.mapping.CustomerMapper;
@@ -12,36 +15,62 @@ import com.ait.shop.dto.position.PositionUpdateDto;
 import com.ait.shop.exceptions.types.EntityNotFoundException;
 import com.ait.shop.exceptions.types.EntityUpdateException;
 import com.ait.shop.repository.CustomerRepository;
+import com.ait.shop.repository.projection.CartSummaryView;
+import com.ait.shop.repository.projection.CustomerSummaryView;
+import com.ait.shop.service.interfaces.ArchiveService;
+import com.ait.shop.service.interfaces.CartStore;
 import com.ait.shop.service.interfaces.CustomerService;
 import com.ait.shop.service.interfaces.FileService;
 import com.ait.shop.service.interfaces.ProductService;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.Iterator;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class CustomerServiceImpl implements CustomerService {
 
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int MAX_BATCH_OPERATIONS = 200;
+
     private final Logger logger = LoggerFactory.getLogger(CustomerServiceImpl.class);
     private final CustomerRepository repository;
     private final ProductService productService;
     private final CustomerMapper mapper;
     private final FileService fileService;
-
-    public CustomerServiceImpl(CustomerRepository repository, ProductService productService, CustomerMapper mapper, FileService fileService) {
+    private final CartStore cartStore;
+    private final ArchiveService archiveService;
+    private final CustomerSearchIndex searchIndex;
+
+    public CustomerServiceImpl(
+            CustomerRepository repository,
+            ProductService productService,
+            CustomerMapper mapper,
+            FileService fileService,
+            CartStore cartStore,
+            ArchiveService archiveService,
+            CustomerSearchIndex searchIndex
+    ) {
         this.repository = repository;
         this.productService = productService;
         this.mapper = mapper;
         this.fileService = fileService;
+        this.cartStore = cartStore;
+        this.archiveService = archiveService;
+        this.searchIndex = searchIndex;
     }
 
     @Override
@@ -55,6 +84,7 @@ public class CustomerServiceImpl implements CustomerService {
 
         entity.setActive(true);
         repository.save(entity);
+        onCustomerChanged(entity);
 
         logger.info("Customer saved in database: {}", entity);
 
@@ -65,13 +95,76 @@ public class CustomerServiceImpl implements CustomerService {
     public List<CustomerDto> getAllCustomers() {
         return repository.findAllByActiveTrue()
                 .stream()
-                .map(mapper::mapEntityToDto)
+                .map(mapper::mapEntityToListDto)
                 .toList();
     }
 
+    @Override
+    public CustomerPageDto getActiveCustomersPage(Long after, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        long afterId = after == null ? 0 : after;
+
+        //Запрашиваем на одну запись больше, чтобы понять, есть ли следующая страница
+        List<CustomerSummaryView> rows = repository.findActiveSummaryPage(afterId, Limit.of(pageSize + 1));
+
+        boolean hasNext = rows.size() > pageSize;
+        List<CustomerSummaryDto> page = rows.stream()
+                .limit(pageSize)
+                .map(this::toSummaryDto)
+                .toList();
+        Long nextCursor = hasNext ? page.get(page.size() - 1).getId() : null;
+
+        return new CustomerPageDto(page, nextCursor);
+    }
+
+    @Override
+    public List<CustomerSummaryDto> searchActiveCustomers(String name, int page, int size) {
+        Objects.requireNonNull(name, "Search query cannot be null");
+
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        int pageNumber = Math.max(0, Math.min(page, Integer.MAX_VALUE / pageSize));
+        List<Long> ids = searchIndex.search(name, pageNumber, pageSize);
+
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        //БД возвращает строки в произвольном порядке - восстанавливаем ранжирование индекса
+        Map<Long, CustomerSummaryView> rows = repository.findActiveSummariesByIds(ids)
+                .stream()
+                .collect(Collectors.toMap(CustomerSummaryView::getId, Function.identity()));
+
+        return ids.stream()
+                .map(rows::get)
+                .filter(Objects::nonNull)
+                .map(this::toSummaryDto)
+                .toList();
+    }
+
+    private CustomerSummaryDto toSummaryDto(CustomerSummaryView view) {
+        return new CustomerSummaryDto(
+                view.getId(),
+                view.getName(),
+                view.getImageUrl(),
+                view.getItemsCount() == null ? 0 : view.getItemsCount(),
+                view.getTotalCost() == null ? BigDecimal.ZERO : view.getTotalCost().setScale(2, RoundingMode.HALF_UP)
+        );
+    }
+
+    //Индекс меняется только после коммита: откат не должен оставить в нём имя, которого нет в БД
+    private void onCustomerChanged(Customer customer) {
+        TransactionUtils.runAfterCommit(() -> searchIndex.put(customer));
+    }
+
     @Override
     public CustomerDto getCustomerById(Long id) {
-        Customer entity = getEntityById(id);
+        Objects.requireNonNull(id, "Customer id cannot be null");
+
+        cartStore.flush(id);
+        Customer entity = repository.findWithCartByIdAndActiveTrue(id)
+                .orElseThrow(
+                        () -> new EntityNotFoundException(Customer.class, id)
+                );
 
         return mapper.mapEntityToDto(entity);
     }
@@ -92,11 +185,12 @@ public class CustomerServiceImpl implements CustomerService {
         Objects.requireNonNull(id, "Customer id cannot be null");
         Objects.requireNonNull(updateDto, "CustomerSaveDto cannot be null");
 
-        repository.findById(id)
+        Customer customer = repository.findById(id)
                 .orElseThrow(
                         () -> new EntityNotFoundException(Customer.class, id)
-                )
-                .setName(updateDto.getNewName());
+                );
+        customer.setName(updateDto.getNewName());
+        onCustomerChanged(customer);
 
         logger.info("Customer id {} updated. New name: {}", id, updateDto.getNewName());
 
@@ -107,7 +201,12 @@ public class CustomerServiceImpl implements CustomerService {
     public void deleteById(Long id) {
         Objects.requireNonNull(id, "Customer id cannot be null");
 
-        getEntityById(id).setActive(false);
+        Customer customer = getEntityById(id);
+        customer.setActive(false);
+        customer.setDeactivatedAt(LocalDateTime.now());
+        onCustomerChanged(customer);
+        //Корзина в памяти не знает об удалении: без вытеснения она принимала бы изменения до простоя
+        TransactionUtils.runAfterCommit(() -> cartStore.evict(id));
         logger.info("Customer id {} marked as inactive", id);
     }
 
@@ -116,11 +215,16 @@ public class CustomerServiceImpl implements CustomerService {
     public void restoreById(Long id) {
         Objects.requireNonNull(id, "Customer id cannot be null");
 
-        repository.findById(id)
+        //Давно удалённый покупатель мог уйти в архив - тогда сначала возвращаем его оттуда
+        Customer customer = repository.findById(id)
+                .or(() -> archiveService.restoreCustomer(id) ? repository.findById(id) : Optional.empty())
                 .orElseThrow(
                         () -> new EntityNotFoundException(Customer.class, id)
-                )
-                .setActive(true);
+                );
+        customer.setActive(true);
+        customer.setDeactivatedAt(null);
+        onCustomerChanged(customer);
+        TransactionUtils.runAfterCommit(() -> cartStore.reactivate(id));
         logger.info("Customer id {} marked as active", id);
     }
 
@@ -129,121 +233,121 @@ public class CustomerServiceImpl implements CustomerService {
         return repository.countByActiveTrue();
     }
 
-    private List<Position> getCustomerActivePositions(Customer customer) {
-        return customer.getCart()
-                .getPositions()
-                .stream()
-                .filter(x -> x.getProduct().isActive())
-                .toList();
-    }
+    @Override
+    public CartSummaryDto getCustomerCartSummary(Long id) {
+        Objects.requireNonNull(id, "Customer id cannot be null");
 
-    private BigDecimal getPositionsTotalCost(List<Position> positions) {
-        return positions.stream()
-                .map(x -> x.getProduct()
-                        .getPrice()
-                        .multiply(BigDecimal.valueOf(x.getQuantity()))
-                )
-                .reduce(BigDecimal::add)
-                .orElse(BigDecimal.ZERO);
-    }
+        cartStore.flush(id);
+        CartSummaryView summary = repository.findActiveCartSummary(id)
+                .orElseThrow(
+                        () -> new EntityNotFoundException(Customer.class, id)
+                );
 
-    private int getProductsCountInPositions(List<Position> positions) {
-        return positions.stream()
-                .map(Position::getQuantity)
-                .reduce(Integer::sum)
-                .orElse(0);
-    }
+        long itemsCount = summary.getItemsCount() == null ? 0 : summary.getItemsCount();
+        BigDecimal totalCost = summary.getTotalCost() == null
+                ? BigDecimal.ZERO
+                : summary.getTotalCost().setScale(2, RoundingMode.HALF_UP);
+        BigDecimal averagePrice = itemsCount == 0
+                ? BigDecimal.ZERO
+                : totalCost.divide(BigDecimal.valueOf(itemsCount), 2, RoundingMode.HALF_UP);
 
+        return new CartSummaryDto(id, itemsCount, totalCost, averagePrice);
+    }
 
     @Override
     public BigDecimal getCustomerCartTotalCost(Long id) {
-        Customer customer = getEntityById(id);
-
-        return getPositionsTotalCost(getCustomerActivePositions(customer));
+        return getCustomerCartSummary(id).getTotalCost();
     }
 
     @Override
     public BigDecimal getCustomerCartAveragePrice(Long id) {
-        Customer customer = getEntityById(id);
-        List<Position> activePositions = getCustomerActivePositions(customer);
-        int productsQuantity = getProductsCountInPositions(activePositions);
-
-        return productsQuantity == 0
-                ? BigDecimal.ZERO
-                : getPositionsTotalCost(activePositions)
-                .divide(BigDecimal.valueOf(productsQuantity), 2, RoundingMode.HALF_UP);
+        return getCustomerCartSummary(id).getAveragePrice();
     }
 
+    //Как именно хранится содержимое корзины (сразу в БД или в памяти с отложенной записью) - решает CartStore
     @Override
-    @Transactional
     public void addPositionToCustomerCart(Long customerId, Long productId, PositionUpdateDto positionUpdateDto) {
-        Objects.requireNonNull(positionUpdateDto, "PositionUpdateDto cannot be null");
+        int quantity = getValidQuantity(positionUpdateDto);
 
-        if (positionUpdateDto.getQuantity() < 1) {
-            throw new EntityUpdateException("Quantity should be positive");
+        productService.getActiveEntityById(productId);
+
+        if (!cartStore.add(customerId, productId, quantity)) {
+            throw new EntityUpdateException("Product quantity cannot greater than " + CartItemWriter.MAX_QUANTITY);
         }
 
-        Product product = productService.getActiveEntityById(productId);
-        Customer customer = getEntityById(customerId);
+        logger.info("Customer id {}, product id {}, quantity added: {}", customerId, productId, quantity);
+    }
+
+    @Override
+    public void deletePositionFromCustomerCart(Long customerId, Long productId, PositionUpdateDto positionUpdateDto) {
+        int quantity = getValidQuantity(positionUpdateDto);
+
+        productService.getActiveEntityById(productId);
+
+        if (cartStore.remove(customerId, productId, quantity)) {
+            logger.info("Customer id {}, product id {}, quantity removed: {}", customerId, productId, quantity);
+        }
+    }
 
-        for (Position position : customer.getCart().getPositions()) {
-            if (position.getProduct().equals(product)) {
-                position.setQuantity(position.getQuantity() + positionUpdateDto.getQuantity());
+    //Все продукты пакета проверяются одним запросом, а сам пакет применяется одной транзакцией
+    @Override
+    public CartSummaryDto applyCartOperations(Long customerId, List<CartOperationDto> operations) {
+        Objects.requireNonNull(customerId, "Customer id cannot be null");
+        Objects.requireNonNull(operations, "Cart operations cannot be null");
 
-                logger.info("Customer id {}, position id {}, quantity added, new value: {}",
-                        customerId, position.getId(), position.getQuantity());
+        if (operations.isEmpty() || operations.size() > MAX_BATCH_OPERATIONS) {
+            throw new EntityUpdateException("Cart operations count should be between 1 and " + MAX_BATCH_OPERATIONS);
+        }
 
-                return;
-            }
+        for (CartOperationDto operation : operations) {
+            validateOperation(operation);
         }
 
-        Cart cart = customer.getCart();
-        Position position = new Position(product, positionUpdateDto.getQuantity(), cart);
-        cart.getPositions().add(position);
+        productService.getActiveEntitiesByIds(
+                operations.stream().map(CartOperationDto::getProductId).toList()
+        );
 
-        logger.info("Customer id {}, position added to cart: {}", customerId, position);
+        cartStore.apply(customerId, operations);
+        logger.info("Customer id {}, cart operations applied: {}", customerId, operations.size());
+
+        return getCustomerCartSummary(customerId);
     }
 
+    private void validateOperation(CartOperationDto operation) {
+        if (operation == null || operation.getType() == null || operation.getProductId() == null) {
+            throw new EntityUpdateException("Cart operation should contain type and product id");
+        }
+
+        int minQuantity = operation.getType() == CartOperationType.SET ? 0 : 1;
+
+        if (operation.getQuantity() < minQuantity || operation.getQuantity() > CartItemWriter.MAX_QUANTITY) {
+            throw new EntityUpdateException(String.format(
+                    "Quantity for %s should be between %d and %d",
+                    operation.getType(), minQuantity, CartItemWriter.MAX_QUANTITY
+            ));
+        }
+    }
 
     @Override
-    @Transactional
-    public void deletePositionFromCustomerCart(Long customerId, Long productId, PositionUpdateDto positionUpdateDto) {
+    public void clearCustomerCart(Long customerId) {
+        Objects.requireNonNull(customerId, "Customer id cannot be null");
+        int removed = cartStore.clear(customerId);
+
+        logger.info("Customer id {} cleared the cart, positions removed: {}", customerId, removed);
+    }
+
+    private int getValidQuantity(PositionUpdateDto positionUpdateDto) {
         Objects.requireNonNull(positionUpdateDto, "PositionUpdateDto cannot be null");
 
         if (positionUpdateDto.getQuantity() < 1) {
             throw new EntityUpdateException("Quantity should be positive");
         }
 
-        Product product = productService.getActiveEntityById(productId);
-        Customer customer = getEntityById(customerId);
-
-        Iterator<Position> iterator = customer.getCart().getPositions().iterator();
-        while (iterator.hasNext()) {
-            Position position = iterator.next();
-            if (position.getProduct().equals(product)) {
-                if (position.getQuantity() > positionUpdateDto.getQuantity()) {
-                    position.setQuantity(position.getQuantity() - positionUpdateDto.getQuantity());
-
-                    logger.info("Customer id {}, position id {}, quantity reduced, new value: {}",
-                            customerId, position.getId(), position.getQuantity());
-                } else {
-                    iterator.remove();
-
-                    logger.info("Customer id {}, position removed from cart: {}", customerId, position);
-                }
-                break;
-            }
+        if (positionUpdateDto.getQuantity() > CartItemWriter.MAX_QUANTITY) {
+            throw new EntityUpdateException("Product quantity cannot greater than " + CartItemWriter.MAX_QUANTITY);
         }
-    }
-
-    @Override
-    @Transactional
-    public void clearCustomerCart(Long customerId) {
-        Customer customer = getEntityById(customerId);
-        Cart cart = customer.getCart();
-        cart.getPositions().clear();
 
-        logger.info("Customer id {} cleared the cart", customerId);
+        return positionUpdateDto.getQuantity();
     }
 
     @Override
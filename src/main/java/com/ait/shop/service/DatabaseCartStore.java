@@ -0,0 +1,88 @@
+package com.ait.shop.service;
+
+import com.ait.shop.domain.Customer;
+import com.ait.shop.dto.cart.CartOperationDto;
+import com.ait.shop.exceptions.types.EntityNotFoundException;
+import com.ait.shop.repository.CustomerRepository;
+import com.ait.shop.service.interfaces.CartStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Function;
+
+//Корзины хранятся только в БД: каждое изменение - отдельная короткая транзакция через CartRetryExecutor
+@Component
+@ConditionalOnProperty(name = "cart.storage.mode", havingValue = "database", matchIfMissing = true)
+public class DatabaseCartStore implements CartStore {
+
+    private final CustomerRepository customerRepository;
+    private final CartItemWriter cartItemWriter;
+    private final CartRetryExecutor retryExecutor;
+
+    public DatabaseCartStore(
+            CustomerRepository customerRepository,
+            CartItemWriter cartItemWriter,
+            CartRetryExecutor retryExecutor
+    ) {
+        this.customerRepository = customerRepository;
+        this.cartItemWriter = cartItemWriter;
+        this.retryExecutor = retryExecutor;
+    }
+
+    @Override
+    public boolean add(Long customerId, Long productId, int quantity) {
+        Long cartId = getActiveCartId(customerId);
+
+        return retryExecutor.execute("add", () -> cartItemWriter.add(cartId, productId, quantity));
+    }
+
+    @Override
+    public boolean remove(Long customerId, Long productId, int quantity) {
+        Long cartId = getActiveCartId(customerId);
+
+        return retryExecutor.execute("remove", () -> cartItemWriter.remove(cartId, productId, quantity));
+    }
+
+    @Override
+    public int clear(Long customerId) {
+        Long cartId = getActiveCartId(customerId);
+
+        return retryExecutor.execute("clear", () -> cartItemWriter.clear(cartId));
+    }
+
+    @Override
+    public void apply(Long customerId, List<CartOperationDto> operations) {
+        Long cartId = getActiveCartId(customerId);
+
+        retryExecutor.execute("batch", () -> cartItemWriter.apply(cartId, operations));
+    }
+
+    @Override
+    public void flush(Long customerId) {
+        //Всё уже записано
+    }
+
+    @Override
+    public void evict(Long customerId) {
+        //Корзины в памяти нет, активность покупателя проверяется при каждом изменении
+    }
+
+    @Override
+    public void reactivate(Long customerId) {
+        //Корзины в памяти нет
+    }
+
+    @Override
+    public <T> T checkout(Long customerId, Function<Long, T> action) {
+        //Позиции уже в БД, от параллельных изменений корзину защищает блокировка её строки при оформлении
+        return action.apply(getActiveCartId(customerId));
+    }
+
+    private Long getActiveCartId(Long customerId) {
+        return customerRepository.findActiveCartId(customerId)
+                .orElseThrow(
+                        () -> new EntityNotFoundException(Customer.class, customerId)
+                );
+    }
+}
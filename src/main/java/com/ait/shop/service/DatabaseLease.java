@@ -0,0 +1,87 @@
+package com.ait.shop.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+/*
+Аренда (lease) в таблице scheduler_lease, чтобы фоновую задачу в кластере выполнял один узел.
+    1. Захват - один условный UPDATE: строка переходит к узлу, если она уже его или срок прежней аренды истёк.
+    Строки ещё нет - INSERT, при гонке двух узлов ключ получает только один
+    2. Аренда выдаётся на ttl и освобождается явно после работы. Если узел упал посреди задачи,
+    другой узел возьмёт её после истечения ttl, поэтому ttl должен быть больше времени одного запуска
+    3. Время - часы приложения, поэтому часы узлов должны быть синхронизированы (NTP) с точностью
+    много меньше ttl
+ */
+
+@Component
+public class DatabaseLease {
+
+    private static final String ACQUIRE_SQL = """
+            update scheduler_lease set owner = :owner, expires_at = :expiresAt
+            where name = :name and (owner = :owner or expires_at < :now)
+            """;
+
+    private static final String INSERT_SQL = """
+            insert into scheduler_lease (name, owner, expires_at) values (:name, :owner, :expiresAt)
+            """;
+
+    private static final String RELEASE_SQL = """
+            update scheduler_lease set expires_at = :now where name = :name and owner = :owner
+            """;
+
+    private final Logger logger = LoggerFactory.getLogger(DatabaseLease.class);
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String owner;
+
+    public DatabaseLease(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.owner = hostName() + "/" + UUID.randomUUID();
+    }
+
+    //Захватить или продлить аренду. Вызывать вне транзакции: захват должен быть виден другим узлам сразу
+    public boolean tryAcquire(String name, Duration ttl) {
+        Instant now = Instant.now();
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("name", name)
+                .addValue("owner", owner)
+                .addValue("now", Timestamp.from(now))
+                .addValue("expiresAt", Timestamp.from(now.plus(ttl)));
+
+        if (jdbcTemplate.update(ACQUIRE_SQL, params) > 0) {
+            return true;
+        }
+
+        try {
+            return jdbcTemplate.update(INSERT_SQL, params) > 0;
+        } catch (DuplicateKeyException e) {
+            logger.debug("Lease {} is held by another node", name);
+            return false;
+        }
+    }
+
+    public void release(String name) {
+        jdbcTemplate.update(RELEASE_SQL, new MapSqlParameterSource()
+                .addValue("name", name)
+                .addValue("owner", owner)
+                .addValue("now", Timestamp.from(Instant.now())));
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.ait.shop.service;
+
+import com.ait.shop.service.interfaces.ExpiryPurgeService;
+import com.ait.shop.service.interfaces.ProductStockService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+Очистка устаревших данных.
+    1. Правила:
+    confirmation-codes - коды подтверждения, срок которых истёк;
+    abandoned-carts - позиции корзин, которые не менялись retention-days дней
+    (корзины неактивных покупателей - inactive-customer-retention-days). Сама корзина остаётся,
+    она обязательна для покупателя - удаляются позиции, итоги обнуляются
+    2. Заброшенность корзины у всех задач одна - cart.updated_at, а ответственность разделена по сроку:
+    через product.stock.reservation-ttl-minutes ProductStockService возвращает в остаток резерв позиций
+    (reserved = false), сами позиции остаются; через retention-days эта очистка удаляет позиции.
+    Резерв возвращается здесь только у позиций, которые всё ещё его держат (reserved = true),
+    поэтому один и тот же резерв никогда не возвращается дважды
+    3. Каждое правило удаляет строки кусками по chunk-size, каждый кусок - своя короткая транзакция,
+    поэтому очистка не держит долгих блокировок и не раздувает одну транзакцию
+    4. Запуск раз в interval-ms под арендой purge в scheduler_lease (DatabaseLease):
+    в кластере очистку выполняет один узел
+    5. Метрики: purge.rows (удалённые коды, очищенные корзины) и purge.duration (время) с тегом rule
+ */
+
+@Service
+public class ExpiryPurgeServiceImpl implements ExpiryPurgeService {
+
+    private static final String LEASE_NAME = "purge";
+
+    private static final String FIND_EXPIRED_CODES_SQL = """
+            select id from confirmation_code where expiration < :now order by id limit :limit
+            """;
+
+    private static final String DELETE_CODES_SQL = "delete from confirmation_code where id in (:ids)";
+
+    private static final String FIND_ABANDONED_CARTS_SQL = """
+            select c.id from cart c
+            join customer cu on cu.id = c.customer_id
+            where (c.updated_at < :cutoff or (cu.active = false and c.updated_at < :inactiveCutoff))
+              and exists (select 1 from position po where po.cart_id = c.id)
+            order by c.id
+            limit :limit
+            """;
+
+    private static final String LOCK_ABANDONED_CARTS_SQL = """
+            select id from cart
+            where id in (:cartIds)
+              and (updated_at < :cutoff
+                   or (updated_at < :inactiveCutoff and customer_id in (select id from customer where active = false)))
+            for update
+            """;
+
+    private static final String FIND_POSITIONS_SQL = """
+            select product_id, quantity from position where cart_id in (:cartIds) and reserved = true
+            """;
+
+    private static final String DELETE_POSITIONS_SQL = "delete from position where cart_id in (:cartIds)";
+
+    //updated_at не трогаем: корзина остаётся такой же давно не изменявшейся
+    private static final String RESET_CARTS_SQL = """
+            update cart set version = version + 1, item_count = 0, total_cost = 0 where id in (:cartIds)
+            """;
+
+    private final Logger logger = LoggerFactory.getLogger(ExpiryPurgeServiceImpl.class);
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DatabaseLease lease;
+    private final ProductStockService stockService;
+    private final MeterRegistry meterRegistry;
+    private final int chunkSize;
+    private final Duration leaseTtl;
+    private final boolean codesEnabled;
+    private final boolean cartsEnabled;
+    private final Duration cartRetention;
+    private final Duration inactiveCartRetention;
+
+    public ExpiryPurgeServiceImpl(
+            NamedParameterJdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            DatabaseLease lease,
+            ProductStockService stockService,
+            MeterRegistry meterRegistry,
+            @Value("${purge.chunk-size:1000}") int chunkSize,
+            @Value("${purge.lease-ttl-ms:600000}") long leaseTtlMs,
+            @Value("${purge.confirmation-codes.enabled:true}") boolean codesEnabled,
+            @Value("${purge.abandoned-carts.enabled:true}") boolean cartsEnabled,
+            @Value("${purge.abandoned-carts.retention-days:90}") long cartRetentionDays,
+            @Value("${purge.abandoned-carts.inactive-customer-retention-days:7}") long inactiveCartRetentionDays
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.lease = lease;
+        this.stockService = stockService;
+        this.meterRegistry = meterRegistry;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.leaseTtl = Duration.ofMillis(Math.max(1000, leaseTtlMs));
+        this.codesEnabled = codesEnabled;
+        this.cartsEnabled = cartsEnabled;
+        this.cartRetention = Duration.ofDays(Math.max(1, cartRetentionDays));
+        this.inactiveCartRetention = Duration.ofDays(Math.max(1, inactiveCartRetentionDays));
+    }
+
+    @Override
+    @Scheduled(
+            initialDelayString = "${purge.interval-ms:3600000}",
+            fixedDelayString = "${purge.interval-ms:3600000}"
+    )
+    public Map<String, Long> purge() {
+        if (!lease.tryAcquire(LEASE_NAME, leaseTtl)) {
+            return Map.of();
+        }
+
+        Map<String, Long> purged = new LinkedHashMap<>();
+
+        try {
+            if (codesEnabled) {
+                purged.put("confirmation-codes", runRule("confirmation-codes", this::purgeExpiredCodesChunk));
+            }
+
+            if (cartsEnabled) {
+                purged.put("abandoned-carts", runRule("abandoned-carts", this::purgeAbandonedCartsChunk));
+            }
+        } finally {
+            lease.release(LEASE_NAME);
+        }
+
+        return purged;
+    }
+
+    //Выполнять куски, пока очередная выборка не окажется неполной
+    private long runRule(String rule, Supplier<PurgedChunk> chunk) {
+        long startedAt = System.nanoTime();
+        long total = 0;
+
+        try {
+            while (true) {
+                PurgedChunk purged = transactionTemplate.execute(status -> chunk.get());
+                total += purged.rows();
+
+                //Размер выборки, а не число очищенных строк: иначе кусок, строки которого успели измениться
+                //между выборкой и блокировкой, остановил бы очистку до следующего запуска
+                if (purged.selected() < chunkSize) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            //Уже удалённые куски закоммичены, остальное доделает следующий запуск
+            logger.error("Purge rule {} failed after {} rows", rule, total, e);
+        }
+
+        long duration = System.nanoTime() - startedAt;
+        meterRegistry.counter("purge.rows", "rule", rule).increment(total);
+        meterRegistry.timer("purge.duration", "rule", rule).record(duration, TimeUnit.NANOSECONDS);
+
+        if (total > 0) {
+            logger.info("Purge rule {} removed {} rows in {} ms", rule, total, TimeUnit.NANOSECONDS.toMillis(duration));
+        }
+
+        return total;
+    }
+
+    private PurgedChunk purgeExpiredCodesChunk() {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("now", LocalDateTime.now())
+                .addValue("limit", chunkSize);
+        List<Long> ids = jdbcTemplate.queryForList(FIND_EXPIRED_CODES_SQL, params, Long.class);
+
+        if (ids.isEmpty()) {
+            return PurgedChunk.EMPTY;
+        }
+
+        return new PurgedChunk(ids.size(), jdbcTemplate.update(DELETE_CODES_SQL, new MapSqlParameterSource("ids", ids)));
+    }
+
+    private PurgedChunk purgeAbandonedCartsChunk() {
+        LocalDateTime now = LocalDateTime.now();
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("cutoff", Timestamp.valueOf(now.minus(cartRetention)))
+                .addValue("inactiveCutoff", Timestamp.valueOf(now.minus(inactiveCartRetention)))
+                .addValue("limit", chunkSize);
+        List<Long> cartIds = jdbcTemplate.queryForList(FIND_ABANDONED_CARTS_SQL, params, Long.class);
+
+        if (cartIds.isEmpty()) {
+            return PurgedChunk.EMPTY;
+        }
+
+        //Перепроверяем под блокировкой: корзину могли изменить между выборкой и удалением
+        params.addValue("cartIds", cartIds);
+        List<Long> locked = jdbcTemplate.queryForList(LOCK_ABANDONED_CARTS_SQL, params, Long.class);
+
+        if (!locked.isEmpty()) {
+            MapSqlParameterSource lockedParams = new MapSqlParameterSource("cartIds", locked);
+            Map<Long, Integer> releases = new TreeMap<>();
+
+            jdbcTemplate.query(FIND_POSITIONS_SQL, lockedParams, (RowCallbackHandler) rs ->
+                    releases.merge(rs.getLong("product_id"), -rs.getInt("quantity"), Integer::sum)
+            );
+
+            int positions = jdbcTemplate.update(DELETE_POSITIONS_SQL, lockedParams);
+            stockService.adjust(releases);
+            jdbcTemplate.update(RESET_CARTS_SQL, lockedParams);
+
+            logger.debug("Abandoned carts emptied: {} carts, {} positions", locked.size(), positions);
+        }
+
+        return new PurgedChunk(cartIds.size(), locked.size());
+    }
+
+    //selected - размер выборки куска, rows - сколько строк (кодов, корзин) действительно очищено
+    private record PurgedChunk(int selected, int rows) {
+
+        private static final PurgedChunk EMPTY = new PurgedChunk(0, 0);
+    }
+}
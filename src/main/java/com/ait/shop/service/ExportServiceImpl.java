@@ -0,0 +1,222 @@
+package com.ait.shop.service;
+
+import com.ait.shop.domain.Cart;
+import com.ait.shop.domain.Customer;
+import com.ait.shop.domain.Position;
+import com.ait.shop.domain.Product;
+import com.ait.shop.dto.export.ExportFormat;
+import com.ait.shop.dto.mapping.CustomerMapper;
+import com.ait.shop.dto.mapping.ProductMapper;
+import com.ait.shop.repository.CustomerRepository;
+import com.ait.shop.repository.ProductRepository;
+import com.ait.shop.service.interfaces.ExportService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+Потоковая выгрузка таблиц:
+    1. Строки читаются из БД через Stream с ограниченным fetch size
+    2. Каждая строка сразу пишется в ответ и отсоединяется от persistence context,
+    а каждые CLEAR_INTERVAL строк контекст очищается полностью. Покупатели в NDJSON пишутся кусками
+    по CLEAR_INTERVAL: позиции корзин куска читаются одним запросом, а не лениво для каждого покупателя
+    3. Поэтому потребление памяти не зависит от размера таблицы
+ */
+
+@Service
+public class ExportServiceImpl implements ExportService {
+
+    private static final int CLEAR_INTERVAL = 500;
+
+    private final Logger logger = LoggerFactory.getLogger(ExportServiceImpl.class);
+    private final ProductRepository productRepository;
+    private final CustomerRepository customerRepository;
+    private final ProductMapper productMapper;
+    private final CustomerMapper customerMapper;
+    private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+
+    public ExportServiceImpl(
+            ProductRepository productRepository,
+            CustomerRepository customerRepository,
+            ProductMapper productMapper,
+            CustomerMapper customerMapper,
+            ObjectMapper objectMapper,
+            EntityManager entityManager
+    ) {
+        this.productRepository = productRepository;
+        this.customerRepository = customerRepository;
+        this.productMapper = productMapper;
+        this.customerMapper = customerMapper;
+        this.objectMapper = objectMapper;
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    @Transactional
+    public void exportProducts(ExportFormat format, OutputStream outputStream) throws IOException {
+        Objects.requireNonNull(format, "Export format cannot be null");
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+
+        if (format == ExportFormat.CSV) {
+            writer.write("id,title,price,image_url\n");
+        }
+
+        long rows = 0;
+
+        try (Stream<Product> products = productRepository.streamAllActive()) {
+            Iterator<Product> iterator = products.iterator();
+
+            while (iterator.hasNext()) {
+                Product product = iterator.next();
+
+                if (format == ExportFormat.CSV) {
+                    writeCsvRow(writer, product.getId(), product.getTitle(), product.getPrice(), product.getImageUrl());
+                } else {
+                    writeJsonRow(writer, productMapper.mapEntityToDto(product));
+                }
+
+                releaseRow(product, ++rows);
+            }
+        }
+
+        writer.flush();
+        logger.info("Products exported as {}: {} rows", format, rows);
+    }
+
+    @Override
+    @Transactional
+    public void exportCustomers(ExportFormat format, OutputStream outputStream) throws IOException {
+        Objects.requireNonNull(format, "Export format cannot be null");
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+
+        if (format == ExportFormat.CSV) {
+            writer.write("id,name,image_url,cart_items,cart_total_cost\n");
+        }
+
+        long rows = 0;
+
+        try (Stream<Customer> customers = customerRepository.streamAllActive()) {
+            Iterator<Customer> iterator = customers.iterator();
+            List<Customer> chunk = new ArrayList<>(CLEAR_INTERVAL);
+
+            while (iterator.hasNext()) {
+                Customer customer = iterator.next();
+
+                if (format == ExportFormat.CSV) {
+                    int items = 0;
+                    BigDecimal totalCost = BigDecimal.ZERO;
+
+                    //Итоги корзины денормализованы в саму корзину - позиции для CSV не загружаются
+                    if (customer.getCart() != null) {
+                        items = customer.getCart().getItemCount();
+                        totalCost = customer.getCart().getTotalCost();
+                    }
+
+                    writeCsvRow(writer, customer.getId(), customer.getName(), customer.getImageUrl(), items, totalCost);
+                    releaseRow(customer, ++rows);
+                } else {
+                    chunk.add(customer);
+
+                    if (chunk.size() == CLEAR_INTERVAL) {
+                        rows += writeCustomersJson(writer, chunk);
+                    }
+                }
+            }
+
+            rows += writeCustomersJson(writer, chunk);
+        }
+
+        writer.flush();
+        logger.info("Customers exported as {}: {} rows", format, rows);
+    }
+
+    //JSON покупателя содержит позиции корзины. Ленивая загрузка шла бы отдельным запросом на каждого покупателя
+    //(строки отсоединяются сразу, @BatchSize не срабатывает), поэтому позиции всего куска читаются одним запросом
+    private int writeCustomersJson(Writer writer, List<Customer> chunk) throws IOException {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> cartIds = chunk.stream()
+                .map(Customer::getCart)
+                .filter(Objects::nonNull)
+                .map(Cart::getId)
+                .toList();
+        Map<Long, Set<Position>> positions = customerRepository.findPositionsWithProductsByCartIds(cartIds).stream()
+                .collect(Collectors.groupingBy(x -> x.getCart().getId(), Collectors.toSet()));
+
+        //Отсоединяем кусок до подмены коллекций: изменения отсоединённых сущностей в БД не попадут
+        entityManager.clear();
+
+        for (Customer customer : chunk) {
+            if (customer.getCart() != null) {
+                customer.getCart().setPositions(positions.getOrDefault(customer.getCart().getId(), new HashSet<>()));
+            }
+            writeJsonRow(writer, customerMapper.mapEntityToDto(customer));
+        }
+
+        int written = chunk.size();
+        chunk.clear();
+        return written;
+    }
+
+    private void releaseRow(Object entity, long rows) {
+        if (rows % CLEAR_INTERVAL == 0) {
+            entityManager.clear();
+        } else {
+            entityManager.detach(entity);
+        }
+    }
+
+    private void writeJsonRow(Writer writer, Object dto) throws IOException {
+        writer.write(objectMapper.writeValueAsString(dto));
+        writer.write('\n');
+    }
+
+    private void writeCsvRow(Writer writer, Object... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(escapeCsv(values[i]));
+        }
+        writer.write('\n');
+    }
+
+    private String escapeCsv(Object value) {
+        if (value == null) {
+            return "";
+        }
+
+        String text = value.toString();
+
+        if (text.contains(",") || text.contains("\"") || text.contains("\n") || text.contains("\r")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+
+        return text;
+    }
+}
@@ -0,0 +1,88 @@
+package com.ait.shop.service;
+
+import com.ait.shop.domain.Customer;
+import com.ait.shop.domain.CustomerOrder;
+import com.ait.shop.dto.mapping.OrderMapper;
+import com.ait.shop.dto.order.OrderDto;
+import com.ait.shop.dto.order.OrderPageDto;
+import com.ait.shop.exceptions.types.EntityNotFoundException;
+import com.ait.shop.repository.CustomerRepository;
+import com.ait.shop.repository.OrderRepository;
+import com.ait.shop.service.interfaces.ArchiveService;
+import com.ait.shop.service.interfaces.CartStore;
+import com.ait.shop.service.interfaces.OrderService;
+import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Objects;
+
+@Service
+public class OrderServiceImpl implements OrderService {
+
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(OrderServiceImpl.class);
+    private final OrderRepository repository;
+    private final CustomerRepository customerRepository;
+    private final OrderMapper mapper;
+    private final CartStore cartStore;
+    private final OrderWritePipeline pipeline;
+    private final ArchiveService archiveService;
+
+    public OrderServiceImpl(
+            OrderRepository repository,
+            CustomerRepository customerRepository,
+            OrderMapper mapper,
+            CartStore cartStore,
+            OrderWritePipeline pipeline,
+            ArchiveService archiveService
+    ) {
+        this.repository = repository;
+        this.customerRepository = customerRepository;
+        this.mapper = mapper;
+        this.cartStore = cartStore;
+        this.pipeline = pipeline;
+        this.archiveService = archiveService;
+    }
+
+    @Override
+    public OrderDto checkout(Long customerId) {
+        Objects.requireNonNull(customerId, "Customer id cannot be null");
+
+        OrderDto order = cartStore.checkout(customerId, cartId -> pipeline.submit(customerId, cartId));
+
+        logger.info("Order id {} created for customer id {}: {} items, total cost {}",
+                order.getId(), customerId, order.getItemsCount(), order.getTotalCost());
+
+        return order;
+    }
+
+    @Override
+    @Transactional
+    public OrderPageDto getCustomerOrders(Long customerId, Long before, int limit) {
+        Objects.requireNonNull(customerId, "Customer id cannot be null");
+
+        //История заказов остаётся доступной и у покупателя, перенесённого в архив
+        if (!customerRepository.existsById(customerId) && !archiveService.isCustomerArchived(customerId)) {
+            throw new EntityNotFoundException(Customer.class, customerId);
+        }
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        long beforeId = before == null ? Long.MAX_VALUE : before;
+
+        //Запрашиваем на одну запись больше, чтобы понять, есть ли следующая страница
+        List<CustomerOrder> rows = repository.findByCustomerIdAndIdLessThanOrderByIdDesc(
+                customerId, beforeId, Limit.of(pageSize + 1)
+        );
+
+        boolean hasNext = rows.size() > pageSize;
+        List<OrderDto> page = mapper.mapEntityListToDtoList(rows.subList(0, Math.min(pageSize, rows.size())));
+        Long nextCursor = hasNext ? page.get(page.size() - 1).getId() : null;
+
+        return new OrderPageDto(page, nextCursor);
+    }
+}
@@ -0,0 +1,380 @@
+package com.ait.shop.service;
+
+import com.ait.shop.dto.order.OrderDto;
+import com.ait.shop.dto.order.OrderLineDto;
+import com.ait.shop.exceptions.types.ConcurrentUpdateException;
+import com.ait.shop.exceptions.types.EntityUpdateException;
+import com.ait.shop.exceptions.types.ServiceOverloadedException;
+import com.ait.shop.service.interfaces.CartTotalsService;
+import com.ait.shop.service.interfaces.ProductStockService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+Запись заказов с групповым коммитом.
+    1. Оформление не пишет в БД само: запрос кладётся в очередь, и поток пайплайна забирает из неё
+    сразу всё накопившееся (до batch-size запросов, дожидаясь попутчиков не дольше max-wait-ms)
+    2. Вся пачка - одна транзакция: корзины блокируются одним SELECT ... FOR UPDATE, позиции всех корзин
+    читаются одним запросом, заказы, строки заказов и удаление позиций пишутся тремя JDBC batch.
+    Так сотня одновременных оформлений стоит одного коммита, а не сотни
+    3. Строка заказа - снимок текущих названия и цены активного продукта. Позиции с неактивными продуктами
+    остаются в корзине. Резерв остатка при оформлении не возвращается - он становится продажей.
+    Позиции, чей резерв истёк в заброшенной корзине, резервируются заново в той же транзакции:
+    если остатка уже не хватает, оформление получает OutOfStockException (409)
+    4. Пустая корзина отклоняет только свой запрос. Если падает вся транзакция, запросы пачки
+    повторяются по одному, чтобы ошибка одного оформления не отменяла чужие
+    5. Очередь ограничена queue-capacity: при переполнении - ServiceOverloadedException (503).
+    Запрос, не дождавшийся пачки за timeout-ms, убирается из очереди и тоже получает 503 - заказ точно не создан.
+    Запрос, который уже попал в пачку, дожидается её коммита или отката: иначе вызывающий
+    (CartStore.checkout) отпустил бы корзину, пока её оформление ещё может закоммититься
+    6. Метрики: order.pipeline.batch.size, order.pipeline.commit
+ */
+
+@Component
+public class OrderWritePipeline {
+
+    private static final String LOCK_CARTS_SQL = "select id from cart where id in (:cartIds) order by id for update";
+
+    private static final String FIND_POSITIONS_SQL = """
+            select po.cart_id, po.product_id, po.quantity, po.reserved, pr.title, pr.price
+            from position po
+            join product pr on pr.id = po.product_id
+            where po.cart_id in (:cartIds) and pr.active = true
+            order by po.cart_id, po.product_id
+            """;
+
+    //По одному значению последовательности на каждую строку - все id заказов пачки одним запросом
+    private static final String NEXT_ORDER_IDS_SQL = "select nextval('customer_order_seq') from cart where id in (:cartIds)";
+
+    private static final String INSERT_ORDER_SQL = """
+            insert into customer_order (id, customer_id, items_count, total_cost, created_at)
+            values (:id, :customerId, :itemsCount, :totalCost, :createdAt)
+            """;
+
+    private static final String INSERT_LINE_SQL = """
+            insert into order_line (order_id, product_id, title, price, quantity)
+            values (:orderId, :productId, :title, :price, :quantity)
+            """;
+
+    private static final String DELETE_POSITION_SQL = """
+            delete from position where cart_id = :cartId and product_id = :productId
+            """;
+
+    private static final String TOUCH_CARTS_SQL = """
+            update cart set version = version + 1, updated_at = current_timestamp where id in (:cartIds)
+            """;
+
+    private final Logger logger = LoggerFactory.getLogger(OrderWritePipeline.class);
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CartTotalsService cartTotalsService;
+    private final ProductStockService stockService;
+    private final BlockingQueue<CheckoutRequest> queue;
+    private final DistributionSummary batchSizes;
+    private final Timer commits;
+    private final int batchSize;
+    private final long maxWaitNanos;
+    private final long timeoutMs;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public OrderWritePipeline(
+            NamedParameterJdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            CartTotalsService cartTotalsService,
+            ProductStockService stockService,
+            MeterRegistry meterRegistry,
+            @Value("${order.pipeline.batch-size:100}") int batchSize,
+            @Value("${order.pipeline.max-wait-ms:2}") long maxWaitMs,
+            @Value("${order.pipeline.queue-capacity:10000}") int queueCapacity,
+            @Value("${order.pipeline.timeout-ms:5000}") long timeoutMs
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.cartTotalsService = cartTotalsService;
+        this.stockService = stockService;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        this.timeoutMs = Math.max(1, timeoutMs);
+
+        meterRegistry.gauge("order.pipeline.queue", queue, BlockingQueue::size);
+        batchSizes = meterRegistry.summary("order.pipeline.batch.size");
+        commits = meterRegistry.timer("order.pipeline.commit");
+
+        writer = new Thread(this::run, "order-write-pipeline");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //Оформить корзину и дождаться коммита пачки, в которую попал запрос
+    public OrderDto submit(Long customerId, Long cartId) {
+        CheckoutRequest request = new CheckoutRequest(customerId, cartId, new CompletableFuture<>());
+
+        if (!running || !queue.offer(request)) {
+            throw new ServiceOverloadedException("Too many checkouts in progress, please repeat the request later");
+        }
+
+        try {
+            return request.result().get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (TimeoutException e) {
+            if (queue.remove(request)) {
+                throw new ServiceOverloadedException("Checkout is taking too long, please repeat the request later");
+            }
+            return awaitBatch(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("Checkout was interrupted");
+        }
+    }
+
+    //Пачка уже пишется: её транзакция ограничена временем БД, а не timeout-ms
+    private OrderDto awaitBatch(CheckoutRequest request) {
+        try {
+            return request.result().get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("Checkout was interrupted, please check the order history");
+        }
+    }
+
+    private RuntimeException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+            return cause;
+        }
+        return new IllegalStateException("Checkout failed", e.getCause());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join(timeoutMs);
+
+        CheckoutRequest request;
+        while ((request = queue.poll()) != null) {
+            request.result().completeExceptionally(
+                    new ServiceOverloadedException("Application is shutting down, please repeat the request")
+            );
+        }
+    }
+
+    private void run() {
+        while (running) {
+            List<CheckoutRequest> batch;
+
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                batchSizes.record(batch.size());
+                commits.record(() -> process(batch));
+            } catch (RuntimeException e) {
+                //Запросы пачки ждут результата без таймаута - его нужно отдать в любом случае
+                logger.error("Order write pipeline iteration failed", e);
+                batch.forEach(request -> request.result().completeExceptionally(e));
+            }
+        }
+    }
+
+    private List<CheckoutRequest> nextBatch() throws InterruptedException {
+        List<CheckoutRequest> batch = new ArrayList<>();
+        batch.add(queue.take());
+        queue.drainTo(batch, batchSize - batch.size());
+
+        //Пока пишется предыдущая пачка, следующая копится в очереди сама.
+        //Ждём попутчиков, только если пачка маленькая, и не дольше max-wait-ms
+        long deadline = System.nanoTime() + maxWaitNanos;
+
+        while (batch.size() < batchSize) {
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                break;
+            }
+
+            CheckoutRequest next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+
+            if (next == null) {
+                break;
+            }
+
+            batch.add(next);
+            queue.drainTo(batch, batchSize - batch.size());
+        }
+
+        return batch;
+    }
+
+    private void process(List<CheckoutRequest> batch) {
+        Map<CheckoutRequest, Object> results;
+
+        try {
+            results = transactionTemplate.execute(status -> write(batch));
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).result().completeExceptionally(translate(e));
+                return;
+            }
+
+            logger.warn("Order batch of {} checkouts failed, retrying them one by one", batch.size(), e);
+            batch.forEach(request -> process(List.of(request)));
+            return;
+        }
+
+        results.forEach((request, result) -> {
+            if (result instanceof OrderDto order) {
+                request.result().complete(order);
+            } else {
+                request.result().completeExceptionally((RuntimeException) result);
+            }
+        });
+    }
+
+    private Map<CheckoutRequest, Object> write(List<CheckoutRequest> batch) {
+        List<Long> cartIds = batch.stream().map(CheckoutRequest::cartId).distinct().toList();
+        jdbcTemplate.queryForList(LOCK_CARTS_SQL, new MapSqlParameterSource("cartIds", cartIds), Long.class);
+
+        Map<Long, List<OrderLineDto>> linesByCart = new HashMap<>();
+        Map<Long, List<OrderLineDto>> unreservedByCart = new HashMap<>();
+        jdbcTemplate.query(FIND_POSITIONS_SQL, new MapSqlParameterSource("cartIds", cartIds), (RowCallbackHandler) rs -> {
+            OrderLineDto line = new OrderLineDto(
+                    rs.getLong("product_id"), rs.getString("title"), rs.getBigDecimal("price"), rs.getInt("quantity")
+            );
+            linesByCart.computeIfAbsent(rs.getLong("cart_id"), x -> new ArrayList<>()).add(line);
+
+            if (!rs.getBoolean("reserved")) {
+                unreservedByCart.computeIfAbsent(rs.getLong("cart_id"), x -> new ArrayList<>()).add(line);
+            }
+        });
+
+        LocalDateTime createdAt = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+        Map<CheckoutRequest, Object> results = new LinkedHashMap<>();
+        List<OrderDto> orders = new ArrayList<>();
+
+        for (CheckoutRequest request : batch) {
+            //remove: повторное оформление той же корзины в этой пачке увидит её уже пустой
+            List<OrderLineDto> lines = linesByCart.remove(request.cartId());
+
+            if (lines == null) {
+                results.put(request, new EntityUpdateException("Cart is empty or contains no active products"));
+                continue;
+            }
+
+            OrderDto order = new OrderDto();
+            order.setCustomerId(request.customerId());
+            order.setCreatedAt(createdAt);
+            order.setLines(lines);
+            order.setItemsCount(lines.stream().mapToInt(OrderLineDto::getQuantity).sum());
+            order.setTotalCost(lines.stream()
+                    .map(x -> x.getPrice().multiply(BigDecimal.valueOf(x.getQuantity())))
+                    .reduce(BigDecimal.ZERO, BigDecimal::add));
+
+            orders.add(order);
+            results.put(request, order);
+        }
+
+        if (orders.isEmpty()) {
+            return results;
+        }
+
+        List<Long> orderCartIds = results.entrySet().stream()
+                .filter(x -> x.getValue() instanceof OrderDto)
+                .map(x -> x.getKey().cartId())
+                .toList();
+
+        //Истёкшие резервы - одним пакетом на всю пачку, продукты блокируются по возрастанию id
+        Map<Long, Integer> reservations = new HashMap<>();
+        orderCartIds.stream()
+                .flatMap(cartId -> unreservedByCart.getOrDefault(cartId, List.of()).stream())
+                .forEach(line -> reservations.merge(line.getProductId(), line.getQuantity(), Integer::sum));
+        stockService.adjust(reservations);
+
+        List<Long> orderIds = jdbcTemplate.queryForList(
+                NEXT_ORDER_IDS_SQL, new MapSqlParameterSource("cartIds", orderCartIds), Long.class
+        );
+
+        List<MapSqlParameterSource> orderRows = new ArrayList<>();
+        List<MapSqlParameterSource> lineRows = new ArrayList<>();
+        List<MapSqlParameterSource> deletedPositions = new ArrayList<>();
+
+        for (int i = 0; i < orders.size(); i++) {
+            OrderDto order = orders.get(i);
+            Long cartId = orderCartIds.get(i);
+            order.setId(orderIds.get(i));
+
+            orderRows.add(new MapSqlParameterSource()
+                    .addValue("id", order.getId())
+                    .addValue("customerId", order.getCustomerId())
+                    .addValue("itemsCount", order.getItemsCount())
+                    .addValue("totalCost", order.getTotalCost())
+                    .addValue("createdAt", Timestamp.valueOf(createdAt)));
+
+            for (OrderLineDto line : order.getLines()) {
+                lineRows.add(new MapSqlParameterSource()
+                        .addValue("orderId", order.getId())
+                        .addValue("productId", line.getProductId())
+                        .addValue("title", line.getTitle())
+                        .addValue("price", line.getPrice())
+                        .addValue("quantity", line.getQuantity()));
+                deletedPositions.add(new MapSqlParameterSource()
+                        .addValue("cartId", cartId)
+                        .addValue("productId", line.getProductId()));
+            }
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_ORDER_SQL, orderRows.toArray(MapSqlParameterSource[]::new));
+        jdbcTemplate.batchUpdate(INSERT_LINE_SQL, lineRows.toArray(MapSqlParameterSource[]::new));
+        jdbcTemplate.batchUpdate(DELETE_POSITION_SQL, deletedPositions.toArray(MapSqlParameterSource[]::new));
+        jdbcTemplate.update(TOUCH_CARTS_SQL, new MapSqlParameterSource("cartIds", orderCartIds));
+        cartTotalsService.recalculate(orderCartIds);
+
+        return results;
+    }
+
+    private RuntimeException translate(RuntimeException e) {
+        if (e instanceof ConcurrencyFailureException) {
+            return new ConcurrentUpdateException("Checkout failed due to concurrent updates, please repeat the request", e);
+        }
+
+        return e;
+    }
+
+    private record CheckoutRequest(Long customerId, Long cartId, CompletableFuture<OrderDto> result) {
+    }
+}
@@ -0,0 +1,98 @@
+package com.ait.shop.service;
+
+import com.ait.shop.domain.Product;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Function;
+
+/*
+Кэш активных продуктов в памяти приложения.
+    1. Хранит не managed-сущности, а неизменяемые снимки, поэтому его безопасно читать из любых потоков
+    2. Вытеснение - W-TinyLFU (Caffeine): учитывает частоту обращений, а не только давность
+    3. Ограничен одновременно по количеству записей и по памяти: вес записи не меньше
+    maxBytes / maxEntries, поэтому сумма весов не даёт превысить ни один из лимитов
+    4. Инвалидируется мутирующими методами ProductServiceImpl после коммита транзакции - только на своём узле.
+    Поэтому запись живёт не дольше ttl-ms: изменённый или удалённый на другом узле продукт
+    перестаёт отдаваться из кэша не позже чем через ttl-ms
+    5. Счётчики попаданий/промахов/вытеснений публикуются в Micrometer как cache.* с тегом cache=products
+ */
+
+@Component
+public class ProductCache {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final Cache<Long, CachedProduct> cache;
+
+    public ProductCache(
+            @Value("${product.cache.max-entries:10000}") long maxEntries,
+            @Value("${product.cache.max-bytes:16777216}") long maxBytes,
+            @Value("${product.cache.ttl-ms:60000}") long ttlMs,
+            MeterRegistry meterRegistry
+    ) {
+        long minWeight = Math.max(1, maxBytes / Math.max(1, maxEntries));
+
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long id, CachedProduct product) -> (int) Math.min(
+                        Integer.MAX_VALUE, Math.max(minWeight, product.estimatedBytes())
+                ))
+                .expireAfterWrite(Duration.ofMillis(Math.max(0, ttlMs)))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "products");
+    }
+
+    //Вернуть снимок активного продукта, при промахе загрузив его через loader.
+    //Если loader вернул null (продукт не найден или неактивен) - ничего не кэшируем
+    public Optional<CachedProduct> get(Long id, Function<Long, Product> loader) {
+        return Optional.ofNullable(
+                cache.get(id, key -> {
+                    Product product = loader.apply(key);
+                    return product == null ? null : CachedProduct.of(product);
+                })
+        );
+    }
+
+    public void invalidate(Long id) {
+        cache.invalidate(id);
+    }
+
+    public void invalidateAll(Collection<Long> ids) {
+        cache.invalidateAll(ids);
+    }
+
+    public record CachedProduct(Long id, String title, BigDecimal price, String imageUrl) {
+
+        static CachedProduct of(Product product) {
+            return new CachedProduct(product.getId(), product.getTitle(), product.getPrice(), product.getImageUrl());
+        }
+
+        //Новый detached-экземпляр на каждый вызов: снимок в кэше никто не сможет изменить
+        public Product toEntity() {
+            Product product = new Product();
+            product.setId(id);
+            product.setTitle(title);
+            product.setPrice(price);
+            product.setImageUrl(imageUrl);
+            product.setActive(true);
+            return product;
+        }
+
+        long estimatedBytes() {
+            return ENTRY_OVERHEAD_BYTES
+                    + 2L * (title == null ? 0 : title.length())
+                    + 2L * (imageUrl == null ? 0 : imageUrl.length());
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.ait.shop.service;
+
+import com.ait.shop.domain.Product;
+import com.ait.shop.dto.mapping.ProductMapper;
+import com.ait.shop.dto.product.ProductImportErrorDto;
+import com.ait.shop.dto.product.ProductImportResultDto;
+import com.ait.shop.dto.product.ProductSaveDto;
+import com.ait.shop.exceptions.types.FileUploadException;
+import com.ait.shop.repository.ProductRepository;
+import com.ait.shop.service.interfaces.CatalogStatisticsService;
+import com.ait.shop.service.interfaces.ProductImportService;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+Массовый импорт продуктов:
+    1. Все строки валидируются параллельно теми же ограничениями, что и сущность Product
+    2. Дубликаты названий внутри импорта и уже существующие в БД названия попадают в отчёт об ошибках
+    3. Корректные строки пишутся кусками по chunk-size: каждый кусок - одна транзакция и один JDBC batch
+    4. После каждого куска в лог пишется прогресс и скорость в строках в секунду
+ */
+
+@Service
+public class ProductImportServiceImpl implements ProductImportService {
+
+    private static final String INSERT_SQL = "insert into product (title, price, active) values (?, ?, true)";
+    private static final int MAX_CHUNK_ATTEMPTS = 2;
+
+    private final Logger logger = LoggerFactory.getLogger(ProductImportServiceImpl.class);
+    private final ProductRepository repository;
+    private final ProductMapper mapper;
+    private final Validator validator;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CatalogStatisticsService statisticsService;
+    private final ProductSearchIndex searchIndex;
+    private final int chunkSize;
+
+    public ProductImportServiceImpl(
+            ProductRepository repository,
+            ProductMapper mapper,
+            Validator validator,
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            CatalogStatisticsService statisticsService,
+            ProductSearchIndex searchIndex,
+            @Value("${product.import.chunk-size:1000}") int chunkSize
+    ) {
+        this.repository = repository;
+        this.mapper = mapper;
+        this.validator = validator;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.statisticsService = statisticsService;
+        this.searchIndex = searchIndex;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    @Override
+    public ProductImportResultDto importProducts(List<ProductSaveDto> rows) {
+        Objects.requireNonNull(rows, "Imported rows cannot be null");
+
+        return importRows(rows, Map.of());
+    }
+
+    @Override
+    public ProductImportResultDto importProducts(MultipartFile csvFile) throws IOException {
+        Objects.requireNonNull(csvFile, "Multipart file cannot be null");
+
+        if (csvFile.isEmpty()) {
+            throw new FileUploadException("File is empty");
+        }
+
+        List<ProductSaveDto> rows = new ArrayList<>();
+        Map<Integer, String> parseErrors = new HashMap<>();
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(csvFile.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            boolean firstLine = true;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || (firstLine && line.replace(" ", "").equalsIgnoreCase("title,price"))) {
+                    firstLine = false;
+                    continue;
+                }
+                firstLine = false;
+
+                ProductSaveDto dto = new ProductSaveDto();
+                int separator = line.lastIndexOf(',');
+
+                if (separator < 0) {
+                    dto.setTitle(line.trim());
+                    parseErrors.put(rows.size(), "Row should contain title and price");
+                } else {
+                    dto.setTitle(unquote(line.substring(0, separator).trim()));
+
+                    try {
+                        dto.setPrice(new BigDecimal(line.substring(separator + 1).trim()));
+                    } catch (NumberFormatException e) {
+                        parseErrors.put(rows.size(), "Product price is not a number");
+                    }
+                }
+
+                rows.add(dto);
+            }
+        }
+
+        return importRows(rows, parseErrors);
+    }
+
+    private ProductImportResultDto importRows(List<ProductSaveDto> rows, Map<Integer, String> parseErrors) {
+        long startedAt = System.currentTimeMillis();
+
+        //1. Параллельная валидация: Validator потокобезопасен, строки независимы
+        List<ProductImportErrorDto> errors = IntStream.range(0, rows.size())
+                .parallel()
+                .mapToObj(i -> validateRow(i, rows.get(i), parseErrors.get(i)))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(ArrayList::new));
+
+        Set<Integer> invalidRows = new HashSet<>();
+        errors.forEach(x -> invalidRows.add(x.getRow() - 1));
+
+        //2. Дубликаты внутри самого импорта - побеждает первая строка
+        List<Integer> validRows = new ArrayList<>();
+        Set<String> seenTitles = new HashSet<>();
+
+        for (int i = 0; i < rows.size(); i++) {
+            if (invalidRows.contains(i)) {
+                continue;
+            }
+
+            String title = rows.get(i).getTitle();
+
+            if (seenTitles.add(title)) {
+                validRows.add(i);
+            } else {
+                errors.add(new ProductImportErrorDto(i + 1, title, List.of("Duplicate title in import: " + title)));
+            }
+        }
+
+        //3. Запись кусками
+        int imported = 0;
+
+        for (int from = 0; from < validRows.size(); from += chunkSize) {
+            List<Integer> chunk = validRows.subList(from, Math.min(from + chunkSize, validRows.size()));
+            imported += importChunk(rows, chunk, errors);
+
+            long elapsed = Math.max(1, System.currentTimeMillis() - startedAt);
+            logger.info("Product import progress: {}/{} rows processed, {} imported, {} rows/s",
+                    from + chunk.size(), validRows.size(), imported, imported * 1000L / elapsed);
+        }
+
+        errors.sort(Comparator.comparingInt(ProductImportErrorDto::getRow));
+        long duration = System.currentTimeMillis() - startedAt;
+
+        logger.info("Product import finished: {} rows, {} imported, {} errors in {} ms",
+                rows.size(), imported, errors.size(), duration);
+
+        return new ProductImportResultDto(rows.size(), imported, errors, duration);
+    }
+
+    private ProductImportErrorDto validateRow(int index, ProductSaveDto dto, String parseError) {
+        if (dto == null) {
+            return new ProductImportErrorDto(index + 1, null, List.of("Row cannot be empty"));
+        }
+
+        if (parseError != null) {
+            return new ProductImportErrorDto(index + 1, dto.getTitle(), List.of(parseError));
+        }
+
+        Product entity = mapper.mapDtoToEntity(dto);
+        Set<ConstraintViolation<Product>> violations = validator.validate(entity);
+
+        if (violations.isEmpty()) {
+            return null;
+        }
+
+        List<String> messages = violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .toList();
+
+        return new ProductImportErrorDto(index + 1, dto.getTitle(), messages);
+    }
+
+    private int importChunk(List<ProductSaveDto> rows, List<Integer> chunk, List<ProductImportErrorDto> errors) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ChunkResult result = transactionTemplate.execute(status -> insertChunk(rows, chunk));
+                errors.addAll(result.errors());
+                return result.imported();
+            } catch (DuplicateKeyException e) {
+                //Кто-то параллельно добавил продукт с тем же названием между проверкой и вставкой.
+                //Повторная попытка перепроверит названия и отсеет конфликтующие строки
+                if (attempt >= MAX_CHUNK_ATTEMPTS) {
+                    chunk.forEach(i -> errors.add(new ProductImportErrorDto(
+                            i + 1, rows.get(i).getTitle(), List.of("Chunk rejected due to concurrent duplicate titles")
+                    )));
+                    return 0;
+                }
+            }
+        }
+    }
+
+    private ChunkResult insertChunk(List<ProductSaveDto> rows, List<Integer> chunk) {
+        List<String> titles = chunk.stream()
+                .map(i -> rows.get(i).getTitle())
+                .toList();
+        Set<String> existingTitles = new HashSet<>(repository.findExistingTitles(titles));
+
+        List<ProductImportErrorDto> errors = new ArrayList<>();
+        List<ProductSaveDto> toInsert = new ArrayList<>();
+
+        for (Integer i : chunk) {
+            ProductSaveDto dto = rows.get(i);
+
+            if (existingTitles.contains(dto.getTitle())) {
+                errors.add(new ProductImportErrorDto(
+                        i + 1, dto.getTitle(), List.of("Product with title " + dto.getTitle() + " already exists")
+                ));
+            } else {
+                toInsert.add(dto);
+            }
+        }
+
+        if (toInsert.isEmpty()) {
+            return new ChunkResult(0, errors);
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_SQL, toInsert, toInsert.size(), (ps, dto) -> {
+            ps.setString(1, dto.getTitle());
+            ps.setBigDecimal(2, dto.getPrice());
+        });
+
+        //Статистика и поисковый индекс обновятся только после коммита куска
+        List<Product> inserted = repository.findAllByTitleIn(
+                toInsert.stream().map(ProductSaveDto::getTitle).toList()
+        );
+        inserted.forEach(x -> statisticsService.onProductActivated(x.getPrice()));
+        TransactionUtils.runAfterCommit(() -> inserted.forEach(searchIndex::put));
+
+        return new ChunkResult(toInsert.size(), errors);
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1).replace("\"\"", "\"");
+        }
+        return value;
+    }
+
+    private record ChunkResult(int imported, List<ProductImportErrorDto> errors) {
+    }
+}
@@ -0,0 +1,229 @@
+package com.ait.shop.service;
+
+import com.ait.shop.domain.Product;
+import com.ait.shop.dto.product.ProductRepriceDto;
+import com.ait.shop.dto.product.ProductRepriceOperation;
+import com.ait.shop.dto.product.ProductRepriceResultDto;
+import com.ait.shop.dto.product.ProductRepriceSelector;
+import com.ait.shop.exceptions.types.EntityUpdateException;
+import com.ait.shop.repository.ProductRepository;
+import com.ait.shop.service.interfaces.CartTotalsService;
+import com.ait.shop.service.interfaces.CatalogStatisticsService;
+import com.ait.shop.service.interfaces.ProductRepricingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Objects;
+
+/*
+Массовое изменение цен:
+    1. Продукты выбираются кусками по chunk-size через keyset по id - без OFFSET и без загрузки сущностей
+    2. Каждый кусок - одна транзакция и один UPDATE ... WHERE id IN (...), новая цена считается в самой БД
+    3. Условие UPDATE повторяет проверку @DecimalMin/@DecimalMax из Product: строки, у которых новая цена
+    вышла бы за пределы [0, 1000), не меняются и попадают в skipped
+    4. После коммита куска изменённые продукты вытесняются из кэша и переиндексируются,
+    итоги корзин с ними пересчитываются в фоне (CartTotalsService), в конце статистика каталога пересчитывается из БД
+ */
+
+@Service
+public class ProductRepricingServiceImpl implements ProductRepricingService {
+
+    private static final BigDecimal MIN_PRICE = new BigDecimal(Product.MIN_PRICE);
+    private static final BigDecimal MAX_PRICE = new BigDecimal(Product.MAX_PRICE);
+
+    private final Logger logger = LoggerFactory.getLogger(ProductRepricingServiceImpl.class);
+    private final ProductRepository repository;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CatalogStatisticsService statisticsService;
+    private final ProductCache productCache;
+    private final ProductSearchIndex searchIndex;
+    private final CartTotalsService cartTotalsService;
+    private final int chunkSize;
+
+    public ProductRepricingServiceImpl(
+            ProductRepository repository,
+            NamedParameterJdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            CatalogStatisticsService statisticsService,
+            ProductCache productCache,
+            ProductSearchIndex searchIndex,
+            CartTotalsService cartTotalsService,
+            @Value("${product.reprice.chunk-size:1000}") int chunkSize
+    ) {
+        this.repository = repository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.statisticsService = statisticsService;
+        this.productCache = productCache;
+        this.searchIndex = searchIndex;
+        this.cartTotalsService = cartTotalsService;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    @Override
+    public ProductRepriceResultDto reprice(ProductRepriceDto repriceDto) {
+        Objects.requireNonNull(repriceDto, "ProductRepriceDto cannot be null");
+        validate(repriceDto);
+
+        long startedAt = System.currentTimeMillis();
+        String selectSql = buildSelectSql(repriceDto.getSelector());
+        String updateSql = buildUpdateSql(repriceDto);
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("value", repriceDto.getValue())
+                .addValue("minPrice", repriceDto.getMinPrice())
+                .addValue("maxPrice", repriceDto.getMaxPrice())
+                .addValue("selectedIds", repriceDto.getIds())
+                .addValue("limit", chunkSize);
+
+        long matched = 0;
+        long updated = 0;
+        long afterId = 0;
+
+        while (true) {
+            params.addValue("afterId", afterId);
+            List<Long> ids = jdbcTemplate.queryForList(selectSql, params, Long.class);
+
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            afterId = ids.get(ids.size() - 1);
+            params.addValue("ids", ids);
+
+            Integer chunkUpdated = transactionTemplate.execute(status -> updateChunk(updateSql, params, ids));
+            matched += ids.size();
+            updated += chunkUpdated == null ? 0 : chunkUpdated;
+
+            logger.info("Product reprice progress: {} matched, {} updated", matched, updated);
+
+            if (ids.size() < chunkSize) {
+                break;
+            }
+        }
+
+        if (updated > 0) {
+            statisticsService.reconcile();
+        }
+
+        long duration = System.currentTimeMillis() - startedAt;
+        logger.info("Product reprice finished: {} in {} ms, {} matched, {} updated",
+                repriceDto, duration, matched, updated);
+
+        return new ProductRepriceResultDto(matched, updated, duration);
+    }
+
+    private int updateChunk(String updateSql, MapSqlParameterSource params, List<Long> ids) {
+        int updated = jdbcTemplate.update(updateSql, params);
+
+        if (updated > 0) {
+            //Перечитываем уже внутри транзакции, чтобы в индекс попали ровно записанные цены
+            List<Product> changed = repository.findAllById(ids);
+            TransactionUtils.runAfterCommit(() -> {
+                productCache.invalidateAll(ids);
+                changed.forEach(searchIndex::put);
+            });
+            cartTotalsService.onProductsChanged(ids);
+        }
+
+        return updated;
+    }
+
+    private void validate(ProductRepriceDto repriceDto) {
+        if (repriceDto.getSelector() == null) {
+            throw new EntityUpdateException("Reprice selector cannot be empty");
+        }
+
+        if (repriceDto.getOperation() == null) {
+            throw new EntityUpdateException("Reprice operation cannot be empty");
+        }
+
+        if (repriceDto.getValue() == null) {
+            throw new EntityUpdateException("Reprice value cannot be empty");
+        }
+
+        RoundingMode rounding = repriceDto.getRounding();
+
+        if (rounding != RoundingMode.HALF_UP && rounding != RoundingMode.DOWN && rounding != RoundingMode.UP) {
+            throw new EntityUpdateException("Reprice rounding should be HALF_UP, DOWN or UP");
+        }
+
+        switch (repriceDto.getSelector()) {
+            case IDS -> {
+                if (repriceDto.getIds() == null || repriceDto.getIds().isEmpty()) {
+                    throw new EntityUpdateException("Product ids cannot be empty");
+                }
+            }
+            case PRICE_RANGE -> {
+                if (repriceDto.getMinPrice() == null || repriceDto.getMaxPrice() == null
+                        || repriceDto.getMinPrice().compareTo(repriceDto.getMaxPrice()) > 0) {
+                    throw new EntityUpdateException("Price range is incorrect");
+                }
+            }
+            case ALL_ACTIVE -> {
+            }
+        }
+
+        BigDecimal value = repriceDto.getValue();
+
+        if (repriceDto.getOperation() == ProductRepriceOperation.SET
+                && (value.compareTo(MIN_PRICE) < 0 || value.compareTo(MAX_PRICE) >= 0)) {
+            throw new EntityUpdateException("Product price should be between " + MIN_PRICE + " and " + MAX_PRICE);
+        }
+
+        if (repriceDto.getOperation() == ProductRepriceOperation.PERCENT
+                && value.compareTo(BigDecimal.valueOf(-100)) < 0) {
+            throw new EntityUpdateException("Percentage change cannot be less than -100");
+        }
+    }
+
+    private static String buildSelectSql(ProductRepriceSelector selector) {
+        return "select id from product where active = true and id > :afterId"
+                + selectorCondition(selector)
+                + " order by id limit :limit";
+    }
+
+    private static String buildUpdateSql(ProductRepriceDto repriceDto) {
+        String newPrice = roundedPrice(repriceDto.getOperation(), repriceDto.getRounding());
+
+        //Выборка и изменение идут в разных транзакциях, поэтому условия селектора перепроверяются
+        return "update product set price = " + newPrice
+                + " where id in (:ids) and active = true"
+                + selectorCondition(repriceDto.getSelector())
+                + " and " + newPrice + " >= " + MIN_PRICE
+                + " and " + newPrice + " < " + MAX_PRICE;
+    }
+
+    private static String selectorCondition(ProductRepriceSelector selector) {
+        return switch (selector) {
+            case IDS -> " and id in (:selectedIds)";
+            case PRICE_RANGE -> " and price between :minPrice and :maxPrice";
+            case ALL_ACTIVE -> "";
+        };
+    }
+
+    //Цена хранится как decimal(7,2), поэтому округляем до копеек явно, а не полагаемся на приведение типа в БД.
+    //Цены неотрицательные, поэтому DOWN/UP совпадают с floor/ceil
+    private static String roundedPrice(ProductRepriceOperation operation, RoundingMode rounding) {
+        String raw = switch (operation) {
+            case SET -> "cast(:value as decimal(9,4))";
+            case PERCENT -> "(price * (100 + :value) / 100)";
+            case DELTA -> "(price + :value)";
+        };
+
+        return switch (rounding) {
+            case DOWN -> "(floor(" + raw + " * 100) / 100)";
+            case UP -> "(ceil(" + raw + " * 100) / 100)";
+            default -> "round(" + raw + ", 2)";
+        };
+    }
+}
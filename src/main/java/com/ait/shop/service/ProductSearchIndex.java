@@ -0,0 +1,81 @@
+package com.ait.shop.service;
+
+import com.ait.shop.domain.Product;
+import com.ait.shop.repository.ProductRepository;
+import com.ait.shop.service.ProductCache.CachedProduct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+//Поисковый индекс по названиям активных продуктов.
+//Строится при старте из ProductRepository и поддерживается ProductServiceImpl после коммитов
+@Component
+public class ProductSearchIndex {
+
+    private static final int BUILD_CHUNK_SIZE = 5000;
+    private static final BigDecimal MIN_PRICE = new BigDecimal(Product.MIN_PRICE);
+    private static final BigDecimal MAX_PRICE = new BigDecimal(Product.MAX_PRICE);
+
+    private final Logger logger = LoggerFactory.getLogger(ProductSearchIndex.class);
+    private final ProductRepository repository;
+    private final TextSearchIndex<CachedProduct> index;
+
+    public ProductSearchIndex(
+            ProductRepository repository,
+            @Value("${product.search.max-candidates:5000}") int maxCandidates
+    ) {
+        this.repository = repository;
+        this.index = new TextSearchIndex<>(maxCandidates);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        long startedAt = System.currentTimeMillis();
+        long afterId = 0;
+        List<Product> chunk;
+
+        //Читаем каталог кусками по keyset-курсору, чтобы не держать в памяти все сущности сразу.
+        //Куски грузятся через load: изменения, пришедшие после коммитов во время сборки, не перетираются
+        index.beginLoad();
+        try {
+            do {
+                chunk = repository.findActivePageOrderById(
+                        afterId, MIN_PRICE, MAX_PRICE, Limit.of(BUILD_CHUNK_SIZE)
+                );
+                chunk.forEach(x -> index.load(x.getId(), x.getTitle(), CachedProduct.of(x)));
+
+                if (!chunk.isEmpty()) {
+                    afterId = chunk.get(chunk.size() - 1).getId();
+                }
+            } while (chunk.size() == BUILD_CHUNK_SIZE);
+        } finally {
+            index.endLoad();
+        }
+
+        logger.info("Product search index built: {} titles in {} ms",
+                index.size(), System.currentTimeMillis() - startedAt);
+    }
+
+    public void put(Product product) {
+        if (product.isActive()) {
+            index.put(product.getId(), product.getTitle(), CachedProduct.of(product));
+        } else {
+            index.remove(product.getId());
+        }
+    }
+
+    public void remove(Long id) {
+        index.remove(id);
+    }
+
+    public List<CachedProduct> search(String query, int page, int size) {
+        return index.search(query, page * size, size);
+    }
+}
@@ -3,23 +3,36 @@ package com.ait.shop.service;
 import com.ait.shop.domain.Product;
 import com.ait.shop.dto.mapping.ProductMapper;
 import com.ait.shop.dto.product.ProductDto;
+import com.ait.shop.dto.product.ProductPageDto;
 import com.ait.shop.dto.product.ProductSaveDto;
+import com.ait.shop.dto.product.ProductSortField;
 import com.ait.shop.dto.product.ProductUpdateDto;
 import com.ait.shop.exceptions.types.EntityNotFoundException;
+import com.ait.shop.exceptions.types.EntityUpdateException;
 import com.ait.shop.repository.ProductRepository;
+import com.ait.shop.service.interfaces.ArchiveService;
+import com.ait.shop.service.interfaces.CartTotalsService;
+import com.ait.shop.service.interfaces.CatalogStatisticsService;
 import com.ait.shop.service.interfaces.FileService;
 import com.ait.shop.service.interfaces.ProductService;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 
 /*
 Что происходит при старте приложения:
@@ -39,15 +52,38 @@ import java.util.Objects;
 @Service
 public class ProductServiceImpl implements ProductService {
 
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final BigDecimal MIN_PRICE = new BigDecimal(Product.MIN_PRICE);
+    private static final BigDecimal MAX_PRICE = new BigDecimal(Product.MAX_PRICE);
+
     private final Logger logger = LoggerFactory.getLogger(ProductServiceImpl.class);
     private final ProductRepository repository;
     private final ProductMapper mapper;
     private final FileService fileService;
+    private final CatalogStatisticsService statisticsService;
+    private final ProductCache productCache;
+    private final ProductSearchIndex searchIndex;
+    private final CartTotalsService cartTotalsService;
+    private final ArchiveService archiveService;
 
-    public ProductServiceImpl(ProductRepository repository, ProductMapper mapper, FileService fileService) {
+    public ProductServiceImpl(
+            ProductRepository repository,
+            ProductMapper mapper,
+            FileService fileService,
+            CatalogStatisticsService statisticsService,
+            ProductCache productCache,
+            ProductSearchIndex searchIndex,
+            CartTotalsService cartTotalsService,
+            ArchiveService archiveService
+    ) {
         this.repository = repository;
         this.mapper = mapper;
         this.fileService = fileService;
+        this.statisticsService = statisticsService;
+        this.productCache = productCache;
+        this.searchIndex = searchIndex;
+        this.cartTotalsService = cartTotalsService;
+        this.archiveService = archiveService;
     }
 
     @Override
@@ -57,6 +93,8 @@ public class ProductServiceImpl implements ProductService {
         Product entity = mapper.mapDtoToEntity(saveDto);
         entity.setActive(true);
         repository.save(entity);
+        statisticsService.onProductActivated(entity.getPrice());
+        onProductChanged(entity);
 
         //Не всегда стоит логгировать объект целиком, т.к. он может быть очень большим
         //Или этот объект может содержать секреты. Иногда стоит логгировать только определенные параметры
@@ -74,6 +112,99 @@ public class ProductServiceImpl implements ProductService {
                 .toList();
     }
 
+    @Override
+    public ProductPageDto getActiveProductsPage(String after, int limit, ProductSortField sort,
+                                                BigDecimal minPrice, BigDecimal maxPrice) {
+        Objects.requireNonNull(sort, "Product sort field cannot be null");
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        BigDecimal lowerPrice = minPrice == null ? MIN_PRICE : minPrice;
+        BigDecimal upperPrice = maxPrice == null ? MAX_PRICE : maxPrice;
+        PageCursor cursor = after == null ? null : PageCursor.decode(after, sort);
+        long afterId = cursor == null ? 0 : cursor.id();
+
+        //Запрашиваем на одну запись больше, чтобы понять, есть ли следующая страница
+        Limit fetchLimit = Limit.of(pageSize + 1);
+
+        List<Product> products = switch (sort) {
+            case ID -> repository.findActivePageOrderById(afterId, lowerPrice, upperPrice, fetchLimit);
+            case PRICE -> {
+                BigDecimal afterPrice = cursor == null ? BigDecimal.ONE.negate() : new BigDecimal(cursor.sortKey());
+                yield repository.findActivePageOrderByPrice(afterPrice, afterId, lowerPrice, upperPrice, fetchLimit);
+            }
+            case TITLE -> {
+                String afterTitle = cursor == null ? "" : cursor.sortKey();
+                yield repository.findActivePageOrderByTitle(afterTitle, afterId, lowerPrice, upperPrice, fetchLimit);
+            }
+        };
+
+        boolean hasNext = products.size() > pageSize;
+        List<Product> pageEntities = products.subList(0, Math.min(pageSize, products.size()));
+        List<ProductDto> page = pageEntities.stream()
+                .map(mapper::mapEntityToDto)
+                .toList();
+        String nextCursor = hasNext ? PageCursor.of(pageEntities.get(pageEntities.size() - 1), sort).encode() : null;
+
+        return new ProductPageDto(page, nextCursor);
+    }
+
+    /*
+    Курсор keyset-страницы сам несёт значение ключа сортировки последнего продукта, а не только его id:
+    строку по курсору не нужно читать, поэтому продукт, удалённый из таблицы во время листания,
+    не ломает следующую страницу. Формат - Base64url от "SORT:id:ключ"
+     */
+    private record PageCursor(ProductSortField sort, long id, String sortKey) {
+
+        static PageCursor of(Product product, ProductSortField sort) {
+            String sortKey = switch (sort) {
+                case ID -> "";
+                case PRICE -> product.getPrice().toPlainString();
+                case TITLE -> product.getTitle();
+            };
+
+            return new PageCursor(sort, product.getId(), sortKey);
+        }
+
+        static PageCursor decode(String value, ProductSortField expectedSort) {
+            try {
+                String decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+                String[] parts = decoded.split(":", 3);
+
+                if (parts.length == 3 && ProductSortField.valueOf(parts[0]) == expectedSort) {
+                    PageCursor cursor = new PageCursor(expectedSort, Long.parseLong(parts[1]), parts[2]);
+
+                    if (expectedSort == ProductSortField.PRICE) {
+                        new BigDecimal(cursor.sortKey());
+                    }
+
+                    return cursor;
+                }
+            } catch (IllegalArgumentException e) {
+                //Ниже - общий ответ для любого испорченного курсора
+            }
+
+            throw new EntityUpdateException("Page cursor is not valid for sort " + expectedSort);
+        }
+
+        String encode() {
+            String value = sort.name() + ':' + id + ':' + sortKey;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public List<ProductDto> searchActiveProducts(String query, int page, int size) {
+        Objects.requireNonNull(query, "Search query cannot be null");
+
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        int pageNumber = Math.max(0, Math.min(page, Integer.MAX_VALUE / pageSize));
+
+        return searchIndex.search(query, pageNumber, pageSize)
+                .stream()
+                .map(x -> mapper.mapEntityToDto(x.toEntity()))
+                .toList();
+    }
+
     @Override
     public ProductDto getActiveProductById(Long id) {
         Product product = getActiveEntityById(id);
@@ -81,27 +212,69 @@ public class ProductServiceImpl implements ProductService {
         return mapper.mapEntityToDto(product);
     }
 
+    @Override
+    public List<Product> getActiveEntitiesByIds(Collection<Long> ids) {
+        Objects.requireNonNull(ids, "Product ids cannot be null");
+
+        Set<Long> uniqueIds = new HashSet<>(ids);
+        List<Product> products = repository.findAllByIdInAndActiveTrue(uniqueIds);
+
+        if (products.size() < uniqueIds.size()) {
+            products.forEach(x -> uniqueIds.remove(x.getId()));
+            throw new EntityNotFoundException(Product.class, uniqueIds.iterator().next());
+        }
+
+        return products;
+    }
+
+    //Возвращает detached-копию из кэша: подходит для чтения и для ссылок на продукт,
+    //но изменения в ней не попадут в БД
     @Override
     public Product getActiveEntityById(Long id) {
         Objects.requireNonNull(id, "Product id cannot be null");
 
+        return productCache.get(id, key -> repository.findByIdAndActiveTrue(key).orElse(null))
+                .orElseThrow(
+                        () -> new EntityNotFoundException(Product.class, id)
+                )
+                .toEntity();
+    }
+
+    //Для изменений внутри транзакции нужна managed-сущность из БД, а не копия из кэша
+    private Product getActiveManagedEntityById(Long id) {
         return repository.findByIdAndActiveTrue(id)
                 .orElseThrow(
                         () -> new EntityNotFoundException(Product.class, id)
                 );
     }
 
+    //После коммита сбрасываем продукт из кэша и обновляем поисковый индекс
+    private void onProductChanged(Product product) {
+        TransactionUtils.runAfterCommit(() -> {
+            productCache.invalidate(product.getId());
+            searchIndex.put(product);
+        });
+    }
+
     @Override
     @Transactional
     public void update(Long id, ProductUpdateDto updateDto) {
         Objects.requireNonNull(id, "Product id cannot be null");
         Objects.requireNonNull(updateDto, "ProductUpdateDto cannot be null");
 
-        repository.findById(id)
+        Product product = repository.findById(id)
                 .orElseThrow(
                         () -> new EntityNotFoundException(Product.class, id)
-                )
-                .setPrice(updateDto.getNewPrice());
+                );
+        BigDecimal oldPrice = product.getPrice();
+        product.setPrice(updateDto.getNewPrice());
+
+        if (product.isActive()) {
+            statisticsService.onPriceChanged(oldPrice, updateDto.getNewPrice());
+        }
+
+        onProductChanged(product);
+        cartTotalsService.onProductsChanged(List.of(id));
 
         logger.info("Product id {} updated. New price: {}", id, updateDto.getNewPrice());
     }
@@ -111,7 +284,13 @@ public class ProductServiceImpl implements ProductService {
     public void deleteById(Long id) {
         Objects.requireNonNull(id, "Product id cannot be null");
 
-        getActiveEntityById(id).setActive(false);
+        Product product = getActiveManagedEntityById(id);
+        product.setActive(false);
+        product.setDeactivatedAt(LocalDateTime.now());
+        statisticsService.onProductDeactivated(product.getPrice());
+        onProductChanged(product);
+        cartTotalsService.onProductsChanged(List.of(id));
+
         logger.info("Product id {} marked as inactive", id);
     }
 
@@ -120,40 +299,34 @@ public class ProductServiceImpl implements ProductService {
     public void restoreById(Long id) {
         Objects.requireNonNull(id, "Product id cannot be null");
 
-        repository.findById(id)
-                .orElseThrow(() -> new EntityNotFoundException(Product.class, id))
-                .setActive(true);
+        Product product = repository.findById(id)
+                .or(() -> archiveService.restoreProduct(id) ? repository.findById(id) : Optional.empty())
+                .orElseThrow(() -> new EntityNotFoundException(Product.class, id));
+
+        if (!product.isActive()) {
+            product.setActive(true);
+            product.setDeactivatedAt(null);
+            statisticsService.onProductActivated(product.getPrice());
+            onProductChanged(product);
+            cartTotalsService.onProductsChanged(List.of(id));
+        }
 
         logger.info("Product id {} marked as active", id);
     }
 
     @Override
     public long getAllActiveProductsCount() {
-        return repository.countByActiveTrue();
+        return statisticsService.getActiveCount();
     }
 
     @Override
     public BigDecimal getAllActiveProductsTotalCost() {
-        return repository.findAllByActiveTrue()
-                .stream()
-                .map(Product::getPrice)
-                .reduce(BigDecimal::add)
-                .orElse(BigDecimal.ZERO);
+        return statisticsService.getTotalCost();
     }
 
     @Override
     public BigDecimal getAllActiveProductsAveragePrice() {
-        long productsCount = getAllActiveProductsCount();
-
-        if (productsCount == 0) {
-            return BigDecimal.ZERO;
-        }
-
-        return getAllActiveProductsTotalCost().divide(
-                BigDecimal.valueOf(productsCount),
-                2,
-                RoundingMode.HALF_UP
-        );
+        return statisticsService.getAveragePrice();
     }
 
     @Override
@@ -161,8 +334,9 @@ public class ProductServiceImpl implements ProductService {
     public void addImage(Long id, MultipartFile image) throws IOException {
         Objects.requireNonNull(id, "Product id cannot be null");
 
-        Product product = getActiveEntityById(id);
+        Product product = getActiveManagedEntityById(id);
         String imageUrl = fileService.uploadAndGetUrl(image);
         product.setImageUrl(imageUrl);
+        onProductChanged(product);
     }
 }
@@ -0,0 +1,500 @@
+package com.ait.shop.service;
+
+import com.ait.shop.domain.Product;
+import com.ait.shop.dto.product.ProductStockDto;
+import com.ait.shop.exceptions.types.EntityNotFoundException;
+import com.ait.shop.exceptions.types.EntityUpdateException;
+import com.ait.shop.exceptions.types.OutOfStockException;
+import com.ait.shop.repository.ProductRepository;
+import com.ait.shop.service.interfaces.ProductStockService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+Остатки продуктов и их резервирование корзинами.
+    1. Остаток продукта разбит на slots строк таблицы product_stock (product_id, slot, quantity).
+    Резерв - условный декремент одной случайной строки, поэтому параллельные резервы горячего продукта
+    блокируют разные строки, а не выстраиваются в очередь за одной
+    2. Если в выбранной строке не хватает количества, блокируются все строки продукта по порядку slot
+    и резерв собирается из нескольких. Не хватает и в сумме - OutOfStockException (409), транзакция
+    корзины откатывается вместе с резервом
+    3. Возврат в остаток - инкремент одной случайной строки
+    4. Нет строк в product_stock - остаток не отслеживается, резервы для такого продукта ничего не делают
+    5. Резерв держит сама позиция корзины. Корзины, которые не менялись reservation-ttl-minutes,
+    считаются заброшенными: раз в release-interval-ms резерв их позиций с отслеживаемыми продуктами истекает -
+    количество возвращается в остаток, позиция помечается reserved = false, но остаётся в корзине.
+    Покупатель не теряет корзину: следующее изменение позиции или оформление резервирует её заново,
+    а если остатка уже нет - получает OutOfStockException. В кластере это делает один узел - под арендой stock-release.
+    Сами позиции давно заброшенных корзин удаляет ExpiryPurgeService (правило abandoned-carts)
+    6. Write-behind корзины резервируют остаток раньше, чем позиция попадёт в БД. Такой резерв пишется
+    в журнал cart_reservation в одной транзакции с резервом и закрывается в транзакции записи позиций.
+    Если узел упал или позиции ушли в dead-letter, запись журнала остаётся незакрытой -
+    тот же запуск stock-release через reservation-ttl-minutes возвращает её количество в остаток
+ */
+
+@Service
+public class ProductStockServiceImpl implements ProductStockService {
+
+    private static final String RELEASE_LEASE_NAME = "stock-release";
+
+    private static final String RESERVE_SLOT_SQL = """
+            update product_stock set quantity = quantity - :quantity
+            where product_id = :productId and slot = :slot and quantity >= :quantity
+            """;
+
+    private static final String LOCK_SLOTS_SQL = """
+            select slot, quantity from product_stock where product_id = :productId order by slot for update
+            """;
+
+    private static final String SET_SLOT_SQL = """
+            update product_stock set quantity = :quantity where product_id = :productId and slot = :slot
+            """;
+
+    private static final String RELEASE_SLOT_SQL = """
+            update product_stock set quantity = quantity + :quantity where product_id = :productId and slot = :slot
+            """;
+
+    private static final String RELEASE_FIRST_SLOT_SQL = """
+            update product_stock set quantity = quantity + :quantity
+            where product_id = :productId
+              and slot = (select min(ps.slot) from product_stock ps where ps.product_id = :productId)
+            """;
+
+    private static final String SUM_STOCK_SQL = """
+            select count(*) as slots, coalesce(sum(quantity), 0) as stock from product_stock where product_id = :productId
+            """;
+
+    private static final String DELETE_STOCK_SQL = "delete from product_stock where product_id = :productId";
+
+    private static final String INSERT_SLOT_SQL = """
+            insert into product_stock (product_id, slot, quantity) values (:productId, :slot, :quantity)
+            """;
+
+    private static final String FIND_ABANDONED_CARTS_SQL = """
+            select c.id from cart c
+            where c.updated_at < :cutoff
+              and exists (select 1 from position po
+                          join product_stock ps on ps.product_id = po.product_id and ps.slot = 0
+                          where po.cart_id = c.id and po.reserved = true)
+            order by c.id
+            limit :limit
+            """;
+
+    private static final String LOCK_ABANDONED_CARTS_SQL = """
+            select id from cart where id in (:cartIds) and updated_at < :cutoff for update
+            """;
+
+    private static final String FIND_RESERVED_POSITIONS_SQL = """
+            select po.product_id, po.quantity from position po
+            where po.cart_id in (:cartIds) and po.reserved = true
+              and exists (select 1 from product_stock ps where ps.product_id = po.product_id)
+            """;
+
+    //version увеличивается: пакет операций, прочитавший позицию до истечения резерва, должен повториться
+    private static final String EXPIRE_RESERVED_POSITIONS_SQL = """
+            update position set reserved = false, version = version + 1
+            where cart_id in (:cartIds) and reserved = true
+              and exists (select 1 from product_stock ps where ps.product_id = position.product_id)
+            """;
+
+    private static final String ADD_LEDGER_SQL = """
+            update cart_reservation set quantity = quantity + :quantity, updated_at = current_timestamp
+            where cart_id = :cartId and product_id = :productId
+            """;
+
+    private static final String INSERT_LEDGER_SQL = """
+            insert into cart_reservation (cart_id, product_id, quantity, updated_at)
+            values (:cartId, :productId, :quantity, current_timestamp)
+            """;
+
+    private static final String SETTLE_LEDGER_SQL = """
+            update cart_reservation set quantity = quantity - :quantity
+            where cart_id = :cartId and product_id = :productId and quantity >= :quantity
+            """;
+
+    private static final String DELETE_SETTLED_LEDGER_SQL = """
+            delete from cart_reservation where cart_id = :cartId and product_id = :productId and quantity = 0
+            """;
+
+    private static final String LOCK_EXPIRED_LEDGER_SQL = """
+            select cart_id, product_id, quantity from cart_reservation
+            where updated_at < :cutoff
+            order by cart_id, product_id
+            limit :limit
+            for update
+            """;
+
+    private static final String DELETE_LEDGER_SQL = """
+            delete from cart_reservation where cart_id = :cartId and product_id = :productId
+            """;
+
+    private final Logger logger = LoggerFactory.getLogger(ProductStockServiceImpl.class);
+    private final ProductRepository productRepository;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DatabaseLease lease;
+    private final Counter rejectedReservations;
+    private final Counter releasedPositions;
+    private final Counter reclaimedReservations;
+    private final int slots;
+    private final Duration reservationTtl;
+    private final int releaseBatchSize;
+    private final Duration releaseLeaseTtl;
+
+    public ProductStockServiceImpl(
+            ProductRepository productRepository,
+            NamedParameterJdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            DatabaseLease lease,
+            MeterRegistry meterRegistry,
+            @Value("${product.stock.slots:16}") int slots,
+            @Value("${product.stock.reservation-ttl-minutes:30}") long reservationTtlMinutes,
+            @Value("${product.stock.release-batch-size:500}") int releaseBatchSize,
+            @Value("${product.stock.release-lease-ttl-ms:300000}") long releaseLeaseTtlMs
+    ) {
+        this.productRepository = productRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.lease = lease;
+        this.rejectedReservations = meterRegistry.counter("product.stock.reservations.rejected");
+        this.releasedPositions = meterRegistry.counter("product.stock.abandoned.released.positions");
+        this.reclaimedReservations = meterRegistry.counter("product.stock.cart_reservations.reclaimed");
+        this.slots = Math.max(1, slots);
+        this.reservationTtl = Duration.ofMinutes(Math.max(1, reservationTtlMinutes));
+        this.releaseBatchSize = Math.max(1, releaseBatchSize);
+        this.releaseLeaseTtl = Duration.ofMillis(Math.max(1000, releaseLeaseTtlMs));
+    }
+
+    @Override
+    public ProductStockDto getStock(Long productId) {
+        Objects.requireNonNull(productId, "Product id cannot be null");
+        checkProductExists(productId);
+
+        return new ProductStockDto(productId, findStock(productId));
+    }
+
+    @Override
+    @Transactional
+    public ProductStockDto setStock(Long productId, Integer stock) {
+        Objects.requireNonNull(productId, "Product id cannot be null");
+        checkProductExists(productId);
+
+        if (stock != null && stock < 0) {
+            throw new EntityUpdateException("Product stock cannot be negative");
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource("productId", productId);
+        jdbcTemplate.update(DELETE_STOCK_SQL, params);
+
+        if (stock != null) {
+            //Остаток делится между строками поровну, остаток от деления - в первые строки
+            MapSqlParameterSource[] rows = new MapSqlParameterSource[slots];
+
+            for (int slot = 0; slot < slots; slot++) {
+                rows[slot] = new MapSqlParameterSource()
+                        .addValue("productId", productId)
+                        .addValue("slot", slot)
+                        .addValue("quantity", stock / slots + (slot < stock % slots ? 1 : 0));
+            }
+            jdbcTemplate.batchUpdate(INSERT_SLOT_SQL, rows);
+        }
+
+        logger.info("Product id {} stock set to {}", productId, stock);
+
+        return new ProductStockDto(productId, stock);
+    }
+
+    @Override
+    @Transactional
+    public void reserve(Long productId, int quantity) {
+        if (quantity <= 0) {
+            return;
+        }
+
+        MapSqlParameterSource params = slotParams(productId, quantity);
+
+        if (jdbcTemplate.update(RESERVE_SLOT_SQL, params) > 0) {
+            return;
+        }
+
+        //В случайной строке не хватило - собираем резерв из всех строк продукта
+        Map<Integer, Integer> stock = new TreeMap<>();
+        jdbcTemplate.query(LOCK_SLOTS_SQL, params, (RowCallbackHandler) rs ->
+                stock.put(rs.getInt("slot"), rs.getInt("quantity"))
+        );
+
+        if (stock.isEmpty()) {
+            return;
+        }
+
+        int available = stock.values().stream().mapToInt(Integer::intValue).sum();
+
+        if (available < quantity) {
+            rejectedReservations.increment();
+            throw new OutOfStockException(productId, quantity, available);
+        }
+
+        List<MapSqlParameterSource> updates = new ArrayList<>();
+        int remaining = quantity;
+
+        for (Map.Entry<Integer, Integer> slot : stock.entrySet()) {
+            if (remaining == 0) {
+                break;
+            }
+
+            int taken = Math.min(remaining, slot.getValue());
+
+            if (taken > 0) {
+                remaining -= taken;
+                updates.add(new MapSqlParameterSource()
+                        .addValue("productId", productId)
+                        .addValue("slot", slot.getKey())
+                        .addValue("quantity", slot.getValue() - taken));
+            }
+        }
+
+        jdbcTemplate.batchUpdate(SET_SLOT_SQL, updates.toArray(MapSqlParameterSource[]::new));
+    }
+
+    @Override
+    @Transactional
+    public void release(Long productId, int quantity) {
+        if (quantity <= 0) {
+            return;
+        }
+
+        MapSqlParameterSource params = slotParams(productId, quantity);
+
+        //Случайной строки может не быть, если число строк меняли настройкой slots
+        if (jdbcTemplate.update(RELEASE_SLOT_SQL, params) == 0) {
+            jdbcTemplate.update(RELEASE_FIRST_SLOT_SQL, params);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void adjust(Map<Long, Integer> deltas) {
+        //Продукты по возрастанию id - параллельные пакеты блокируют строки остатков в одном порядке
+        new TreeMap<>(deltas).forEach((productId, delta) -> {
+            if (delta > 0) {
+                reserve(productId, delta);
+            } else if (delta < 0) {
+                release(productId, -delta);
+            }
+        });
+    }
+
+    @Override
+    @Transactional
+    public void reserveForCart(Long cartId, Map<Long, Integer> quantities) {
+        List<MapSqlParameterSource> ledger = new ArrayList<>();
+
+        //Сначала остатки по возрастанию id, затем журнал - тот же порядок блокировок, что у записи позиций
+        new TreeMap<>(quantities).forEach((productId, quantity) -> {
+            if (quantity > 0) {
+                reserve(productId, quantity);
+                ledger.add(new MapSqlParameterSource()
+                        .addValue("cartId", cartId)
+                        .addValue("productId", productId)
+                        .addValue("quantity", quantity));
+            }
+        });
+
+        //Корзиной владеет один узел под блокировкой её полосы, поэтому гонки за создание строки журнала нет
+        for (MapSqlParameterSource row : ledger) {
+            if (jdbcTemplate.update(ADD_LEDGER_SQL, row) == 0) {
+                jdbcTemplate.update(INSERT_LEDGER_SQL, row);
+            }
+        }
+    }
+
+    @Override
+    @Transactional
+    public void settleCartReservations(Map<Long, Map<Long, Integer>> quantitiesByCart) {
+        List<MapSqlParameterSource> rows = new ArrayList<>();
+
+        new TreeMap<>(quantitiesByCart).forEach((cartId, quantities) ->
+                new TreeMap<>(quantities).forEach((productId, quantity) -> {
+                    if (quantity > 0) {
+                        rows.add(new MapSqlParameterSource()
+                                .addValue("cartId", cartId)
+                                .addValue("productId", productId)
+                                .addValue("quantity", quantity));
+                    }
+                })
+        );
+
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        MapSqlParameterSource[] batch = rows.toArray(MapSqlParameterSource[]::new);
+        int[] settled = jdbcTemplate.batchUpdate(SETTLE_LEDGER_SQL, batch);
+
+        for (int i = 0; i < settled.length; i++) {
+            if (settled[i] == 0) {
+                throw new IllegalStateException(String.format(
+                        "Reservation of product id %s for cart id %s has already been returned to stock",
+                        rows.get(i).getValue("productId"), rows.get(i).getValue("cartId")
+                ));
+            }
+        }
+
+        jdbcTemplate.batchUpdate(DELETE_SETTLED_LEDGER_SQL, batch);
+    }
+
+    @Override
+    @Scheduled(
+            initialDelayString = "${product.stock.release-interval-ms:60000}",
+            fixedDelayString = "${product.stock.release-interval-ms:60000}"
+    )
+    public int releaseAbandoned() {
+        if (!lease.tryAcquire(RELEASE_LEASE_NAME, releaseLeaseTtl)) {
+            return 0;
+        }
+
+        Timestamp cutoff = Timestamp.from(Instant.now().minus(reservationTtl));
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("cutoff", cutoff)
+                .addValue("limit", releaseBatchSize);
+        int released = 0;
+        int reclaimed = 0;
+
+        try {
+            while (true) {
+                List<Long> cartIds = jdbcTemplate.queryForList(FIND_ABANDONED_CARTS_SQL, params, Long.class);
+
+                if (cartIds.isEmpty()) {
+                    break;
+                }
+
+                Integer chunkReleased = transactionTemplate.execute(status -> releaseCarts(cartIds, cutoff));
+                released += chunkReleased == null ? 0 : chunkReleased;
+
+                if (cartIds.size() < releaseBatchSize) {
+                    break;
+                }
+            }
+
+            while (true) {
+                Integer chunkReclaimed = transactionTemplate.execute(status -> reclaimLedger(cutoff));
+                int rows = chunkReclaimed == null ? 0 : chunkReclaimed;
+                reclaimed += rows;
+
+                if (rows < releaseBatchSize) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            //Например, взаимоблокировка с изменением той же корзины - следующий запуск повторит
+            logger.error("Release of abandoned cart reservations failed", e);
+        } finally {
+            lease.release(RELEASE_LEASE_NAME);
+        }
+
+        if (released > 0) {
+            releasedPositions.increment(released);
+            logger.info("Reservations of abandoned carts expired: {} positions", released);
+        }
+
+        if (reclaimed > 0) {
+            reclaimedReservations.increment(reclaimed);
+            logger.warn("Unsettled cart reservations returned to stock: {} rows", reclaimed);
+        }
+
+        return released + reclaimed;
+    }
+
+    //Записи журнала, которые так и не закрылись записью позиций: узел упал или позиции ушли в dead-letter
+    private int reclaimLedger(Timestamp cutoff) {
+        List<MapSqlParameterSource> rows = new ArrayList<>();
+        Map<Long, Integer> releases = new TreeMap<>();
+
+        jdbcTemplate.query(
+                LOCK_EXPIRED_LEDGER_SQL,
+                new MapSqlParameterSource().addValue("cutoff", cutoff).addValue("limit", releaseBatchSize),
+                (RowCallbackHandler) rs -> {
+                    rows.add(new MapSqlParameterSource()
+                            .addValue("cartId", rs.getLong("cart_id"))
+                            .addValue("productId", rs.getLong("product_id")));
+                    releases.merge(rs.getLong("product_id"), -rs.getInt("quantity"), Integer::sum);
+                }
+        );
+
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        jdbcTemplate.batchUpdate(DELETE_LEDGER_SQL, rows.toArray(MapSqlParameterSource[]::new));
+        adjust(releases);
+
+        return rows.size();
+    }
+
+    private int releaseCarts(List<Long> cartIds, Timestamp cutoff) {
+        //Все изменения позиций меняют и строку корзины, поэтому под блокировкой корзин позиции не изменятся.
+        //Корзину, изменённую после выборки, не трогаем - updated_at уже свежий
+        List<Long> locked = jdbcTemplate.queryForList(
+                LOCK_ABANDONED_CARTS_SQL,
+                new MapSqlParameterSource().addValue("cartIds", cartIds).addValue("cutoff", cutoff),
+                Long.class
+        );
+
+        if (locked.isEmpty()) {
+            return 0;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource("cartIds", locked);
+        Map<Long, Integer> releases = new TreeMap<>();
+
+        jdbcTemplate.query(FIND_RESERVED_POSITIONS_SQL, params, (RowCallbackHandler) rs ->
+                releases.merge(rs.getLong("product_id"), -rs.getInt("quantity"), Integer::sum)
+        );
+
+        int expired = jdbcTemplate.update(EXPIRE_RESERVED_POSITIONS_SQL, params);
+        adjust(releases);
+
+        return expired;
+    }
+
+    private Integer findStock(Long productId) {
+        Map<String, Object> row = jdbcTemplate.queryForMap(
+                SUM_STOCK_SQL, new MapSqlParameterSource("productId", productId)
+        );
+
+        return ((Number) row.get("slots")).longValue() == 0 ? null : ((Number) row.get("stock")).intValue();
+    }
+
+    private void checkProductExists(Long productId) {
+        if (!productRepository.existsById(productId)) {
+            throw new EntityNotFoundException(Product.class, productId);
+        }
+    }
+
+    private MapSqlParameterSource slotParams(Long productId, int quantity) {
+        return new MapSqlParameterSource()
+                .addValue("productId", productId)
+                .addValue("quantity", quantity)
+                .addValue("slot", ThreadLocalRandom.current().nextInt(slots));
+    }
+}
@@ -0,0 +1,26 @@
+package com.ait.shop.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public final class TransactionUtils {
+
+    private TransactionUtils() {
+    }
+
+    //Выполнить действие только после успешного коммита текущей транзакции.
+    //Если транзакции нет - выполнить сразу. Нужно для in-memory структур,
+    //которые не должны видеть изменения, откатившиеся в БД
+    public static void runAfterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
@@ -8,6 +8,9 @@ import com.ait.shop.exceptions.types.ConfirmationException;
 import com.ait.shop.exceptions.types.RegistrationException;
 import com.ait.shop.repository.UserRepository;
 import com.ait.shop.security.AuthUserDetails;
+import com.ait.shop.security.service.PasswordHasher;
+import com.ait.shop.security.service.RateLimiter;
+import com.ait.shop.security.service.TokenVersionCache;
 import com.ait.shop.service.interfaces.ConfirmationCodeService;
 import com.ait.shop.service.interfaces.EmailService;
 import com.ait.shop.service.interfaces.UserService;
@@ -16,7 +19,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
@@ -27,20 +29,26 @@ public class UserServiceImpl implements UserService {
 
     private final Logger logger = LoggerFactory.getLogger(UserServiceImpl.class);
     private final UserRepository repository;
-    private final BCryptPasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
     private final EmailService emailService;
     private final ConfirmationCodeService confirmationCodeService;
+    private final TokenVersionCache tokenVersionCache;
+    private final RateLimiter rateLimiter;
 
     public UserServiceImpl(
             UserRepository repository,
-            BCryptPasswordEncoder passwordEncoder,
+            PasswordHasher passwordHasher,
             EmailService emailService,
-            ConfirmationCodeService confirmationCodeService
+            ConfirmationCodeService confirmationCodeService,
+            TokenVersionCache tokenVersionCache,
+            RateLimiter rateLimiter
     ) {
         this.repository = repository;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHasher = passwordHasher;
         this.emailService = emailService;
         this.confirmationCodeService = confirmationCodeService;
+        this.tokenVersionCache = tokenVersionCache;
+        this.rateLimiter = rateLimiter;
     }
 
     @Override
@@ -65,6 +73,8 @@ public class UserServiceImpl implements UserService {
          */
 
         String email = registrationDto.getEmail();
+        //Каждая попытка отправляет письмо - повторные регистрации одного email ограничены
+        rateLimiter.checkEmail(RateLimiter.REGISTER, email);
         User user = repository.findByEmail(email).orElse(null);
 
         if (user == null) {
@@ -84,7 +94,7 @@ public class UserServiceImpl implements UserService {
 
         //Общие действия для сценариев 1 и 2
 
-        user.setPassword(passwordEncoder.encode(registrationDto.getPassword()));
+        user.setPassword(passwordHasher.encode(registrationDto.getPassword()));
         user.setName(registrationDto.getName());
 
         repository.save(user);
@@ -112,7 +122,20 @@ public class UserServiceImpl implements UserService {
         }
 
         user.setConfirmed(true);
+        //Состояние пользователя изменилось - токены, выпущенные до этого, больше не принимаются
+        user.setTokenVersion(user.getTokenVersion() + 1);
+        String email = user.getEmail();
+        TransactionUtils.runAfterCommit(() -> tokenVersionCache.invalidate(email));
 
         logger.info("User id {} is confirmed", user.getId());
     }
+
+    @Override
+    @Transactional
+    public void rehashPassword(String email, String oldPasswordHash, String newPasswordHash) {
+        //Пароль могли сменить, пока считался новый хеш - тогда старый хеш не совпадёт и обновления не будет
+        if (repository.updatePassword(email, oldPasswordHash, newPasswordHash) > 0) {
+            logger.info("Password hash of user {} is upgraded", email);
+        }
+    }
 }
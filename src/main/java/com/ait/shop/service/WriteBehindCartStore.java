@@ -0,0 +1,775 @@
+package com.ait.shop.service;
+
+import com.ait.shop.domain.Customer;
+import com.ait.shop.dto.cart.CartOperationDto;
+import com.ait.shop.exceptions.types.ConcurrentUpdateException;
+import com.ait.shop.exceptions.types.EntityNotFoundException;
+import com.ait.shop.service.interfaces.CartStore;
+import com.ait.shop.service.interfaces.CartTotalsService;
+import com.ait.shop.service.interfaces.ProductStockService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/*
+Write-behind хранилище корзин (cart.storage.mode = write-behind).
+    1. Содержимое активных корзин лежит в памяти: product_id -> quantity по id покупателя.
+    Доступ к корзине сериализован блокировкой одной из stripes полос (по id покупателя),
+    поэтому разные покупатели почти никогда не ждут друг друга
+    2. При промахе корзина лениво загружается из БД одним запросом
+    3. Изменения только помечают позиции грязными. В БД они пишутся пачками: раз в flush-interval-ms
+    или сразу, когда грязных корзин стало flush-threshold. Пишется последнее значение позиции,
+    поэтому десятки изменений одной позиции между сбросами превращаются в одну запись
+    4. При остановке приложения всё несброшенное пишется в БД
+    5. Чтение одной корзины из БД (детальный просмотр, итоги) предваряется сбросом этой корзины,
+    списки и выгрузки видят изменения с задержкой не больше интервала сброса
+    6. Чистые корзины, к которым давно не обращались, вытесняются из памяти
+    7. Остаток продукта резервируется сразу, в момент изменения корзины в памяти, а не при сбросе:
+    иначе корзины в памяти разобрали бы больше, чем есть на складе. Резерв берётся вне блокировки полосы,
+    после чего изменение корзины пересчитывается под ней заново. Такой резерв в той же транзакции
+    пишется в журнал cart_reservation (ProductStockService.reserveForCart), а закрывается в транзакции
+    сброса позиций. Если узел упадёт или позиции уйдут в dead-letter, незакрытый резерв вернёт в остаток
+    stock-release через reservation-ttl-minutes, а не потеряет навсегда. Уменьшение и очистка корзины
+    ничего не возвращают сразу: лишний резерв возвращается в транзакции сброса, вместе с записью позиций.
+    Резерв заброшенной корзины истекает в БД (ProductStockService) через reservation-ttl-minutes,
+    что должно быть дольше idle-eviction-ms: вытеснение считается от последнего изменения корзины,
+    поэтому к этому времени корзины в памяти уже нет. Позиция с истёкшим резервом при изменении
+    резервирует заново всё своё количество, а при уменьшении ничего не возвращает
+    8. Если пачка не записалась, каждая её корзина повторяется своей транзакцией, чтобы одна
+    ядовитая строка не держала остальные. Корзина, которая не записалась max-flush-attempts сбросов подряд,
+    уходит в dead-letter: её несброшенные позиции пишутся в лог и в getDeadLetters(),
+    считаются в cart.write_behind.dead_letter.positions, а сама корзина вытесняется из памяти
+    и при следующем обращении перечитывается из БД
+    9. Оформление сбрасывает корзину и помечает её оформляемой, а заказ ждёт уже без блокировки полосы.
+    Изменения оформляемой корзины отклоняются ConcurrentUpdateException, после оформления она перечитывается из БД
+    10. Активность покупателя проверяется только при загрузке корзины, поэтому удаление покупателя вытесняет
+    его корзину (evict): она закрывается для изменений, сбрасывается и убирается из памяти.
+    Не записавшаяся корзина остаётся закрытой до первого удачного сброса, а восстановление покупателя
+    открывает её снова (reactivate)
+
+Предполагается, что корзиной владеет один экземпляр приложения: запись в position в обход
+этого хранилища (или с другого экземпляра) будет перезаписана при следующем сбросе.
+ */
+
+@Component
+@ConditionalOnProperty(name = "cart.storage.mode", havingValue = "write-behind")
+public class WriteBehindCartStore implements CartStore {
+
+    private static final String FIND_CART_SQL = """
+            select ca.id from cart ca
+            join customer c on c.id = ca.customer_id
+            where c.id = ? and c.active = true
+            """;
+    private static final String FIND_POSITIONS_SQL = "select product_id, quantity, reserved from position where cart_id = ?";
+    private static final String UPDATE_SQL = """
+            update position set quantity = ?, reserved = ?, version = version + 1 where cart_id = ? and product_id = ?
+            """;
+    private static final String INSERT_SQL = "insert into position (cart_id, product_id, quantity, reserved) values (?, ?, ?, ?)";
+    private static final String DELETE_SQL = "delete from position where cart_id = ? and product_id = ?";
+    private static final String TOUCH_CART_SQL = "update cart set updated_at = current_timestamp where id = ?";
+
+    private final Logger logger = LoggerFactory.getLogger(WriteBehindCartStore.class);
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CartTotalsService cartTotalsService;
+    private final ProductStockService stockService;
+    private final Object[] stripes;
+    private final Map<Long, CartState> carts = new ConcurrentHashMap<>();
+    private final Set<Long> dirtyCustomers = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
+    private final Counter flushedPositions;
+    private final Counter failedFlushes;
+    private final Counter deadLetterPositions;
+    private final Deque<DeadLetter> deadLetters = new ConcurrentLinkedDeque<>();
+    private final int flushThreshold;
+    private final int batchSize;
+    private final long idleEvictionMs;
+    private final int maxFlushAttempts;
+    private final int deadLetterCapacity;
+
+    public WriteBehindCartStore(
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            CartTotalsService cartTotalsService,
+            ProductStockService stockService,
+            MeterRegistry meterRegistry,
+            @Value("${cart.storage.write-behind.stripes:64}") int stripes,
+            @Value("${cart.storage.write-behind.flush-interval-ms:1000}") long flushIntervalMs,
+            @Value("${cart.storage.write-behind.flush-threshold:500}") int flushThreshold,
+            @Value("${cart.storage.write-behind.batch-size:500}") int batchSize,
+            @Value("${cart.storage.write-behind.idle-eviction-ms:600000}") long idleEvictionMs,
+            @Value("${cart.storage.write-behind.max-flush-attempts:5}") int maxFlushAttempts,
+            @Value("${cart.storage.write-behind.dead-letter-capacity:1000}") int deadLetterCapacity
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.cartTotalsService = cartTotalsService;
+        this.stockService = stockService;
+        this.stripes = new Object[Integer.highestOneBit(Math.max(1, stripes))];
+        this.flushThreshold = Math.max(1, flushThreshold);
+        this.batchSize = Math.max(1, batchSize);
+        this.idleEvictionMs = idleEvictionMs;
+        this.maxFlushAttempts = Math.max(1, maxFlushAttempts);
+        this.deadLetterCapacity = Math.max(1, deadLetterCapacity);
+
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Object();
+        }
+
+        meterRegistry.gauge("cart.write_behind.dirty", dirtyCustomers, Set::size);
+        meterRegistry.gauge("cart.write_behind.cached", carts, Map::size);
+        flushedPositions = meterRegistry.counter("cart.write_behind.flushed.positions");
+        failedFlushes = meterRegistry.counter("cart.write_behind.flush.failures");
+        deadLetterPositions = meterRegistry.counter("cart.write_behind.dead_letter.positions");
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cart-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, flushIntervalMs);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean add(Long customerId, Long productId, int quantity) {
+        return change(customerId, cart -> {
+            int current = cart.quantities.getOrDefault(productId, 0);
+            return current + quantity > CartItemWriter.MAX_QUANTITY ? null : Map.of(productId, current + quantity);
+        });
+    }
+
+    @Override
+    public boolean remove(Long customerId, Long productId, int quantity) {
+        synchronized (stripe(customerId)) {
+            CartState cart = getEditable(customerId);
+            int current = cart.quantities.getOrDefault(productId, 0);
+
+            if (current == 0) {
+                return false;
+            }
+
+            if (current > quantity) {
+                cart.quantities.put(productId, current - quantity);
+            } else {
+                cart.quantities.remove(productId);
+            }
+            markDirty(customerId, cart, productId);
+        }
+
+        requestFlushIfNeeded();
+        return true;
+    }
+
+    @Override
+    public int clear(Long customerId) {
+        int removed;
+
+        synchronized (stripe(customerId)) {
+            CartState cart = getEditable(customerId);
+            removed = cart.quantities.size();
+
+            for (Long productId : new ArrayList<>(cart.quantities.keySet())) {
+                cart.quantities.remove(productId);
+                markDirty(customerId, cart, productId);
+            }
+        }
+
+        requestFlushIfNeeded();
+        return removed;
+    }
+
+    @Override
+    public void apply(Long customerId, List<CartOperationDto> operations) {
+        //Резерв всего пакета - одна транзакция: при нехватке остатка корзина в памяти не меняется
+        change(customerId, cart -> {
+            //Сначала считаем итог на копии: если пакет отклонён, корзина в памяти не меняется
+            Map<Long, Integer> target = new HashMap<>(cart.quantities);
+            CartQuantities.apply(target, operations);
+
+            Set<Long> productIds = new HashSet<>(cart.quantities.keySet());
+            productIds.addAll(target.keySet());
+            Map<Long, Integer> changed = new HashMap<>();
+
+            for (Long productId : productIds) {
+                if (!Objects.equals(cart.quantities.get(productId), target.get(productId))) {
+                    changed.put(productId, target.getOrDefault(productId, 0));
+                }
+            }
+
+            return changed;
+        });
+    }
+
+    @Override
+    public void flush(Long customerId) {
+        if (!dirtyCustomers.contains(customerId)) {
+            return;
+        }
+
+        flushLock.lock();
+        try {
+            flushBatch(List.of(customerId));
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void evict(Long customerId) {
+        CartState cart;
+
+        synchronized (stripe(customerId)) {
+            cart = carts.get(customerId);
+
+            if (cart == null) {
+                return;
+            }
+            cart.evicted = true;
+        }
+
+        //Изменения, принятые до удаления, пишутся как обычно - вместе с ними закрывается их резерв
+        flushLock.lock();
+        try {
+            flushBatch(List.of(customerId));
+        } finally {
+            flushLock.unlock();
+        }
+
+        //Не записавшуюся корзину повторяют следующие сбросы, после записи её вытеснит flushSucceeded
+        synchronized (stripe(customerId)) {
+            if (!cart.checkingOut && cart.dirtyProducts.isEmpty()) {
+                carts.remove(customerId, cart);
+            }
+        }
+    }
+
+    @Override
+    public void reactivate(Long customerId) {
+        synchronized (stripe(customerId)) {
+            CartState cart = carts.get(customerId);
+
+            //Несброшенные позиции - по-прежнему содержимое этой корзины, поэтому её достаточно открыть
+            if (cart != null) {
+                cart.evicted = false;
+            }
+        }
+    }
+
+    //Сбросить в БД все грязные корзины и вытеснить давно не используемые чистые
+    public void flushAll() {
+        flushLock.lock();
+        try {
+            List<Long> customerIds = new ArrayList<>(dirtyCustomers);
+
+            for (int from = 0; from < customerIds.size(); from += batchSize) {
+                flushBatch(customerIds.subList(from, Math.min(from + batchSize, customerIds.size())));
+            }
+
+            evictIdleCarts();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    //Последние позиции, которые так и не удалось записать в БД (не больше dead-letter-capacity)
+    public List<DeadLetter> getDeadLetters() {
+        return List.copyOf(deadLetters);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+
+        flushAll();
+        logger.info("Cart write-behind store stopped, dirty carts left: {}", dirtyCustomers.size());
+    }
+
+    private void flushQuietly() {
+        try {
+            flushAll();
+        } catch (RuntimeException e) {
+            logger.error("Cart write-behind flush failed", e);
+        }
+    }
+
+    private void requestFlushIfNeeded() {
+        if (dirtyCustomers.size() >= flushThreshold && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushRequested.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    //Вызывается под блокировкой полосы покупателя. Корзину удалённого покупателя и ту,
+    //которая сейчас оформляется, менять нельзя
+    private CartState getEditable(Long customerId) {
+        CartState cart = getOrLoad(customerId);
+
+        if (cart.evicted) {
+            throw new EntityNotFoundException(Customer.class, customerId);
+        }
+
+        if (cart.checkingOut) {
+            throw new ConcurrentUpdateException("Cart is being checked out, please repeat the request", null);
+        }
+
+        return cart;
+    }
+
+    //Вызывается под блокировкой полосы покупателя
+    private CartState getOrLoad(Long customerId) {
+        CartState cart = carts.get(customerId);
+
+        if (cart == null) {
+            List<Long> cartIds = jdbcTemplate.queryForList(FIND_CART_SQL, Long.class, customerId);
+
+            if (cartIds.isEmpty()) {
+                throw new EntityNotFoundException(Customer.class, customerId);
+            }
+
+            CartState loaded = new CartState(cartIds.get(0));
+            jdbcTemplate.query(FIND_POSITIONS_SQL, (RowCallbackHandler) rs -> {
+                loaded.quantities.put(rs.getLong(1), rs.getInt(2));
+
+                if (rs.getBoolean(3)) {
+                    loaded.held.put(rs.getLong(1), rs.getInt(2));
+                }
+            }, loaded.cartId);
+
+            loaded.lastAccess = System.currentTimeMillis();
+            carts.put(customerId, loaded);
+            cart = loaded;
+        }
+
+        return cart;
+    }
+
+    //Время доступа обновляют только изменения: корзина, которую лишь читают, вытесняется раньше,
+    //чем в БД истечёт её резерв
+    private void markDirty(Long customerId, CartState cart, Long productId) {
+        cart.lastAccess = System.currentTimeMillis();
+        cart.dirtyProducts.add(productId);
+        dirtyCustomers.add(customerId);
+    }
+
+    //Изменение корзины с дорезервированием остатка. plan под блокировкой полосы считает новые количества
+    //изменяемых позиций (0 - удаление, null - изменение отклонено). Недостающий резерв берётся в БД вне полосы:
+    //это транзакция с блокировками строк product_stock, и покупатели той же полосы не должны её ждать.
+    //Пока шёл резерв, корзину могли изменить, поэтому взятое добавляется к открытому журналу корзины,
+    //а plan считается заново. Лишнее после этого возвращается сбросом, как и при уменьшении позиции
+    private boolean change(Long customerId, Function<CartState, Map<Long, Integer>> plan) {
+        CartState reservedFor = null;
+        Map<Long, Integer> reserved = Map.of();
+
+        try {
+            while (true) {
+                CartState cart;
+                Map<Long, Integer> missing;
+
+                synchronized (stripe(customerId)) {
+                    cart = getEditable(customerId);
+
+                    if (!reserved.isEmpty()) {
+                        //Корзину за время резерва вытеснили или перечитали: резерв взят под старое состояние
+                        if (cart != reservedFor) {
+                            throw new ConcurrentUpdateException("Cart was changed concurrently, please repeat the request", null);
+                        }
+
+                        reserved.forEach((productId, quantity) -> {
+                            cart.pending.merge(productId, quantity, Integer::sum);
+                            markDirty(customerId, cart, productId);
+                        });
+                        reserved = Map.of();
+                    }
+
+                    Map<Long, Integer> quantities = plan.apply(cart);
+
+                    if (quantities == null) {
+                        return false;
+                    }
+
+                    missing = missing(cart, quantities);
+
+                    if (missing.isEmpty()) {
+                        quantities.forEach((productId, quantity) -> {
+                            if (quantity > 0) {
+                                cart.quantities.put(productId, quantity);
+                            } else {
+                                cart.quantities.remove(productId);
+                            }
+                            markDirty(customerId, cart, productId);
+                        });
+                        break;
+                    }
+                }
+
+                stockService.reserveForCart(cart.cartId, missing);
+                reservedFor = cart;
+                reserved = missing;
+            }
+        } finally {
+            if (!reserved.isEmpty()) {
+                cancelReservation(reservedFor.cartId, reserved);
+            }
+        }
+
+        requestFlushIfNeeded();
+        return true;
+    }
+
+    //Сколько не покрывают позиция в БД и уже открытый журнал до новых количеств.
+    //Позиция с истёкшим резервом ничего не держит, поэтому резервирует заново всё своё количество
+    private Map<Long, Integer> missing(CartState cart, Map<Long, Integer> quantities) {
+        Map<Long, Integer> missing = new HashMap<>();
+
+        quantities.forEach((productId, quantity) -> {
+            int covered = cart.held.getOrDefault(productId, 0) + cart.pending.getOrDefault(productId, 0);
+
+            if (quantity > covered) {
+                missing.put(productId, quantity - covered);
+            }
+        });
+
+        return missing;
+    }
+
+    //Вернуть резерв, который так и не попал в корзину. Остатки раньше журнала - тот же порядок, что у сброса
+    private void cancelReservation(Long cartId, Map<Long, Integer> quantities) {
+        Map<Long, Integer> releases = new HashMap<>();
+        quantities.forEach((productId, quantity) -> releases.put(productId, -quantity));
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                stockService.adjust(releases);
+                stockService.settleCartReservations(Map.of(cartId, quantities));
+            });
+        } catch (RuntimeException e) {
+            //Незакрытая запись журнала вернётся в остаток по сроку
+            logger.warn("Cart reservation of cart id {} was not cancelled, it will expire: {}", cartId, quantities, e);
+        }
+    }
+
+    @Override
+    public <T> T checkout(Long customerId, Function<Long, T> action) {
+        CartState cart;
+
+        //Порядок блокировок тот же, что у фонового сброса: flushLock, затем полоса.
+        //Корзина помечается оформляемой: до конца оформления её изменения отклоняются,
+        //поэтому они не лягут поверх оформленных позиций, а полоса держится только на время пометки и проверки
+        flushLock.lock();
+        try {
+            synchronized (stripe(customerId)) {
+                cart = getEditable(customerId);
+                cart.checkingOut = true;
+            }
+
+            flushBatch(List.of(customerId));
+        } finally {
+            flushLock.unlock();
+        }
+
+        synchronized (stripe(customerId)) {
+            //Корзина не записалась или ушла в dead-letter: в БД не то, что видит покупатель
+            if (carts.get(customerId) != cart || !cart.dirtyProducts.isEmpty()) {
+                cart.checkingOut = false;
+                throw new ConcurrentUpdateException("Cart could not be saved, please repeat the request", null);
+            }
+        }
+
+        //Ожидание конвейера заказов - без блокировок: покупатели той же полосы его не ждут
+        try {
+            return action.apply(cart.cartId);
+        } finally {
+            //После оформления корзина перечитывается из БД при следующем обращении
+            synchronized (stripe(customerId)) {
+                carts.remove(customerId, cart);
+            }
+        }
+    }
+
+    //Вызывается под flushLock: сбросы не пересекаются, поэтому более старое значение
+    //позиции никогда не перезапишет в БД более новое
+    private void flushBatch(List<Long> customerIds) {
+        Map<Long, List<PendingWrite>> writesByCustomer = new LinkedHashMap<>();
+
+        for (Long customerId : customerIds) {
+            synchronized (stripe(customerId)) {
+                dirtyCustomers.remove(customerId);
+                CartState cart = carts.get(customerId);
+
+                if (cart == null || cart.dirtyProducts.isEmpty()) {
+                    continue;
+                }
+
+                List<PendingWrite> writes = new ArrayList<>();
+                for (Long productId : cart.dirtyProducts) {
+                    writes.add(snapshot(customerId, cart, productId));
+                }
+                cart.dirtyProducts.clear();
+                writesByCustomer.put(customerId, writes);
+            }
+        }
+
+        if (writesByCustomer.isEmpty()) {
+            return;
+        }
+
+        List<PendingWrite> writes = writesByCustomer.values().stream().flatMap(List::stream).toList();
+
+        try {
+            write(writes);
+            writesByCustomer.keySet().forEach(this::flushSucceeded);
+        } catch (RuntimeException e) {
+            if (writesByCustomer.size() == 1) {
+                writesByCustomer.forEach((customerId, cartWrites) -> flushFailed(customerId, cartWrites, e));
+                return;
+            }
+
+            logger.warn("Cart write-behind flush of {} carts failed, retrying them one by one", writesByCustomer.size(), e);
+            writesByCustomer.forEach(this::flushCart);
+        }
+    }
+
+    private void flushCart(Long customerId, List<PendingWrite> writes) {
+        try {
+            write(writes);
+            flushSucceeded(customerId);
+        } catch (RuntimeException e) {
+            flushFailed(customerId, writes, e);
+        }
+    }
+
+    //Снимок позиции для записи. Резерв в памяти сразу считается таким, каким он станет после записи:
+    //изменения корзины во время сброса дорезервируют недостающее уже от него. При неудаче снимок откатывается
+    private PendingWrite snapshot(Long customerId, CartState cart, Long productId) {
+        int quantity = cart.quantities.getOrDefault(productId, 0);
+        int held = cart.held.getOrDefault(productId, 0);
+        int settled = cart.pending.getOrDefault(productId, 0);
+        boolean reserved = held + settled >= quantity;
+
+        cart.pending.remove(productId);
+        if (reserved && quantity > 0) {
+            cart.held.put(productId, quantity);
+        } else {
+            cart.held.remove(productId);
+        }
+
+        return new PendingWrite(
+                customerId, cart.cartId, productId, quantity, reserved, held, settled,
+                reserved ? held + settled - quantity : held + settled
+        );
+    }
+
+    private void write(List<PendingWrite> writes) {
+        transactionTemplate.executeWithoutResult(status -> {
+            writePositions(writes);
+
+            //Остатки раньше журнала - тот же порядок блокировок, что у reserveForCart
+            Map<Long, Integer> releases = new HashMap<>();
+            Map<Long, Map<Long, Integer>> settled = new HashMap<>();
+
+            for (PendingWrite write : writes) {
+                releases.merge(write.productId(), -write.released(), Integer::sum);
+                settled.computeIfAbsent(write.cartId(), x -> new HashMap<>()).put(write.productId(), write.settled());
+            }
+            stockService.adjust(releases);
+            stockService.settleCartReservations(settled);
+
+            //Итоги и время изменения корзин обновляются в той же транзакции, что и позиции
+            List<Long> cartIds = writes.stream().map(PendingWrite::cartId).distinct().toList();
+            cartTotalsService.recalculate(cartIds);
+            jdbcTemplate.batchUpdate(TOUCH_CART_SQL, cartIds, cartIds.size(), (ps, cartId) -> ps.setLong(1, cartId));
+        });
+        flushedPositions.increment(writes.size());
+    }
+
+    private void flushSucceeded(Long customerId) {
+        synchronized (stripe(customerId)) {
+            CartState cart = carts.get(customerId);
+
+            if (cart == null) {
+                return;
+            }
+            cart.failedFlushes = 0;
+
+            //Корзина удалённого покупателя, которую не удалось записать при evict, уходит из памяти после записи
+            if (cart.evicted && !cart.checkingOut && cart.dirtyProducts.isEmpty()) {
+                carts.remove(customerId, cart);
+            }
+        }
+    }
+
+    //Позиции снова помечаются грязными и повторяются следующим сбросом, пока у корзины не кончатся попытки
+    private void flushFailed(Long customerId, List<PendingWrite> writes, RuntimeException e) {
+        failedFlushes.increment();
+
+        synchronized (stripe(customerId)) {
+            CartState cart = carts.get(customerId);
+
+            if (cart == null) {
+                return;
+            }
+
+            for (PendingWrite write : writes) {
+                if (write.held() > 0) {
+                    cart.held.put(write.productId(), write.held());
+                } else {
+                    cart.held.remove(write.productId());
+                }
+                if (write.settled() > 0) {
+                    cart.pending.merge(write.productId(), write.settled(), Integer::sum);
+                }
+            }
+
+            if (++cart.failedFlushes < maxFlushAttempts) {
+                logger.warn("Cart write-behind flush of customer id {} failed (attempt {} of {}), it will be retried",
+                        customerId, cart.failedFlushes, maxFlushAttempts, e);
+                writes.forEach(write -> markDirty(customerId, cart, write.productId()));
+                return;
+            }
+
+            //Вместе с ядовитыми строками уходят и изменения корзины, сделанные после снимка.
+            //Их резервы остаются в журнале cart_reservation и вернутся в остаток по сроку
+            Map<Long, Integer> quantities = new LinkedHashMap<>();
+            writes.forEach(write -> quantities.put(write.productId(), write.quantity()));
+            cart.dirtyProducts.forEach(productId -> quantities.put(productId, cart.quantities.getOrDefault(productId, 0)));
+
+            carts.remove(customerId);
+            dirtyCustomers.remove(customerId);
+            deadLetter(customerId, cart.cartId, quantities, e);
+        }
+    }
+
+    private void deadLetter(Long customerId, Long cartId, Map<Long, Integer> quantities, RuntimeException e) {
+        deadLetters.addLast(new DeadLetter(customerId, cartId, quantities, String.valueOf(e.getMessage()), Instant.now()));
+
+        while (deadLetters.size() > deadLetterCapacity) {
+            deadLetters.pollFirst();
+        }
+
+        deadLetterPositions.increment(quantities.size());
+        logger.error("Cart write-behind flush of customer id {} failed {} times, positions moved to dead letters: {}",
+                customerId, maxFlushAttempts, quantities, e);
+    }
+
+    private void writePositions(List<PendingWrite> writes) {
+        List<PendingWrite> deletes = writes.stream().filter(x -> x.quantity() == 0).toList();
+        List<PendingWrite> upserts = writes.stream().filter(x -> x.quantity() > 0).toList();
+
+        if (!deletes.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_SQL, deletes, deletes.size(), (ps, write) -> {
+                ps.setLong(1, write.cartId());
+                ps.setLong(2, write.productId());
+            });
+        }
+
+        if (upserts.isEmpty()) {
+            return;
+        }
+
+        int[][] updated = jdbcTemplate.batchUpdate(UPDATE_SQL, upserts, upserts.size(), (ps, write) -> {
+            ps.setInt(1, write.quantity());
+            ps.setBoolean(2, write.reserved());
+            ps.setLong(3, write.cartId());
+            ps.setLong(4, write.productId());
+        });
+
+        //Позиции, которых ещё нет в БД, вставляем вторым batch
+        List<PendingWrite> inserts = new ArrayList<>();
+        for (int i = 0; i < upserts.size(); i++) {
+            if (updated[0][i] == 0) {
+                inserts.add(upserts.get(i));
+            }
+        }
+
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, inserts, inserts.size(), (ps, write) -> {
+                ps.setLong(1, write.cartId());
+                ps.setLong(2, write.productId());
+                ps.setInt(3, write.quantity());
+                ps.setBoolean(4, write.reserved());
+            });
+        }
+    }
+
+    private void evictIdleCarts() {
+        long threshold = System.currentTimeMillis() - idleEvictionMs;
+
+        for (Long customerId : new ArrayList<>(carts.keySet())) {
+            synchronized (stripe(customerId)) {
+                CartState cart = carts.get(customerId);
+
+                if (cart != null && !cart.checkingOut && cart.dirtyProducts.isEmpty()
+                        && (cart.evicted || cart.lastAccess < threshold)) {
+                    carts.remove(customerId);
+                }
+            }
+        }
+    }
+
+    private Object stripe(Long customerId) {
+        return stripes[Long.hashCode(customerId) & (stripes.length - 1)];
+    }
+
+    //Изменяемое состояние корзины, доступ только под блокировкой полосы её покупателя
+    private static final class CartState {
+
+        private final Long cartId;
+        private final Map<Long, Integer> quantities = new HashMap<>();
+        private final Set<Long> dirtyProducts = new HashSet<>();
+        //Сколько держат резервом позиции в БД (позиция с истёкшим резервом - ничего) и сколько - открытый журнал
+        private final Map<Long, Integer> held = new HashMap<>();
+        private final Map<Long, Integer> pending = new HashMap<>();
+        private long lastAccess;
+        private int failedFlushes;
+        private boolean checkingOut;
+        private boolean evicted;
+
+        private CartState(Long cartId) {
+            this.cartId = cartId;
+        }
+    }
+
+    //held - резерв позиции в БД до записи, settled - закрываемый журнал, released - возврат в остаток
+    private record PendingWrite(
+            Long customerId, Long cartId, Long productId, int quantity,
+            boolean reserved, int held, int settled, int released
+    ) {
+    }
+
+    //Позиции корзины, которые не удалось записать в БД: product_id -> quantity, 0 - удаление позиции
+    public record DeadLetter(Long customerId, Long cartId, Map<Long, Integer> quantities, String error, Instant failedAt) {
+    }
+}
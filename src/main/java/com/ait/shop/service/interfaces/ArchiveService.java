@@ -0,0 +1,21 @@
+package com.ait.shop.service.interfaces;
+
+import java.util.Map;
+
+public interface ArchiveService {
+
+//    Перенести в архив покупателей и продукты, неактивные дольше срока хранения, и вернуть количество
+//    перенесённых строк (customers, products). Если архивирование сейчас выполняет другой узел - вернуть пустой результат.
+    Map<String, Long> archive();
+
+//    Вернуть покупателя из архива в основную таблицу неактивным, с новой пустой корзиной.
+//    Вызывать внутри транзакции. Вернуть false, если в архиве такого покупателя нет.
+    boolean restoreCustomer(Long id);
+
+//    Вернуть продукт из архива в основную таблицу неактивным. Вызывать внутри транзакции.
+//    Вернуть false, если в архиве такого продукта нет.
+    boolean restoreProduct(Long id);
+
+//    Проверить, находится ли покупатель в архиве.
+    boolean isCustomerArchived(Long id);
+}
@@ -0,0 +1,41 @@
+package com.ait.shop.service.interfaces;
+
+import com.ait.shop.dto.cart.CartOperationDto;
+
+import java.util.List;
+import java.util.function.Function;
+
+/*
+Хранилище содержимого корзин. Реализация выбирается свойством cart.storage.mode:
+    database (по умолчанию) - каждое изменение сразу пишется в БД (DatabaseCartStore)
+    write-behind - изменения применяются в памяти и пишутся в БД пачками (WriteBehindCartStore)
+ */
+
+public interface CartStore {
+
+//    Добавить количество продукта в корзину покупателя. Вернуть false, если итоговое количество превысило бы 99.
+    boolean add(Long customerId, Long productId, int quantity);
+
+//    Уменьшить количество продукта в корзине покупателя (или удалить позицию). Вернуть false, если позиции нет.
+    boolean remove(Long customerId, Long productId, int quantity);
+
+//    Удалить все позиции корзины покупателя, вернуть количество удалённых позиций.
+    int clear(Long customerId);
+
+//    Атомарно применить пакет операций к корзине покупателя: либо все операции, либо ни одной.
+    void apply(Long customerId, List<CartOperationDto> operations);
+
+//    Гарантировать, что все изменения корзины покупателя уже записаны в БД (перед чтением корзины из БД).
+    void flush(Long customerId);
+
+//    Забыть корзину удалённого покупателя: записать её изменения в БД и больше не принимать новые,
+//    пока корзина снова не будет прочитана из БД. Вызывается после коммита удаления покупателя.
+    void evict(Long customerId);
+
+//    Снова принимать изменения корзины восстановленного покупателя. Вызывается после коммита восстановления.
+    void reactivate(Long customerId);
+
+//    Оформить корзину покупателя: записать её изменения в БД и выполнить action с id корзины так,
+//    чтобы параллельные изменения этой корзины не потерялись и не воскресили оформленные позиции.
+    <T> T checkout(Long customerId, Function<Long, T> action);
+}
@@ -0,0 +1,16 @@
+package com.ait.shop.service.interfaces;
+
+import java.util.Collection;
+
+public interface CartTotalsService {
+
+//    Пересчитать item_count и total_cost корзин по их позициям. Вызывать в транзакции:
+//    строки корзин блокируются до её конца, иначе пересчёт может затереть параллельную дельту.
+    void recalculate(Collection<Long> cartIds);
+
+//    Учесть изменение цены или активности продуктов: корзины с ними будут пересчитаны в фоне после коммита.
+    void onProductsChanged(Collection<Long> productIds);
+
+//    Сверить итоги всех корзин с позициями, исправить расхождения и вернуть их количество.
+    long verify();
+}
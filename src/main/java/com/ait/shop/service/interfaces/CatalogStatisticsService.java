@@ -0,0 +1,24 @@
+package com.ait.shop.service.interfaces;
+
+import java.math.BigDecimal;
+
+public interface CatalogStatisticsService {
+
+//    Учесть продукт, который стал активным (сохранён или восстановлен).
+    void onProductActivated(BigDecimal price);
+
+//    Учесть продукт, который стал неактивным.
+    void onProductDeactivated(BigDecimal price);
+
+//    Учесть изменение цены активного продукта.
+    void onPriceChanged(BigDecimal oldPrice, BigDecimal newPrice);
+
+//    Сверить накопленные агрегаты с БД (SUM/COUNT по активным продуктам).
+    void reconcile();
+
+    long getActiveCount();
+
+    BigDecimal getTotalCost();
+
+    BigDecimal getAveragePrice();
+}
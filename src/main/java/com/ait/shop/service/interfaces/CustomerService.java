@@ -1,8 +1,12 @@
 package com.ait.shop.service.interfaces;
 
 import com.ait.shop.domain.Customer;
+import com.ait.shop.dto.cart.CartOperationDto;
+import com.ait.shop.dto.cart.CartSummaryDto;
 import com.ait.shop.dto.customer.CustomerDto;
+import com.ait.shop.dto.customer.CustomerPageDto;
 import com.ait.shop.dto.customer.CustomerSaveDto;
+import com.ait.shop.dto.customer.CustomerSummaryDto;
 import com.ait.shop.dto.customer.CustomerUpdateDto;
 import com.ait.shop.dto.position.PositionUpdateDto;
 import org.springframework.web.multipart.MultipartFile;
@@ -19,6 +23,12 @@ public interface CustomerService {
 //    Вернуть всех покупателей из базы данных.
     List<CustomerDto> getAllCustomers();
 
+//    Вернуть страницу активных покупателей в облегчённом виде (без корзины, только её итоги).
+    CustomerPageDto getActiveCustomersPage(Long after, int limit);
+
+//    Найти активных покупателей по имени (префиксы слов), результаты ранжированы и разбиты на страницы.
+    List<CustomerSummaryDto> searchActiveCustomers(String name, int page, int size);
+
 //    Вернуть одного покупателя из базы данных по его идентификатору.
     CustomerDto getCustomerById(Long id);
     Customer getEntityById(Long id);
@@ -35,6 +45,9 @@ public interface CustomerService {
 //    Вернуть общее количество покупателей в базе данных.
     long getAllCustomersCount();
 
+//    Вернуть итоги корзины покупателя (количество товаров, стоимость, средняя цена) по его идентификатору.
+    CartSummaryDto getCustomerCartSummary(Long id);
+
 //    Вернуть стоимость корзины покупателя по его идентификатору.
     BigDecimal getCustomerCartTotalCost(Long id);
 
@@ -46,6 +59,10 @@ public interface CustomerService {
 
 //    Удалить товар из корзины покупателя по их идентификаторам.
     void deletePositionFromCustomerCart(Long customerId, Long productId, PositionUpdateDto positionUpdateDto);
+
+//    Применить к корзине покупателя пакет операций (добавить, убрать, установить количество) и вернуть её итоги.
+    CartSummaryDto applyCartOperations(Long customerId, List<CartOperationDto> operations);
+
 //    Полностью очистить корзину покупателя по его идентификатору.
     void clearCustomerCart(Long customerId);
 
@@ -0,0 +1,10 @@
+package com.ait.shop.service.interfaces;
+
+import java.util.Map;
+
+public interface ExpiryPurgeService {
+
+//    Выполнить все включённые правила очистки и вернуть количество удалённых строк по каждому правилу.
+//    Если очистку сейчас выполняет другой узел - вернуть пустой результат.
+    Map<String, Long> purge();
+}
@@ -0,0 +1,15 @@
+package com.ait.shop.service.interfaces;
+
+import com.ait.shop.dto.export.ExportFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface ExportService {
+
+//    Выгрузить все активные продукты в поток в заданном формате.
+    void exportProducts(ExportFormat format, OutputStream outputStream) throws IOException;
+
+//    Выгрузить всех активных покупателей (с корзинами) в поток в заданном формате.
+    void exportCustomers(ExportFormat format, OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,13 @@
+package com.ait.shop.service.interfaces;
+
+import com.ait.shop.dto.order.OrderDto;
+import com.ait.shop.dto.order.OrderPageDto;
+
+public interface OrderService {
+
+//    Оформить заказ из корзины покупателя: зафиксировать позиции и текущие цены, убрать их из корзины.
+    OrderDto checkout(Long customerId);
+
+//    Вернуть страницу истории заказов покупателя от новых к старым (keyset-пагинация).
+    OrderPageDto getCustomerOrders(Long customerId, Long before, int limit);
+}
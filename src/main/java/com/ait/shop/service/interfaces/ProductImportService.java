@@ -0,0 +1,17 @@
+package com.ait.shop.service.interfaces;
+
+import com.ait.shop.dto.product.ProductImportResultDto;
+import com.ait.shop.dto.product.ProductSaveDto;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.util.List;
+
+public interface ProductImportService {
+
+//    Массово импортировать продукты из JSON-массива.
+    ProductImportResultDto importProducts(List<ProductSaveDto> rows);
+
+//    Массово импортировать продукты из CSV-файла (колонки title,price).
+    ProductImportResultDto importProducts(MultipartFile csvFile) throws IOException;
+}
@@ -0,0 +1,10 @@
+package com.ait.shop.service.interfaces;
+
+import com.ait.shop.dto.product.ProductRepriceDto;
+import com.ait.shop.dto.product.ProductRepriceResultDto;
+
+public interface ProductRepricingService {
+
+//    Массово изменить цены продуктов, выбранных селектором.
+    ProductRepriceResultDto reprice(ProductRepriceDto repriceDto);
+}
@@ -2,12 +2,15 @@ package com.ait.shop.service.interfaces;
 
 import com.ait.shop.domain.Product;
 import com.ait.shop.dto.product.ProductDto;
+import com.ait.shop.dto.product.ProductPageDto;
 import com.ait.shop.dto.product.ProductSaveDto;
+import com.ait.shop.dto.product.ProductSortField;
 import com.ait.shop.dto.product.ProductUpdateDto;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 
 public interface ProductService {
@@ -18,11 +21,21 @@ public interface ProductService {
 //    Вернуть все продукты из базы данных (активные).
     List<ProductDto> getAllActiveProducts();
 
+//    Вернуть страницу активных продуктов после курсора (непрозрачная строка nextCursor предыдущей страницы).
+    ProductPageDto getActiveProductsPage(String after, int limit, ProductSortField sort,
+                                         BigDecimal minPrice, BigDecimal maxPrice);
+
+//    Найти активные продукты по названию (префиксы слов), результаты ранжированы и разбиты на страницы.
+    List<ProductDto> searchActiveProducts(String query, int page, int size);
+
 //    Вернуть один продукт из базы данных по его идентификатору (если он активен).
     Product getActiveEntityById(Long id);
 
     ProductDto getActiveProductById(Long id);
 
+//    Вернуть активные продукты по списку идентификаторов одним запросом (если хотя бы одного нет - ошибка).
+    List<Product> getActiveEntitiesByIds(Collection<Long> ids);
+
 //    Изменить один продукт в базе данных по его идентификатору.
     void update(Long id, ProductUpdateDto updateDto);
 
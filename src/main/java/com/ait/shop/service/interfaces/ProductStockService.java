@@ -0,0 +1,35 @@
+package com.ait.shop.service.interfaces;
+
+import com.ait.shop.dto.product.ProductStockDto;
+
+import java.util.Map;
+
+public interface ProductStockService {
+
+//    Вернуть доступный остаток продукта (null - остаток не отслеживается).
+    ProductStockDto getStock(Long productId);
+
+//    Задать доступный остаток продукта (null - перестать отслеживать остаток).
+    ProductStockDto setStock(Long productId, Integer stock);
+
+//    Зарезервировать количество продукта под корзину, при нехватке - OutOfStockException.
+    void reserve(Long productId, int quantity);
+
+//    Вернуть зарезервированное количество продукта в остаток.
+    void release(Long productId, int quantity);
+
+//    Изменить резервы нескольких продуктов одной транзакцией: плюс - резерв, минус - возврат.
+    void adjust(Map<Long, Integer> deltas);
+
+//    Зарезервировать количества продуктов под изменения корзины, ещё не записанные в position,
+//    и учесть их в журнале cart_reservation одной транзакцией. При нехватке - OutOfStockException.
+    void reserveForCart(Long cartId, Map<Long, Integer> quantities);
+
+//    Закрыть записи журнала cart_reservation (cart_id -> product_id -> quantity): эти количества теперь держат
+//    позиции корзин. Вызывать в транзакции записи позиций; если запись журнала уже возвращена по сроку - исключение.
+    void settleCartReservations(Map<Long, Map<Long, Integer>> quantitiesByCart);
+
+//    Вернуть в остаток резервы заброшенных корзин (позиции остаются) и незакрытые по сроку записи журнала
+//    cart_reservation, вернуть количество таких позиций и записей.
+    int releaseAbandoned();
+}
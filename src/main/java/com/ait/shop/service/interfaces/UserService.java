@@ -7,5 +7,6 @@ public interface UserService extends UserDetailsService {
 
     void register(UserRegistrationDto registrationDto);
     void confirm(String codeValue);
+    void rehashPassword(String email, String oldPasswordHash, String newPasswordHash);
 
 }
@@ -0,0 +1,95 @@
+package com.ait.shop.benchmark;
+
+import com.ait.shop.service.TextSearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+Стоимость первой страницы поиска (20 результатов) по индексу из 100 000 названий.
+    1. query - префикс одного слова длиной 1, 2, 3 и 5 букв и запрос из двух слов:
+    чем короче префикс, тем больше диапазон слов, которые он покрывает
+    2. Названия - от одного до четырёх слов из словаря в 5 000 случайных слов, генератор с постоянным seed
+Запуск - main() из IDE или с тестовым classpath; GCProfiler добавляет gc.alloc.rate.norm (байт на операцию).
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextSearchIndexBenchmark {
+
+    private static final int DOCUMENTS = 100_000;
+    private static final int WORDS = 5_000;
+
+    @Param({"c", "ch", "cha", "chair", "chair la"})
+    private String query;
+
+    private TextSearchIndex<Long> index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        String[] words = new String[WORDS];
+
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = randomWord(random);
+        }
+        //Слова запросов должны встречаться в названиях
+        words[0] = "chair";
+        words[1] = "lamp";
+
+        index = new TextSearchIndex<>(5000);
+
+        for (long id = 1; id <= DOCUMENTS; id++) {
+            StringBuilder title = new StringBuilder();
+            int count = 1 + random.nextInt(4);
+
+            for (int i = 0; i < count; i++) {
+                title.append(i == 0 ? "" : " ").append(words[random.nextInt(WORDS)]);
+            }
+            index.put(id, title.toString(), id);
+        }
+        index.put(DOCUMENTS + 1L, "Chair lamp", DOCUMENTS + 1L);
+    }
+
+    @Benchmark
+    public List<Long> firstPage() {
+        return index.search(query, 0, 20);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TextSearchIndexBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()
+        ).run();
+    }
+
+    private static String randomWord(Random random) {
+        char[] letters = new char[3 + random.nextInt(7)];
+
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(letters);
+    }
+}
@@ -0,0 +1,96 @@
+package com.ait.shop.benchmark;
+
+import com.ait.shop.domain.User;
+import com.ait.shop.domain.enums.Role;
+import com.ait.shop.security.service.TokenService;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.SecretKey;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/*
+Стоимость проверки access token на один запрос.
+    1. twoParsersPerRequest - как TokenFilter проверял токен раньше: validateAccessToken и getAccessClaims,
+    каждый собирает новый парсер и заново проверяет подпись
+    2. cachedParser - один разбор и одна проверка подписи заранее собранным парсером (кэш выключен)
+    3. verifiedTokenCache - повторный запрос с тем же токеном: SHA-256 от токена и попадание в кэш
+Запуск - main() из IDE или с тестовым classpath; GCProfiler добавляет gc.alloc.rate.norm (байт на операцию).
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenVerificationBenchmark {
+
+    private SecretKey accessKey;
+    private String accessToken;
+    private TokenService uncachedService;
+    private TokenService cachedService;
+
+    @Setup
+    public void setUp() {
+        String accessPhrase = randomPhrase();
+        String refreshPhrase = randomPhrase();
+        accessKey = Keys.hmacShaKeyFor(Base64.getDecoder().decode(accessPhrase));
+
+        uncachedService = new TokenService(accessPhrase, refreshPhrase, 0, 60000, new SimpleMeterRegistry());
+        cachedService = new TokenService(accessPhrase, refreshPhrase, 10000, 60000, new SimpleMeterRegistry());
+
+        User user = new User();
+        user.setEmail("benchmark@test.com");
+        user.setRole(Role.ROLE_USER);
+        accessToken = cachedService.generateAccessToken(user);
+    }
+
+    @Benchmark
+    public Claims twoParsersPerRequest() {
+        Jwts.parser().verifyWith(accessKey).build().parseSignedClaims(accessToken);
+        return Jwts.parser().verifyWith(accessKey).build().parseSignedClaims(accessToken).getPayload();
+    }
+
+    @Benchmark
+    public Claims cachedParser() {
+        return uncachedService.verifyAccessToken(accessToken).orElseThrow();
+    }
+
+    @Benchmark
+    public Claims verifiedTokenCache() {
+        return cachedService.verifyAccessToken(accessToken).orElseThrow();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenVerificationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()
+        ).run();
+    }
+
+    private static String randomPhrase() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}
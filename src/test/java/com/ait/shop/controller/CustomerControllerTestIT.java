@@ -3,16 +3,34 @@ package com.ait.shop.controller;
 import com.ait.shop.constants.Constants;
 import com.ait.shop.domain.*;
 import com.ait.shop.domain.enums.Role;
+import com.ait.shop.dto.cart.CartOperationDto;
+import com.ait.shop.dto.cart.CartOperationType;
+import com.ait.shop.dto.cart.CartSummaryDto;
 import com.ait.shop.dto.customer.CustomerDto;
+import com.ait.shop.dto.customer.CustomerPageDto;
 import com.ait.shop.dto.customer.CustomerSaveDto;
+import com.ait.shop.dto.customer.CustomerSummaryDto;
 import com.ait.shop.dto.customer.CustomerUpdateDto;
+import com.ait.shop.dto.order.OrderDto;
+import com.ait.shop.dto.order.OrderPageDto;
 import com.ait.shop.dto.position.PositionUpdateDto;
+import com.ait.shop.dto.product.ProductStockDto;
 import com.ait.shop.repository.CustomerRepository;
 import com.ait.shop.repository.ProductRepository;
 import com.ait.shop.repository.UserRepository;
+import com.ait.shop.service.interfaces.ArchiveService;
+import com.ait.shop.service.interfaces.CartTotalsService;
+import com.ait.shop.service.interfaces.ExpiryPurgeService;
+import com.ait.shop.service.interfaces.ProductStockService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -22,17 +40,32 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
 import javax.crypto.SecretKey;
 import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.jpa.properties.hibernate.generate_statistics=true"
+)
 class CustomerControllerTestIT {
 
     @Autowired
@@ -50,6 +83,30 @@ class CustomerControllerTestIT {
     @Autowired
     private BCryptPasswordEncoder passwordEncoder;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private CartTotalsService cartTotalsService;
+
+    @Autowired
+    private ExpiryPurgeService purgeService;
+
+    @Autowired
+    private ArchiveService archiveService;
+
+    @Autowired
+    private ProductStockService stockService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @Value("${KEY_PHRASE_ACCESS}")
     private String accessPhrase;
     private String adminAccessToken;
@@ -121,9 +178,111 @@ class CustomerControllerTestIT {
     @AfterEach
     public void cleanDatabase() {
         customerRepository.deleteAll();
+        //Продукты тестов корзины остаются в общей с ProductControllerTestIT базе - вместе с их остатками
+        jdbcTemplate.update("delete from product_stock");
+        productRepository.deleteAll();
         userRepository.deleteAll();
     }
 
+    @Test
+    public void shouldExportActiveCustomersAsCsv() {
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ResponseEntity<String> response = httpClient.exchange(
+                CUSTOMER_RESOURCE + "/export?format=CSV",
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                String.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+        assertTrue(MediaType.parseMediaType("text/csv").isCompatibleWith(response.getHeaders().getContentType()),
+                "Response has unexpected content type");
+
+        String body = response.getBody();
+        assertNotNull(body, "Response body should not be null");
+
+        //Заголовок и по строке на каждого активного покупателя в порядке id, неактивный не выгружается
+        List<String> lines = body.lines().toList();
+        assertEquals("id,name,image_url,cart_items,cart_total_cost", lines.get(0), "Export has unexpected header");
+        assertEquals(4, lines.size(), "Export has unexpected number of rows");
+
+        List<String[]> rows = lines.stream().skip(1).map(x -> x.split(",", -1)).toList();
+        assertEquals(List.of("Jack", "Mike", "Lena"), rows.stream().map(x -> x[1]).toList(),
+                "Exported customers have unexpected names or order");
+        rows.forEach(x -> {
+            assertEquals(5, x.length, "Export row has unexpected number of columns");
+            assertEquals("0", x[3], "Empty cart should have no items");
+            assertEquals(0, new BigDecimal(x[4]).signum(), "Empty cart should have zero total cost");
+        });
+    }
+
+    @Test
+    public void shouldExportCustomersWithCartPositionsAsNdjsonInOneQueryPerChunk() throws Exception {
+        Product apple = new Product();
+        apple.setTitle("Export apple");
+        apple.setPrice(new BigDecimal("2.00"));
+        apple.setActive(true);
+
+        Product pear = new Product();
+        pear.setTitle("Export pear");
+        pear.setPrice(new BigDecimal("3.00"));
+        pear.setActive(true);
+        productRepository.saveAll(List.of(apple, pear));
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        List<Customer> customers = customerRepository.findAllByActiveTrue();
+
+        for (Customer customer : customers) {
+            for (Product product : List.of(apple, pear)) {
+                PositionUpdateDto updateDto = new PositionUpdateDto();
+                updateDto.setQuantity(2);
+                httpClient.postForEntity(
+                        String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId()),
+                        new HttpEntity<>(updateDto, httpHeaders),
+                        Void.class
+                );
+            }
+        }
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        ResponseEntity<String> response = httpClient.exchange(
+                CUSTOMER_RESOURCE + "/export?format=NDJSON",
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                String.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+
+        String body = response.getBody();
+        assertNotNull(body, "Response body should not be null");
+
+        List<String> lines = body.lines().toList();
+        assertEquals(customers.size(), lines.size(), "Export has unexpected number of rows");
+
+        for (String line : lines) {
+            CustomerDto exported = objectMapper.readValue(line, CustomerDto.class);
+            assertNotNull(exported.getCart(), "Exported customer should have cart");
+            assertEquals(Set.of("Export apple", "Export pear"),
+                    exported.getCart().getPositions().stream().map(x -> x.getProduct().getTitle()).collect(Collectors.toSet()),
+                    "Exported cart has unexpected positions");
+        }
+
+        //Покупатели одним потоковым запросом и позиции куска одним запросом, а не по запросу на покупателя.
+        //Третий запрос - загрузка администратора по email из тестового токена
+        assertEquals(0, statistics.getCollectionFetchCount(), "Cart positions should not be loaded lazily");
+        assertTrue(statistics.getPrepareStatementCount() <= 3,
+                "Customers export executed unexpected number of queries: " + statistics.getPrepareStatementCount());
+    }
+
     @Test
     public void shouldSaveCustomer() {
         CustomerSaveDto saveDto = new CustomerSaveDto();
@@ -182,6 +341,40 @@ class CustomerControllerTestIT {
         );
     }
 
+    @Test
+    public void shouldReturnActiveCustomersPageByCursor() {
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ResponseEntity<CustomerPageDto> firstResponse = httpClient.exchange(
+                CUSTOMER_RESOURCE + "/page?limit=2",
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                CustomerPageDto.class
+        );
+
+        assertEquals(HttpStatus.OK, firstResponse.getStatusCode(), "Response has unexpected status");
+
+        CustomerPageDto firstPage = firstResponse.getBody();
+        assertNotNull(firstPage, "Response body should not be null");
+        assertEquals(2, firstPage.getCustomers().size(), "First page has unexpected size");
+        assertNotNull(firstPage.getNextCursor(), "First page should have next cursor");
+        assertEquals(0, firstPage.getCustomers().get(0).getCartItemsCount(), "Empty cart has unexpected items count");
+
+        ResponseEntity<CustomerPageDto> secondResponse = httpClient.exchange(
+                CUSTOMER_RESOURCE + "/page?limit=2&after=" + firstPage.getNextCursor(),
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                CustomerPageDto.class
+        );
+
+        CustomerPageDto secondPage = secondResponse.getBody();
+        assertNotNull(secondPage, "Response body should not be null");
+        assertEquals(1, secondPage.getCustomers().size(), "Last page has unexpected size");
+        assertNull(secondPage.getNextCursor(), "Last page should not have next cursor");
+    }
+
     @Test
     public void shouldReturn400WhenUpdateWithEmptyName() {
         Customer customerBeforeUpdate = new Customer();
@@ -272,7 +465,7 @@ class CustomerControllerTestIT {
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
 
-        Customer customerAfterAddingProduct = customerRepository.findById(customer.getId()).orElse(null);
+        Customer customerAfterAddingProduct = customerRepository.findWithCartByIdAndActiveTrue(customer.getId()).orElse(null);
         Set<Position> positions = customerAfterAddingProduct.getCart().getPositions();
         assertNotNull(positions, "Positions in customer cart cannot be null");
         Position positionFromDb = positions.stream().toList().get(0);
@@ -280,4 +473,939 @@ class CustomerControllerTestIT {
         assertEquals(positionFromDb.getProduct().getTitle(), product.getTitle(), "Product name has unexpected name");
         assertEquals(positionFromDb.getQuantity(), updateDto.getQuantity(), "Position has unexpected quantity");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldReturnCartSummaryWithActiveProductsOnly() {
+        Product activeProduct = new Product();
+        activeProduct.setTitle("Orange");
+        activeProduct.setPrice(new BigDecimal("10.00"));
+        activeProduct.setActive(true);
+
+        Product inactiveProduct = new Product();
+        inactiveProduct.setTitle("Lemon");
+        inactiveProduct.setPrice(new BigDecimal("50.00"));
+        inactiveProduct.setActive(false);
+        productRepository.saveAll(List.of(activeProduct, inactiveProduct));
+
+        Customer customer = new Customer();
+        customer.setName("Olga");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        cart.setPositions(new HashSet<>(List.of(
+                new Position(activeProduct, 3, cart),
+                new Position(inactiveProduct, 2, cart)
+        )));
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ResponseEntity<CartSummaryDto> response = httpClient.exchange(
+                String.format("%s/%d/cart/summary", CUSTOMER_RESOURCE, customer.getId()),
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                CartSummaryDto.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+
+        CartSummaryDto summary = response.getBody();
+        assertNotNull(summary, "Response body should not be null");
+        assertEquals(3, summary.getItemsCount(), "Cart summary has unexpected items count");
+        assertEquals(new BigDecimal("30.00"), summary.getTotalCost(), "Cart summary has unexpected total cost");
+        assertEquals(new BigDecimal("10.00"), summary.getAveragePrice(), "Cart summary has unexpected average price");
+    }
+
+    //Количество SQL-запросов на эндпоинт: один запрос фильтра аутентификации за пользователем
+    //плюс один запрос самого эндпоинта, независимо от числа покупателей и позиций
+    @Test
+    public void shouldLoadCustomersListWithSingleQuery() {
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        ResponseEntity<String> response = httpClient.exchange(
+                CUSTOMER_RESOURCE,
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                String.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+        assertEquals(2, statistics.getPrepareStatementCount(), "Customers list executed unexpected number of queries");
+    }
+
+    @Test
+    public void shouldLoadCustomerWithCartAndProductsInSingleQuery() {
+        Product product1 = new Product();
+        product1.setTitle("Pear");
+        product1.setPrice(new BigDecimal("5.00"));
+        product1.setActive(true);
+
+        Product product2 = new Product();
+        product2.setTitle("Plum");
+        product2.setPrice(new BigDecimal("7.00"));
+        product2.setActive(true);
+        productRepository.saveAll(List.of(product1, product2));
+
+        Customer customer = new Customer();
+        customer.setName("Anna");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        cart.setPositions(new HashSet<>(List.of(
+                new Position(product1, 1, cart),
+                new Position(product2, 2, cart)
+        )));
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        ResponseEntity<CustomerDto> response = httpClient.exchange(
+                String.format("%s/%d", CUSTOMER_RESOURCE, customer.getId()),
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                CustomerDto.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+        assertNotNull(response.getBody(), "Response body should not be null");
+        assertEquals(2, response.getBody().getCart().getPositions().size(), "Customer cart has unexpected positions");
+        assertEquals(2, statistics.getPrepareStatementCount(), "Customer details executed unexpected number of queries");
+    }
+
+    @Test
+    public void shouldNotLoseConcurrentAddsOfSameProduct() throws Exception {
+        Customer customer = new Customer();
+        customer.setName("Ivan");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        Product product = new Product();
+        product.setTitle("Kiwi");
+        product.setPrice(new BigDecimal("2.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(1);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        String url = String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId());
+
+        int requests = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+
+        try {
+            List<Callable<HttpStatusCode>> tasks = IntStream.range(0, requests)
+                    .<Callable<HttpStatusCode>>mapToObj(i -> () -> httpClient.postForEntity(
+                            url, new HttpEntity<>(updateDto, httpHeaders), Void.class
+                    ).getStatusCode())
+                    .toList();
+
+            for (Future<HttpStatusCode> result : executor.invokeAll(tasks)) {
+                assertEquals(HttpStatus.OK, result.get(), "Response has unexpected status");
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Set<Position> positions = customerRepository.findWithCartByIdAndActiveTrue(customer.getId()).orElseThrow().getCart().getPositions();
+        assertEquals(1, positions.size(), "Same product should be stored in one position");
+        assertEquals(requests, positions.iterator().next().getQuantity(), "Concurrent adds lost an update");
+    }
+
+    @Test
+    public void shouldReturn400WhenQuantityExceedsLimit() {
+        Customer customer = new Customer();
+        customer.setName("Oleg");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        Product product = new Product();
+        product.setTitle("Mango");
+        product.setPrice(new BigDecimal("4.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(60);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        String url = String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId());
+
+        ResponseEntity<String> firstResponse = httpClient.postForEntity(url, new HttpEntity<>(updateDto, httpHeaders), String.class);
+        ResponseEntity<String> secondResponse = httpClient.postForEntity(url, new HttpEntity<>(updateDto, httpHeaders), String.class);
+
+        assertEquals(HttpStatus.OK, firstResponse.getStatusCode(), "Response has unexpected status");
+        assertEquals(HttpStatus.BAD_REQUEST, secondResponse.getStatusCode(), "Quantity above limit should be rejected");
+
+        Set<Position> positions = customerRepository.findWithCartByIdAndActiveTrue(customer.getId()).orElseThrow().getCart().getPositions();
+        assertEquals(60, positions.iterator().next().getQuantity(), "Rejected add should not change quantity");
+    }
+
+    @Test
+    public void shouldApplyCartOperationsBatch() {
+        Customer customer = new Customer();
+        customer.setName("Sofia");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        Product product1 = new Product();
+        product1.setTitle("Grape");
+        product1.setPrice(new BigDecimal("3.00"));
+        product1.setActive(true);
+
+        Product product2 = new Product();
+        product2.setTitle("Melon");
+        product2.setPrice(new BigDecimal("8.00"));
+        product2.setActive(true);
+        productRepository.saveAll(List.of(product1, product2));
+
+        List<CartOperationDto> operations = List.of(
+                new CartOperationDto(CartOperationType.ADD, product1.getId(), 3),
+                new CartOperationDto(CartOperationType.SET, product2.getId(), 2),
+                new CartOperationDto(CartOperationType.REMOVE, product1.getId(), 1)
+        );
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ResponseEntity<CartSummaryDto> response = httpClient.postForEntity(
+                String.format("%s/%d/cart/items/batch", CUSTOMER_RESOURCE, customer.getId()),
+                new HttpEntity<>(operations, httpHeaders),
+                CartSummaryDto.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+
+        CartSummaryDto summary = response.getBody();
+        assertNotNull(summary, "Response body should not be null");
+        assertEquals(4, summary.getItemsCount(), "Cart summary has unexpected items count");
+        assertEquals(new BigDecimal("22.00"), summary.getTotalCost(), "Cart summary has unexpected total cost");
+    }
+
+    @Test
+    public void shouldRetryConcurrentBatchesWithoutLosingUpdates() throws Exception {
+        Product product = new Product();
+        product.setTitle("Nectarine");
+        product.setPrice(new BigDecimal("1.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        Customer customer = new Customer();
+        customer.setName("Taras");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        cart.setPositions(new HashSet<>(List.of(new Position(product, 1, cart))));
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        String batchUrl = String.format("%s/%d/cart/items/batch", CUSTOMER_RESOURCE, customer.getId());
+        List<CartOperationDto> operations = List.of(new CartOperationDto(CartOperationType.ADD, product.getId(), 1));
+
+        //Пакеты читают одну и ту же позицию и пишут её с проверкой версии
+        int threads = 8;
+        double retriesBefore = operationRetries("batch");
+        int applied = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int round = 0; round < 10 && operationRetries("batch") == retriesBefore; round++) {
+                List<Callable<HttpStatusCode>> tasks = IntStream.range(0, threads)
+                        .<Callable<HttpStatusCode>>mapToObj(i -> () -> httpClient.postForEntity(
+                                batchUrl, new HttpEntity<>(operations, httpHeaders), String.class
+                        ).getStatusCode())
+                        .toList();
+
+                for (Future<HttpStatusCode> result : executor.invokeAll(tasks)) {
+                    if (result.get() == HttpStatus.OK) {
+                        applied++;
+                    } else {
+                        assertEquals(HttpStatus.CONFLICT, result.get(), "Response has unexpected status");
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(operationRetries("batch") > retriesBefore, "Concurrent batches should conflict and be retried");
+        assertEquals(1 + applied, jdbcTemplate.queryForObject(
+                "select quantity from position where cart_id = ?", Integer.class, cart.getId()
+        ), "Every successful batch should be applied exactly once");
+    }
+
+    @Test
+    public void shouldRetryConcurrentRemovesOnVersionConflicts() throws Exception {
+        Product product = new Product();
+        product.setTitle("Olive");
+        product.setPrice(new BigDecimal("1.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        Customer customer = new Customer();
+        customer.setName("Ulyan");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        cart.setPositions(new HashSet<>(List.of(new Position(product, 90, cart))));
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(1);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        String removeUrl = String.format("%s/%d/cart/items/%d/remove", CUSTOMER_RESOURCE, customer.getId(), product.getId());
+
+        //Уменьшения читают одну и ту же позицию без блокировки и пишут её с проверкой версии
+        int threads = 8;
+        double retriesBefore = operationRetries("remove");
+        int applied = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int round = 0; round < 10 && operationRetries("remove") == retriesBefore; round++) {
+                List<Callable<HttpStatusCode>> tasks = IntStream.range(0, threads)
+                        .<Callable<HttpStatusCode>>mapToObj(i -> () -> httpClient.exchange(
+                                removeUrl, HttpMethod.PUT, new HttpEntity<>(updateDto, httpHeaders), String.class
+                        ).getStatusCode())
+                        .toList();
+
+                for (Future<HttpStatusCode> result : executor.invokeAll(tasks)) {
+                    if (result.get() == HttpStatus.OK) {
+                        applied++;
+                    } else {
+                        assertEquals(HttpStatus.CONFLICT, result.get(), "Response has unexpected status");
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(operationRetries("remove") > retriesBefore, "Concurrent removes should conflict and be retried");
+        assertEquals(90 - applied, jdbcTemplate.queryForObject(
+                "select quantity from position where cart_id = ?", Integer.class, cart.getId()
+        ), "Every successful remove should be applied exactly once");
+    }
+
+    private double operationRetries(String operation) {
+        Counter counter = meterRegistry.find("cart.operation.retries").tag("operation", operation).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    @Test
+    public void shouldMaintainCartTotalsAndRepairDrift() {
+        Customer customer = new Customer();
+        customer.setName("Pavel");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        Product product = new Product();
+        product.setTitle("Papaya");
+        product.setPrice(new BigDecimal("5.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(4);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        String itemUrl = String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId());
+        String summaryUrl = String.format("%s/%d/cart/summary", CUSTOMER_RESOURCE, customer.getId());
+
+        httpClient.postForEntity(itemUrl, new HttpEntity<>(updateDto, httpHeaders), Void.class);
+        updateDto.setQuantity(1);
+        httpClient.exchange(itemUrl + "/remove", HttpMethod.PUT, new HttpEntity<>(updateDto, httpHeaders), Void.class);
+
+        CartSummaryDto summary = httpClient.exchange(
+                summaryUrl, HttpMethod.GET, new HttpEntity<>(httpHeaders), CartSummaryDto.class
+        ).getBody();
+        assertNotNull(summary, "Response body should not be null");
+        assertEquals(3, summary.getItemsCount(), "Cart summary has unexpected items count");
+        assertEquals(new BigDecimal("15.00"), summary.getTotalCost(), "Cart summary has unexpected total cost");
+
+        //Цена меняется в обход сервиса - итоги корзины расходятся с позициями до сверки
+        product.setPrice(new BigDecimal("6.00"));
+        productRepository.save(product);
+
+        assertTrue(cartTotalsService.verify() >= 1, "Verification should find drifted cart");
+
+        summary = httpClient.exchange(
+                summaryUrl, HttpMethod.GET, new HttpEntity<>(httpHeaders), CartSummaryDto.class
+        ).getBody();
+        assertNotNull(summary, "Response body should not be null");
+        assertEquals(new BigDecimal("18.00"), summary.getTotalCost(), "Verification should repair cart total cost");
+    }
+
+    @Test
+    public void shouldNotOversellProductStock() throws Exception {
+        Customer customer = new Customer();
+        customer.setName("Nina");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        Product product = new Product();
+        product.setTitle("Pomelo");
+        product.setPrice(new BigDecimal("7.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        String stockUrl = String.format("/products/%d/stock", product.getId());
+        String itemUrl = String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId());
+
+        ProductStockDto stockDto = new ProductStockDto();
+        stockDto.setStock(5);
+        httpClient.exchange(stockUrl, HttpMethod.PUT, new HttpEntity<>(stockDto, httpHeaders), ProductStockDto.class);
+
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(1);
+
+        int requests = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        int reserved = 0;
+
+        try {
+            List<Callable<HttpStatusCode>> tasks = IntStream.range(0, requests)
+                    .<Callable<HttpStatusCode>>mapToObj(i -> () -> httpClient.postForEntity(
+                            itemUrl, new HttpEntity<>(updateDto, httpHeaders), String.class
+                    ).getStatusCode())
+                    .toList();
+
+            for (Future<HttpStatusCode> result : executor.invokeAll(tasks)) {
+                if (result.get() == HttpStatus.OK) {
+                    reserved++;
+                } else {
+                    assertEquals(HttpStatus.CONFLICT, result.get(), "Response has unexpected status");
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(5, reserved, "Only available stock should be reserved");
+        ProductStockDto stock = httpClient.exchange(
+                stockUrl, HttpMethod.GET, new HttpEntity<>(httpHeaders), ProductStockDto.class
+        ).getBody();
+        assertNotNull(stock, "Response body should not be null");
+        assertEquals(0, stock.getStock(), "Stock should be fully reserved");
+
+        httpClient.exchange(
+                String.format("%s/%d/cart/items", CUSTOMER_RESOURCE, customer.getId()),
+                HttpMethod.DELETE, new HttpEntity<>(httpHeaders), Void.class
+        );
+
+        stock = httpClient.exchange(
+                stockUrl, HttpMethod.GET, new HttpEntity<>(httpHeaders), ProductStockDto.class
+        ).getBody();
+        assertNotNull(stock, "Response body should not be null");
+        assertEquals(5, stock.getStock(), "Clearing the cart should release reserved stock");
+    }
+
+    @Test
+    public void shouldExpireReservationOfAbandonedCartAndReserveAgainOnNextChange() {
+        Customer customer = new Customer();
+        customer.setName("Oleg");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        Product product = new Product();
+        product.setTitle("Kumquat");
+        product.setPrice(new BigDecimal("2.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        String stockUrl = String.format("/products/%d/stock", product.getId());
+        String itemUrl = String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId());
+
+        ProductStockDto stockDto = new ProductStockDto();
+        stockDto.setStock(5);
+        httpClient.exchange(stockUrl, HttpMethod.PUT, new HttpEntity<>(stockDto, httpHeaders), ProductStockDto.class);
+
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(3);
+        httpClient.postForEntity(itemUrl, new HttpEntity<>(updateDto, httpHeaders), Void.class);
+
+        jdbcTemplate.update(
+                "update cart set updated_at = ? where id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusHours(1)), cart.getId()
+        );
+
+        assertEquals(1, stockService.releaseAbandoned(), "Reservation of abandoned cart should expire");
+        assertEquals(5, stockService.getStock(product.getId()).getStock(), "Expired reservation should return to stock");
+        assertEquals(Boolean.FALSE, jdbcTemplate.queryForObject(
+                "select reserved from position where cart_id = ?", Boolean.class, cart.getId()
+        ), "Position should stay in the cart without reservation");
+
+        //Пока корзина была заброшена, остаток разобрали
+        stockDto.setStock(3);
+        httpClient.exchange(stockUrl, HttpMethod.PUT, new HttpEntity<>(stockDto, httpHeaders), ProductStockDto.class);
+
+        updateDto.setQuantity(1);
+        ResponseEntity<String> rejected = httpClient.postForEntity(itemUrl, new HttpEntity<>(updateDto, httpHeaders), String.class);
+        assertEquals(HttpStatus.CONFLICT, rejected.getStatusCode(), "Change should fail when the whole position cannot be reserved again");
+        assertEquals(3, jdbcTemplate.queryForObject(
+                "select quantity from position where cart_id = ?", Integer.class, cart.getId()
+        ), "Rejected change should keep the position");
+
+        stockDto.setStock(4);
+        httpClient.exchange(stockUrl, HttpMethod.PUT, new HttpEntity<>(stockDto, httpHeaders), ProductStockDto.class);
+
+        ResponseEntity<String> response = httpClient.postForEntity(itemUrl, new HttpEntity<>(updateDto, httpHeaders), String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+        assertEquals(0, stockService.getStock(product.getId()).getStock(), "Change should reserve the whole position again");
+    }
+
+    @Test
+    public void shouldExpireReservationOfAbandonedCartAndReserveAgainAtCheckout() {
+        Customer customer = new Customer();
+        customer.setName("Oleg");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        Product product = new Product();
+        product.setTitle("Kumquat");
+        product.setPrice(new BigDecimal("2.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        String stockUrl = String.format("/products/%d/stock", product.getId());
+        String checkoutUrl = String.format("%s/%d/checkout", CUSTOMER_RESOURCE, customer.getId());
+
+        ProductStockDto stockDto = new ProductStockDto();
+        stockDto.setStock(5);
+        httpClient.exchange(stockUrl, HttpMethod.PUT, new HttpEntity<>(stockDto, httpHeaders), ProductStockDto.class);
+
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(3);
+        httpClient.postForEntity(
+                String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId()),
+                new HttpEntity<>(updateDto, httpHeaders),
+                Void.class
+        );
+
+        jdbcTemplate.update(
+                "update cart set updated_at = ? where id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusHours(1)), cart.getId()
+        );
+
+        assertEquals(1, stockService.releaseAbandoned(), "Reservation of abandoned cart should expire");
+        assertEquals(5, stockService.getStock(product.getId()).getStock(), "Expired reservation should return to stock");
+        assertEquals(Boolean.FALSE, jdbcTemplate.queryForObject(
+                "select reserved from position where cart_id = ?", Boolean.class, cart.getId()
+        ), "Position should stay in the cart without reservation");
+
+        //Пока корзина была заброшена, остаток разобрали
+        stockDto.setStock(2);
+        httpClient.exchange(stockUrl, HttpMethod.PUT, new HttpEntity<>(stockDto, httpHeaders), ProductStockDto.class);
+
+        ResponseEntity<String> rejected = httpClient.postForEntity(checkoutUrl, new HttpEntity<>(httpHeaders), String.class);
+        assertEquals(HttpStatus.CONFLICT, rejected.getStatusCode(), "Checkout should fail when stock cannot be reserved again");
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "select count(*) from position where cart_id = ?", Integer.class, cart.getId()
+        ), "Rejected checkout should keep the cart");
+
+        stockDto.setStock(3);
+        httpClient.exchange(stockUrl, HttpMethod.PUT, new HttpEntity<>(stockDto, httpHeaders), ProductStockDto.class);
+
+        ResponseEntity<OrderDto> response = httpClient.postForEntity(checkoutUrl, new HttpEntity<>(httpHeaders), OrderDto.class);
+        assertEquals(HttpStatus.CREATED, response.getStatusCode(), "Response has unexpected status");
+        assertEquals(0, stockService.getStock(product.getId()).getStock(), "Checkout should reserve the stock again");
+    }
+
+    @Test
+    public void shouldCheckoutCartAndReturnOrderHistoryByCursor() {
+        Product product = new Product();
+        product.setTitle("Quince");
+        product.setPrice(new BigDecimal("10.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        Customer customer = new Customer();
+        customer.setName("Denis");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        cart.setPositions(new HashSet<>(List.of(new Position(product, 3, cart))));
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        String checkoutUrl = String.format("%s/%d/checkout", CUSTOMER_RESOURCE, customer.getId());
+        String ordersUrl = String.format("%s/%d/orders", CUSTOMER_RESOURCE, customer.getId());
+
+        ResponseEntity<OrderDto> firstResponse = httpClient.postForEntity(
+                checkoutUrl, new HttpEntity<>(httpHeaders), OrderDto.class
+        );
+
+        assertEquals(HttpStatus.CREATED, firstResponse.getStatusCode(), "Response has unexpected status");
+        OrderDto firstOrder = firstResponse.getBody();
+        assertNotNull(firstOrder, "Response body should not be null");
+        assertEquals(3, firstOrder.getItemsCount(), "Order has unexpected items count");
+        assertEquals(new BigDecimal("30.00"), firstOrder.getTotalCost(), "Order has unexpected total cost");
+
+        ResponseEntity<String> emptyResponse = httpClient.postForEntity(
+                checkoutUrl, new HttpEntity<>(httpHeaders), String.class
+        );
+        assertEquals(HttpStatus.BAD_REQUEST, emptyResponse.getStatusCode(), "Empty cart should not be checked out");
+
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(2);
+        httpClient.postForEntity(
+                String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId()),
+                new HttpEntity<>(updateDto, httpHeaders),
+                Void.class
+        );
+
+        //Заказ хранит цену на момент оформления
+        product.setPrice(new BigDecimal("12.00"));
+        productRepository.save(product);
+
+        OrderDto secondOrder = httpClient.postForEntity(checkoutUrl, new HttpEntity<>(httpHeaders), OrderDto.class).getBody();
+        assertNotNull(secondOrder, "Response body should not be null");
+        assertEquals(new BigDecimal("24.00"), secondOrder.getTotalCost(), "Order has unexpected total cost");
+
+        OrderPageDto firstPage = httpClient.exchange(
+                ordersUrl + "?limit=1", HttpMethod.GET, new HttpEntity<>(httpHeaders), OrderPageDto.class
+        ).getBody();
+        assertNotNull(firstPage, "Response body should not be null");
+        assertEquals(1, firstPage.getOrders().size(), "Orders page has unexpected size");
+        assertEquals(secondOrder.getId(), firstPage.getOrders().get(0).getId(), "Newest order should come first");
+        assertEquals(secondOrder.getId(), firstPage.getNextCursor(), "Orders page has unexpected cursor");
+
+        OrderPageDto secondPage = httpClient.exchange(
+                ordersUrl + "?limit=1&before=" + firstPage.getNextCursor(),
+                HttpMethod.GET, new HttpEntity<>(httpHeaders), OrderPageDto.class
+        ).getBody();
+        assertNotNull(secondPage, "Response body should not be null");
+        assertEquals(firstOrder.getId(), secondPage.getOrders().get(0).getId(), "Older order should be on next page");
+        assertEquals(new BigDecimal("10.00"), secondPage.getOrders().get(0).getLines().get(0).getPrice(),
+                "Order line should keep the price at checkout");
+        assertNull(secondPage.getNextCursor(), "Last page should not have cursor");
+    }
+
+    @Test
+    public void shouldCheckoutConcurrentCartsInBatches() throws Exception {
+        Product product = new Product();
+        product.setTitle("Feijoa");
+        product.setPrice(new BigDecimal("1.50"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        List<Customer> customers = Stream.of("Alla", "Boris", "Vera", "Gleb", "Dina", "Egor", "Zoya", "Ilya")
+                .map(name -> {
+                    Customer customer = new Customer();
+                    customer.setName(name);
+                    Cart cart = new Cart();
+                    customer.setCart(cart);
+                    cart.setCustomer(customer);
+                    cart.setPositions(new HashSet<>(List.of(new Position(product, 2, cart))));
+                    customer.setActive(true);
+                    return customerRepository.save(customer);
+                })
+                .toList();
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ExecutorService executor = Executors.newFixedThreadPool(customers.size());
+
+        try {
+            List<Callable<ResponseEntity<OrderDto>>> tasks = customers.stream()
+                    .<Callable<ResponseEntity<OrderDto>>>map(customer -> () -> httpClient.postForEntity(
+                            String.format("%s/%d/checkout", CUSTOMER_RESOURCE, customer.getId()),
+                            new HttpEntity<>(httpHeaders),
+                            OrderDto.class
+                    ))
+                    .toList();
+
+            Set<Long> orderIds = new HashSet<>();
+
+            for (Future<ResponseEntity<OrderDto>> result : executor.invokeAll(tasks)) {
+                assertEquals(HttpStatus.CREATED, result.get().getStatusCode(), "Response has unexpected status");
+                assertNotNull(result.get().getBody(), "Response body should not be null");
+                assertEquals(new BigDecimal("3.00"), result.get().getBody().getTotalCost(), "Order has unexpected total cost");
+                orderIds.add(result.get().getBody().getId());
+            }
+
+            assertEquals(customers.size(), orderIds.size(), "Every checkout should create its own order");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldPurgePositionsOfAbandonedCarts() {
+        Product product = new Product();
+        product.setTitle("Lychee");
+        product.setPrice(new BigDecimal("4.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        Customer customer = new Customer();
+        customer.setName("Rita");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        cart.setPositions(new HashSet<>(List.of(new Position(product, 2, cart))));
+        customer.setActive(false);
+        customerRepository.save(customer);
+
+        jdbcTemplate.update(
+                "update cart set updated_at = ? where id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(30)), cart.getId()
+        );
+
+        Map<String, Long> purged = purgeService.purge();
+
+        assertTrue(purged.getOrDefault("abandoned-carts", 0L) >= 1, "Abandoned cart should be purged");
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "select count(*) from position where cart_id = ?", Integer.class, cart.getId()
+        ), "Abandoned cart positions should be deleted");
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "select item_count from cart where id = ?", Integer.class, cart.getId()
+        ), "Abandoned cart totals should be reset");
+    }
+
+    @Test
+    public void shouldNotReturnExpiredReservationTwiceWhenPurgingAbandonedCart() {
+        Product product = new Product();
+        product.setTitle("Mangosteen");
+        product.setPrice(new BigDecimal("3.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        Customer customer = new Customer();
+        customer.setName("Zlata");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        stockService.setStock(product.getId(), 5);
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(2);
+        httpClient.postForEntity(
+                String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId()),
+                new HttpEntity<>(updateDto, httpHeaders),
+                Void.class
+        );
+        assertEquals(3, stockService.getStock(product.getId()).getStock(), "Stock should be reserved by the cart");
+
+        jdbcTemplate.update(
+                "update cart set updated_at = ? where id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(100)), cart.getId()
+        );
+
+        //Сначала срок резерва, затем срок хранения позиций - обе задачи смотрят на один cart.updated_at
+        stockService.releaseAbandoned();
+        assertEquals(5, stockService.getStock(product.getId()).getStock(), "Expired reservation should return to stock");
+
+        purgeService.purge();
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "select count(*) from position where cart_id = ?", Integer.class, cart.getId()
+        ), "Abandoned cart positions should be deleted");
+        assertEquals(5, stockService.getStock(product.getId()).getStock(), "Purge should not return the reservation again");
+    }
+
+    @Test
+    public void shouldNotReturnExpiredReservationTwiceWhenArchivingCustomer() {
+        Product product = new Product();
+        product.setTitle("Rambutan");
+        product.setPrice(new BigDecimal("4.00"));
+        product.setActive(true);
+        productRepository.save(product);
+
+        Customer customer = new Customer();
+        customer.setName("Yaroslav");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(true);
+        customerRepository.save(customer);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        stockService.setStock(product.getId(), 5);
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(2);
+        httpClient.postForEntity(
+                String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId()),
+                new HttpEntity<>(updateDto, httpHeaders),
+                Void.class
+        );
+        assertEquals(3, stockService.getStock(product.getId()).getStock(), "Stock should be reserved by the cart");
+
+        jdbcTemplate.update(
+                "update cart set updated_at = ? where id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(100)), cart.getId()
+        );
+        stockService.releaseAbandoned();
+        assertEquals(5, stockService.getStock(product.getId()).getStock(), "Expired reservation should return to stock");
+
+        //Покупатель удалён давно: архивирование переносит его вместе с корзиной, позиция которой уже без резерва
+        jdbcTemplate.update(
+                "update customer set active = false, deactivated_at = ? where id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(365)), customer.getId()
+        );
+        archiveService.archive();
+
+        assertTrue(archiveService.isCustomerArchived(customer.getId()), "Long inactive customer should be archived");
+        assertEquals(5, stockService.getStock(product.getId()).getStock(), "Archiving should not return the reservation again");
+    }
+
+    @Test
+    public void shouldArchiveLongInactiveCustomerAndRestoreItFromArchive() {
+        Customer customer = new Customer();
+        customer.setName("Olga");
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(false);
+        customerRepository.save(customer);
+
+        jdbcTemplate.update(
+                "update customer set deactivated_at = ? where id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(365)), customer.getId()
+        );
+
+        Map<String, Long> archived = archiveService.archive();
+
+        assertTrue(archived.getOrDefault("customers", 0L) >= 1, "Long inactive customer should be archived");
+        assertFalse(customerRepository.existsById(customer.getId()), "Archived customer should leave customer table");
+        assertTrue(archiveService.isCustomerArchived(customer.getId()), "Archived customer should be in archive table");
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "select count(*) from cart where customer_id = ?", Integer.class, customer.getId()
+        ), "Cart of archived customer should be deleted");
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ResponseEntity<Void> restoreResponse = httpClient.exchange(
+                String.format("%s/%d/restore", CUSTOMER_RESOURCE, customer.getId()),
+                HttpMethod.PUT,
+                new HttpEntity<>(httpHeaders),
+                Void.class
+        );
+
+        assertEquals(HttpStatus.OK, restoreResponse.getStatusCode(), "Archived customer should be restored");
+        assertFalse(archiveService.isCustomerArchived(customer.getId()), "Restored customer should leave archive table");
+
+        ResponseEntity<CustomerDto> response = httpClient.exchange(
+                String.format("%s/%d", CUSTOMER_RESOURCE, customer.getId()),
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                CustomerDto.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Restored customer should be active");
+        assertNotNull(response.getBody());
+        assertEquals("Olga", response.getBody().getName(), "Restored customer should keep its name");
+        assertNotNull(response.getBody().getCart(), "Restored customer should get an empty cart");
+    }
+
+    @Test
+    public void shouldFindActiveCustomersByNamePrefix() {
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        CustomerSaveDto saveDto = new CustomerSaveDto();
+        saveDto.setName("Vasilisa premudraya");
+        CustomerDto saved = httpClient.postForEntity(
+                CUSTOMER_RESOURCE, new HttpEntity<>(saveDto, httpHeaders), CustomerDto.class
+        ).getBody();
+        assertNotNull(saved, "Saved customer should not be null");
+
+        String searchUrl = CUSTOMER_RESOURCE + "/search?name=vas prem";
+        ParameterizedTypeReference<List<CustomerSummaryDto>> listType = new ParameterizedTypeReference<>() {
+        };
+
+        ResponseEntity<List<CustomerSummaryDto>> response = httpClient.exchange(
+                searchUrl, HttpMethod.GET, new HttpEntity<>(httpHeaders), listType
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+        assertNotNull(response.getBody(), "Response body should not be null");
+        assertEquals(1, response.getBody().size(), "Search returned unexpected number of customers");
+        assertEquals(saved.getId(), response.getBody().get(0).getId(), "Found customer has incorrect id");
+
+        httpClient.exchange(
+                String.format("%s/%d", CUSTOMER_RESOURCE, saved.getId()),
+                HttpMethod.DELETE, new HttpEntity<>(httpHeaders), Void.class
+        );
+
+        response = httpClient.exchange(searchUrl, HttpMethod.GET, new HttpEntity<>(httpHeaders), listType);
+
+        assertNotNull(response.getBody(), "Response body should not be null");
+        assertTrue(response.getBody().isEmpty(), "Deleted customer should not be found");
+    }
+}
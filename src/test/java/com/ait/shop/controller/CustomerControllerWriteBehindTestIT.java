@@ -0,0 +1,511 @@
+package com.ait.shop.controller;
+
+import com.ait.shop.constants.Constants;
+import com.ait.shop.domain.*;
+import com.ait.shop.domain.enums.Role;
+import com.ait.shop.dto.order.OrderDto;
+import com.ait.shop.dto.position.PositionUpdateDto;
+import com.ait.shop.exceptions.types.ConcurrentUpdateException;
+import com.ait.shop.exceptions.types.EntityNotFoundException;
+import com.ait.shop.repository.CustomerRepository;
+import com.ait.shop.repository.ProductRepository;
+import com.ait.shop.repository.UserRepository;
+import com.ait.shop.service.WriteBehindCartStore;
+import com.ait.shop.service.interfaces.CartTotalsService;
+import com.ait.shop.service.interfaces.ProductStockService;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.crypto.SecretKey;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+//Корзины в режиме write-behind: фоновый сброс по интервалу в контексте отключён, сброс по порогу - от 3 корзин
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "cart.storage.mode=write-behind",
+                "cart.storage.write-behind.flush-interval-ms=3600000",
+                "cart.storage.write-behind.flush-threshold=3"
+        }
+)
+class CustomerControllerWriteBehindTestIT {
+
+    @Autowired
+    private TestRestTemplate httpClient;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private BCryptPasswordEncoder passwordEncoder;
+
+    @Autowired
+    private WriteBehindCartStore cartStore;
+
+    @Autowired
+    private CartTotalsService cartTotalsService;
+
+    @Autowired
+    private ProductStockService stockService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${KEY_PHRASE_ACCESS}")
+    private String accessPhrase;
+    private HttpHeaders httpHeaders;
+
+    private static final String CUSTOMER_RESOURCE = "/customers";
+
+    @BeforeEach
+    public void setUp() {
+        User admin = new User();
+        admin.setEmail("admin@test.com");
+        admin.setPassword(passwordEncoder.encode("adminPass"));
+        admin.setName("Admin");
+        admin.setRole(Role.ROLE_ADMIN);
+        admin.setConfirmed(true);
+        userRepository.save(admin);
+
+        SecretKey secretKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(accessPhrase));
+        String adminAccessToken = Jwts.builder()
+                .subject("admin@test.com")
+                .expiration(new Date(System.currentTimeMillis() + 60 * 1000))
+                .signWith(secretKey)
+                .compact();
+
+        httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken);
+    }
+
+    @AfterEach
+    public void cleanDatabase() {
+        cartStore.flushAll();
+        jdbcTemplate.update("delete from cart_reservation");
+        customerRepository.deleteAll();
+        jdbcTemplate.update("delete from product_stock");
+        productRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void shouldFlushCartsWhenDirtyThresholdReached() {
+        Product product = saveProduct("Apricot", "2.00");
+        List<Customer> customers = List.of(saveCustomer("Olga"), saveCustomer("Petr"));
+
+        customers.forEach(customer -> addItem(customer, product, 1));
+        assertEquals(0, countPositions(customers), "Below the threshold positions should stay in memory");
+
+        Customer third = saveCustomer("Roman");
+        addItem(third, product, 1);
+
+        await(() -> countPositions(List.of(customers.get(0), customers.get(1), third)) == 3,
+                "Reaching the threshold should flush all dirty carts");
+    }
+
+    @Test
+    public void shouldFlushCartsByIntervalAndOnShutdown() throws InterruptedException {
+        Product product = saveProduct("Avocado", "3.00");
+        Customer customer = saveCustomer("Semen");
+        WriteBehindCartStore store = newStore(100, 1);
+
+        try {
+            assertTrue(store.add(customer.getId(), product.getId(), 2), "Item should be added");
+            await(() -> positionQuantity(customer, product) == 2, "Interval flush should write the position");
+        } finally {
+            store.shutdown();
+        }
+
+        WriteBehindCartStore idleStore = newStore(3600000, 1);
+        idleStore.add(customer.getId(), product.getId(), 3);
+        assertEquals(2, positionQuantity(customer, product), "Change should not be written before a flush");
+
+        idleStore.shutdown();
+        assertEquals(5, positionQuantity(customer, product), "Shutdown should flush unwritten changes");
+    }
+
+    @Test
+    public void shouldLoadCartFromDatabaseOnMiss() {
+        Product product = saveProduct("Bergamot", "5.00");
+        Customer customer = saveCustomer("Taisia");
+        jdbcTemplate.update(
+                "insert into position (cart_id, product_id, quantity) values (?, ?, ?)",
+                customer.getCart().getId(), product.getId(), 4
+        );
+
+        addItem(customer, product, 1);
+        cartStore.flush(customer.getId());
+
+        assertEquals(5, positionQuantity(customer, product), "Cart should be loaded from the database before the change");
+    }
+
+    @Test
+    public void shouldCheckoutUnflushedCartInWriteBehindMode() {
+        Product product = saveProduct("Cherimoya", "6.00");
+        Customer customer = saveCustomer("Ulyana");
+        String checkoutUrl = String.format("%s/%d/checkout", CUSTOMER_RESOURCE, customer.getId());
+
+        addItem(customer, product, 3);
+        assertEquals(0, countPositions(List.of(customer)), "Change should still be in memory");
+
+        ResponseEntity<OrderDto> response = httpClient.postForEntity(checkoutUrl, new HttpEntity<>(httpHeaders), OrderDto.class);
+
+        assertEquals(HttpStatus.CREATED, response.getStatusCode(), "Response has unexpected status");
+        assertNotNull(response.getBody(), "Response body should not be null");
+        assertEquals(3, response.getBody().getItemsCount(), "Order should include unflushed changes");
+        assertEquals(new BigDecimal("18.00"), response.getBody().getTotalCost(), "Order has unexpected total cost");
+        assertEquals(0, countPositions(List.of(customer)), "Checked out positions should be removed");
+
+        //После оформления корзина перечитывается из БД и снова принимает изменения
+        addItem(customer, product, 1);
+        cartStore.flush(customer.getId());
+        assertEquals(1, positionQuantity(customer, product), "Cart should accept changes after checkout");
+    }
+
+    @Test
+    public void shouldRejectChangesOfDeletedCustomerCart() {
+        Product product = saveProduct("Cloudberry", "4.00");
+        Customer customer = saveCustomer("Ulyana");
+        String customerUrl = String.format("%s/%d", CUSTOMER_RESOURCE, customer.getId());
+
+        addItem(customer, product, 2);
+
+        ResponseEntity<Void> deleteResponse = httpClient.exchange(
+                customerUrl, HttpMethod.DELETE, new HttpEntity<>(httpHeaders), Void.class
+        );
+        assertEquals(HttpStatus.NO_CONTENT, deleteResponse.getStatusCode(), "Response has unexpected status");
+        assertEquals(2, positionQuantity(customer, product), "Deletion should flush changes accepted before it");
+
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(1);
+        ResponseEntity<String> response = httpClient.postForEntity(
+                String.format("%s/cart/items/%d", customerUrl, product.getId()),
+                new HttpEntity<>(updateDto, httpHeaders),
+                String.class
+        );
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode(), "Deleted customer cart should reject changes");
+        cartStore.flushAll();
+        assertEquals(2, positionQuantity(customer, product), "Rejected change should not be written");
+    }
+
+    @Test
+    public void shouldReopenUnflushedCartOfRestoredCustomer() throws InterruptedException {
+        Product product = saveProduct("Crowberry", "1.00");
+        Product poison = saveProduct("Damson", "1.00");
+        Customer customer = saveCustomer("Ulyana");
+        WriteBehindCartStore store = newStore(3600000, 5);
+
+        try {
+            store.add(customer.getId(), poison.getId(), 1);
+            //Позиция ещё не в БД, поэтому продукт удаляется - сброс при вытеснении не запишется
+            jdbcTemplate.update("delete from product where id = ?", poison.getId());
+
+            store.evict(customer.getId());
+            assertThrows(EntityNotFoundException.class, () -> store.add(customer.getId(), product.getId(), 1),
+                    "Cart of deleted customer should reject changes");
+
+            store.reactivate(customer.getId());
+            assertTrue(store.add(customer.getId(), product.getId(), 1), "Cart of restored customer should accept changes");
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRejectChangesOfCartBeingCheckedOutWithoutBlockingItsStripe() throws Exception {
+        Product product = saveProduct("Clementine", "2.00");
+        Customer customer = saveCustomer("Ulyana");
+        Customer neighbour = saveCustomer("Vera");
+        //Одна полоса: без снятия блокировки на время оформления сосед ждал бы заказ
+        WriteBehindCartStore store = newStore(3600000, 2, 1);
+
+        try {
+            store.add(customer.getId(), product.getId(), 2);
+
+            Long cartId = store.checkout(customer.getId(), checkoutCartId -> {
+                CompletableFuture<Boolean> neighbourAdd = CompletableFuture.supplyAsync(
+                        () -> store.add(neighbour.getId(), product.getId(), 1)
+                );
+                CompletableFuture<Boolean> ownAdd = CompletableFuture.supplyAsync(
+                        () -> store.add(customer.getId(), product.getId(), 1)
+                );
+
+                try {
+                    assertTrue(neighbourAdd.get(5, TimeUnit.SECONDS), "Neighbour cart should not wait for the checkout");
+                    ExecutionException e = assertThrows(ExecutionException.class, () -> ownAdd.get(5, TimeUnit.SECONDS));
+                    assertInstanceOf(ConcurrentUpdateException.class, e.getCause(), "Cart being checked out should reject changes");
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return checkoutCartId;
+            });
+
+            assertEquals(customer.getCart().getId(), cartId, "Checkout should get the customer cart");
+            assertEquals(2, positionQuantity(customer, product), "Checkout should see the flushed cart");
+
+            //После оформления корзина снова принимает изменения
+            assertTrue(store.add(customer.getId(), product.getId(), 1), "Cart should accept changes after checkout");
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRetryCartsOneByOneAndDeadLetterPoisonedCart() throws InterruptedException {
+        Product product = saveProduct("Damson", "1.00");
+        Product poison = saveProduct("Elderberry", "1.00");
+        Customer healthy = saveCustomer("Vlad");
+        Customer poisoned = saveCustomer("Yana");
+        WriteBehindCartStore store = newStore(3600000, 2);
+
+        try {
+            store.add(healthy.getId(), product.getId(), 1);
+            store.add(poisoned.getId(), poison.getId(), 1);
+            //Позиция ещё не в БД, поэтому продукт удаляется - её вставка нарушит внешний ключ
+            jdbcTemplate.update("delete from product where id = ?", poison.getId());
+
+            store.flushAll();
+            assertEquals(1, positionQuantity(healthy, product), "Healthy cart should not wait for the poisoned one");
+            assertTrue(store.getDeadLetters().isEmpty(), "Cart should be retried before dead-lettering");
+
+            store.flushAll();
+            List<WriteBehindCartStore.DeadLetter> deadLetters = store.getDeadLetters();
+            assertEquals(1, deadLetters.size(), "Poisoned cart should be dead-lettered");
+            assertEquals(poisoned.getId(), deadLetters.get(0).customerId(), "Dead letter has unexpected customer");
+            assertEquals(Map.of(poison.getId(), 1), deadLetters.get(0).quantities(), "Dead letter has unexpected positions");
+
+            //Корзина вытеснена: следующее изменение читает её из БД и пишется как обычно
+            store.add(poisoned.getId(), product.getId(), 2);
+            store.flushAll();
+            assertEquals(2, positionQuantity(poisoned, product), "Dead-lettered cart should be reloaded on next change");
+            assertEquals(1, store.getDeadLetters().size(), "Reloaded cart should not be dead-lettered again");
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldSettleReservationLedgerAndReleaseRemovedStockOnFlush() throws InterruptedException {
+        Product product = saveProduct("Feijoa", "2.00");
+        Customer customer = saveCustomer("Zhanna");
+        stockService.setStock(product.getId(), 5);
+        WriteBehindCartStore store = newStore(3600000, 2);
+
+        try {
+            store.add(customer.getId(), product.getId(), 3);
+            assertEquals(2, stockService.getStock(product.getId()).getStock(), "Stock should be reserved immediately");
+            assertEquals(3, ledgerQuantity(customer, product), "Unflushed reservation should be in the ledger");
+
+            store.flushAll();
+            assertEquals(0, ledgerQuantity(customer, product), "Flush should settle the ledger");
+            assertEquals(3, positionQuantity(customer, product), "Position should hold the reservation");
+
+            store.remove(customer.getId(), product.getId(), 1);
+            assertEquals(2, stockService.getStock(product.getId()).getStock(), "Removal should be released with the flush");
+
+            store.flushAll();
+            assertEquals(3, stockService.getStock(product.getId()).getStock(), "Flush should release removed stock");
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldReserveStockOutsideStripeLock() throws Exception {
+        Product product = saveProduct("Fig", "2.00");
+        Customer customer = saveCustomer("Zhanna");
+        Customer neighbour = saveCustomer("Zoya");
+        stockService.setStock(product.getId(), 5);
+
+        //Резерв корзины customer висит в БД, пока тест его не отпустит
+        CountDownLatch reserving = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        ProductStockService slowStock = mock(ProductStockService.class, delegatesTo(stockService));
+        doAnswer(invocation -> {
+            if (customer.getCart().getId().equals(invocation.getArgument(0))) {
+                reserving.countDown();
+                assertTrue(proceed.await(5, TimeUnit.SECONDS), "Test should release the reservation");
+            }
+            stockService.reserveForCart(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(slowStock).reserveForCart(anyLong(), anyMap());
+
+        WriteBehindCartStore store = new WriteBehindCartStore(
+                jdbcTemplate, transactionTemplate, cartTotalsService, slowStock, new SimpleMeterRegistry(),
+                1, 3600000, 1000, 500, 600000, 2, 10
+        );
+
+        try {
+            CompletableFuture<Boolean> slowAdd = CompletableFuture.supplyAsync(
+                    () -> store.add(customer.getId(), product.getId(), 2)
+            );
+            assertTrue(reserving.await(5, TimeUnit.SECONDS), "Reservation should start");
+
+            assertTrue(CompletableFuture.supplyAsync(() -> store.add(neighbour.getId(), product.getId(), 1))
+                    .get(5, TimeUnit.SECONDS), "Neighbour cart should not wait for a reservation of another cart");
+
+            proceed.countDown();
+            assertTrue(slowAdd.get(5, TimeUnit.SECONDS), "Item should be added after the reservation");
+            assertEquals(2, stockService.getStock(product.getId()).getStock(), "Both changes should be reserved once");
+
+            store.flushAll();
+            assertEquals(2, positionQuantity(customer, product), "Position should be written");
+            assertEquals(1, positionQuantity(neighbour, product), "Neighbour position should be written");
+            assertEquals(0, ledgerQuantity(customer, product), "Flush should settle the ledger");
+        } finally {
+            proceed.countDown();
+            store.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldReturnUnsettledReservationToStockAfterTtl() throws InterruptedException {
+        Product product = saveProduct("Gooseberry", "2.00");
+        Customer customer = saveCustomer("Kirill");
+        stockService.setStock(product.getId(), 5);
+        WriteBehindCartStore store = newStore(3600000, 2);
+
+        try {
+            store.add(customer.getId(), product.getId(), 3);
+
+            //Узел "упал" до сброса: запись журнала не закрыта и устарела
+            jdbcTemplate.update(
+                    "update cart_reservation set updated_at = ? where cart_id = ?",
+                    Timestamp.valueOf(LocalDateTime.now().minusHours(1)), customer.getCart().getId()
+            );
+
+            assertTrue(stockService.releaseAbandoned() >= 1, "Unsettled reservation should be reclaimed");
+            assertEquals(5, stockService.getStock(product.getId()).getStock(), "Reclaimed reservation should return to stock");
+            assertEquals(0, ledgerQuantity(customer, product), "Reclaimed ledger row should be removed");
+
+            //Сброс после возврата резерва не должен записать позицию без резерва
+            store.flushAll();
+            store.flushAll();
+            assertEquals(0, positionQuantity(customer, product), "Position without reservation should not be written");
+            assertEquals(1, store.getDeadLetters().size(), "Cart with expired reservation should be dead-lettered");
+            assertEquals(5, stockService.getStock(product.getId()).getStock(), "Stock should not be released twice");
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    private WriteBehindCartStore newStore(long flushIntervalMs, int maxFlushAttempts) {
+        return newStore(flushIntervalMs, maxFlushAttempts, 4);
+    }
+
+    private WriteBehindCartStore newStore(long flushIntervalMs, int maxFlushAttempts, int stripes) {
+        return new WriteBehindCartStore(
+                jdbcTemplate, transactionTemplate, cartTotalsService, stockService, new SimpleMeterRegistry(),
+                stripes, flushIntervalMs, 1000, 500, 600000, maxFlushAttempts, 10
+        );
+    }
+
+    private void addItem(Customer customer, Product product, int quantity) {
+        PositionUpdateDto updateDto = new PositionUpdateDto();
+        updateDto.setQuantity(quantity);
+
+        ResponseEntity<String> response = httpClient.postForEntity(
+                String.format("%s/%d/cart/items/%d", CUSTOMER_RESOURCE, customer.getId(), product.getId()),
+                new HttpEntity<>(updateDto, httpHeaders),
+                String.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+    }
+
+    private Product saveProduct(String title, String price) {
+        Product product = new Product();
+        product.setTitle(title);
+        product.setPrice(new BigDecimal(price));
+        product.setActive(true);
+        return productRepository.save(product);
+    }
+
+    private Customer saveCustomer(String name) {
+        Customer customer = new Customer();
+        customer.setName(name);
+        Cart cart = new Cart();
+        customer.setCart(cart);
+        cart.setCustomer(customer);
+        customer.setActive(true);
+        return customerRepository.save(customer);
+    }
+
+    private int countPositions(List<Customer> customers) {
+        return customers.stream()
+                .mapToInt(customer -> jdbcTemplate.queryForObject(
+                        "select count(*) from position where cart_id = ?", Integer.class, customer.getCart().getId()
+                ))
+                .sum();
+    }
+
+    private int positionQuantity(Customer customer, Product product) {
+        List<Integer> quantities = jdbcTemplate.queryForList(
+                "select quantity from position where cart_id = ? and product_id = ?",
+                Integer.class, customer.getCart().getId(), product.getId()
+        );
+        return quantities.isEmpty() ? 0 : quantities.get(0);
+    }
+
+    private int ledgerQuantity(Customer customer, Product product) {
+        List<Integer> quantities = jdbcTemplate.queryForList(
+                "select quantity from cart_reservation where cart_id = ? and product_id = ?",
+                Integer.class, customer.getCart().getId(), product.getId()
+        );
+        return quantities.isEmpty() ? 0 : quantities.get(0);
+    }
+
+    private void await(BooleanSupplier condition, String message) {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, message);
+
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(message);
+            }
+        }
+    }
+}
@@ -5,12 +5,25 @@ import com.ait.shop.domain.Product;
 import com.ait.shop.domain.User;
 import com.ait.shop.domain.enums.Role;
 import com.ait.shop.dto.product.ProductDto;
+import com.ait.shop.dto.product.ProductImportErrorDto;
+import com.ait.shop.dto.product.ProductImportResultDto;
+import com.ait.shop.dto.product.ProductPageDto;
+import com.ait.shop.dto.product.ProductRepriceDto;
+import com.ait.shop.dto.product.ProductRepriceOperation;
+import com.ait.shop.dto.product.ProductRepriceResultDto;
+import com.ait.shop.dto.product.ProductRepriceSelector;
 import com.ait.shop.dto.product.ProductSaveDto;
+import com.ait.shop.dto.product.ProductUpdateDto;
 import com.ait.shop.repository.ProductRepository;
 import com.ait.shop.repository.UserRepository;
+import com.ait.shop.service.ProductCache;
+import com.ait.shop.service.interfaces.FileService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -18,18 +31,31 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
 
 import javax.crypto.SecretKey;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 class ProductControllerTestIT {
@@ -46,6 +72,15 @@ class ProductControllerTestIT {
     @Autowired
     private BCryptPasswordEncoder passwordEncoder;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @MockitoBean
+    private FileService fileService;
+
     @Value("${KEY_PHRASE_ACCESS}")
     private String accessPhrase;
     private String adminAccessToken;
@@ -118,6 +153,412 @@ class ProductControllerTestIT {
         assertTrue(actualBody.contains("title"), "Response body doesn't contain expected message");
     }
 
+    @Test
+    public void shouldReturnActiveProductsPageByCursor() {
+        Product cheapProduct = new Product();
+        cheapProduct.setTitle("Cheap product");
+        cheapProduct.setPrice(new BigDecimal("5.00"));
+        cheapProduct.setActive(true);
+
+        Product expensiveProduct = new Product();
+        expensiveProduct.setTitle("Expensive product");
+        expensiveProduct.setPrice(new BigDecimal("500.00"));
+        expensiveProduct.setActive(true);
+
+        repository.saveAll(List.of(cheapProduct, expensiveProduct));
+
+        ResponseEntity<ProductPageDto> firstResponse = httpClient.getForEntity(
+                PRODUCT_RESOURCE + "/page?limit=2&sort=PRICE",
+                ProductPageDto.class
+        );
+
+        assertEquals(HttpStatus.OK, firstResponse.getStatusCode(), "Response has unexpected status");
+
+        ProductPageDto firstPage = firstResponse.getBody();
+        assertNotNull(firstPage, "Response body should not be null");
+        assertEquals(2, firstPage.getProducts().size(), "First page has unexpected size");
+        assertEquals("Cheap product", firstPage.getProducts().get(0).getTitle(), "Products are not sorted by price");
+        assertNotNull(firstPage.getNextCursor(), "First page should have next cursor");
+
+        //Последний продукт страницы удалён из таблицы - курсор от него не зависит
+        repository.deleteById(firstPage.getProducts().get(1).getId());
+
+        ResponseEntity<ProductPageDto> secondResponse = httpClient.getForEntity(
+                PRODUCT_RESOURCE + "/page?limit=2&sort=PRICE&after=" + firstPage.getNextCursor(),
+                ProductPageDto.class
+        );
+
+        ProductPageDto secondPage = secondResponse.getBody();
+        assertNotNull(secondPage, "Response body should not be null");
+        assertEquals(1, secondPage.getProducts().size(), "Second page has unexpected size");
+        assertEquals("Expensive product", secondPage.getProducts().get(0).getTitle(), "Inactive product should be skipped");
+        assertNull(secondPage.getNextCursor(), "Last page should not have next cursor");
+
+        ResponseEntity<String> invalidCursorResponse = httpClient.getForEntity(
+                PRODUCT_RESOURCE + "/page?limit=2&sort=TITLE&after=" + firstPage.getNextCursor(),
+                String.class
+        );
+        assertEquals(HttpStatus.BAD_REQUEST, invalidCursorResponse.getStatusCode(), "Cursor of another sort should be rejected");
+    }
+
+    @Test
+    public void shouldFindSavedProductByTitlePrefix() {
+        ProductSaveDto saveDto = new ProductSaveDto();
+        saveDto.setTitle("Green apple juice");
+        saveDto.setPrice(new BigDecimal("3.50"));
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        httpClient.postForEntity(PRODUCT_RESOURCE, new HttpEntity<>(saveDto, httpHeaders), ProductDto.class);
+
+        ResponseEntity<List<ProductDto>> response = httpClient.exchange(
+                PRODUCT_RESOURCE + "/search?q=app ju",
+                HttpMethod.GET,
+                null,
+                new ParameterizedTypeReference<>() {
+                }
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+
+        List<ProductDto> actualList = response.getBody();
+        assertNotNull(actualList, "Response body should not be null");
+        assertEquals(1, actualList.size(), "Search returned unexpected number of products");
+        assertEquals(saveDto.getTitle(), actualList.get(0).getTitle(), "Found product has incorrect title");
+    }
+
+    @Test
+    public void shouldRepriceActiveProductsByPercent() {
+        ProductRepriceDto repriceDto = new ProductRepriceDto();
+        repriceDto.setSelector(ProductRepriceSelector.ALL_ACTIVE);
+        repriceDto.setOperation(ProductRepriceOperation.PERCENT);
+        repriceDto.setValue(new BigDecimal("10"));
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ResponseEntity<ProductRepriceResultDto> response = httpClient.postForEntity(
+                PRODUCT_RESOURCE + "/reprice",
+                new HttpEntity<>(repriceDto, httpHeaders),
+                ProductRepriceResultDto.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+
+        ProductRepriceResultDto result = response.getBody();
+        assertNotNull(result, "Response body should not be null");
+        assertEquals(1, result.getMatched(), "Reprice matched unexpected number of products");
+        assertEquals(1, result.getUpdated(), "Reprice updated unexpected number of products");
+
+        //Неактивный продукт не должен был измениться
+        List<Product> products = repository.findAll();
+        products.forEach(x -> assertEquals(
+                x.isActive() ? new BigDecimal("122.10") : new BigDecimal("222.00"),
+                x.getPrice(),
+                "Product has incorrect price after reprice"
+        ));
+    }
+
+    @Test
+    public void shouldSkipProductsWhenNewPriceIsOutOfRange() {
+        ProductRepriceDto repriceDto = new ProductRepriceDto();
+        repriceDto.setSelector(ProductRepriceSelector.PRICE_RANGE);
+        repriceDto.setMinPrice(new BigDecimal("100"));
+        repriceDto.setMaxPrice(new BigDecimal("200"));
+        repriceDto.setOperation(ProductRepriceOperation.DELTA);
+        repriceDto.setValue(new BigDecimal("900"));
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ResponseEntity<ProductRepriceResultDto> response = httpClient.postForEntity(
+                PRODUCT_RESOURCE + "/reprice",
+                new HttpEntity<>(repriceDto, httpHeaders),
+                ProductRepriceResultDto.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+
+        ProductRepriceResultDto result = response.getBody();
+        assertNotNull(result, "Response body should not be null");
+        assertEquals(1, result.getMatched(), "Reprice matched unexpected number of products");
+        assertEquals(1, result.getSkipped(), "Reprice skipped unexpected number of products");
+    }
+
+    @Test
+    public void shouldReportRowErrorsAndDuplicateTitlesOnImport() {
+        List<ProductSaveDto> rows = List.of(
+                importRow("Imported apple", "10.00"),
+                importRow("bad title", "5.00"),
+                importRow("Imported pear", "1000.00"),
+                importRow("Imported apple", "11.00"),
+                importRow("Test active product", "1.00"),
+                importRow("Imported pear", "20.00")
+        );
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ResponseEntity<ProductImportResultDto> response = httpClient.postForEntity(
+                PRODUCT_RESOURCE + "/import",
+                new HttpEntity<>(rows, httpHeaders),
+                ProductImportResultDto.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+
+        ProductImportResultDto result = response.getBody();
+        assertNotNull(result, "Response body should not be null");
+        assertEquals(6, result.getTotalRows(), "Import has unexpected total rows");
+        assertEquals(2, result.getImportedRows(), "Import has unexpected imported rows");
+
+        //Ошибки отсортированы по номеру строки, номера строк начинаются с единицы
+        List<ProductImportErrorDto> errors = result.getErrors();
+        assertEquals(List.of(2, 3, 4, 5), errors.stream().map(ProductImportErrorDto::getRow).toList(),
+                "Import reported errors for unexpected rows");
+        assertTrue(errors.get(0).getMessages().stream().anyMatch(x -> x.contains("title")),
+                "Invalid title should be reported");
+        assertTrue(errors.get(1).getMessages().stream().anyMatch(x -> x.contains("1000")),
+                "Invalid price should be reported");
+        assertTrue(errors.get(2).getMessages().stream().anyMatch(x -> x.contains("Duplicate title in import")),
+                "Duplicate title inside import should be reported");
+        assertTrue(errors.get(3).getMessages().stream().anyMatch(x -> x.contains("already exists")),
+                "Title existing in database should be reported");
+
+        //Строка 6 - первая корректная строка с названием "Imported pear", поэтому она и импортирована
+        Map<String, BigDecimal> imported = repository.findAllByTitleIn(List.of("Imported apple", "Imported pear"))
+                .stream()
+                .collect(Collectors.toMap(Product::getTitle, Product::getPrice));
+        assertEquals(Map.of("Imported apple", new BigDecimal("10.00"), "Imported pear", new BigDecimal("20.00")),
+                imported, "Imported products have incorrect prices");
+    }
+
+    @Test
+    public void shouldImportProductsFromCsvFile() {
+        String csv = """
+                title,price
+                Csv banana,3.50
+                Csv cherry,abc
+                Csv
+                "Csv plum",4.00
+                """;
+
+        ByteArrayResource file = new ByteArrayResource(csv.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public String getFilename() {
+                return "products.csv";
+            }
+        };
+
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("file", file);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        httpHeaders.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+        ResponseEntity<ProductImportResultDto> response = httpClient.postForEntity(
+                PRODUCT_RESOURCE + "/import",
+                new HttpEntity<>(body, httpHeaders),
+                ProductImportResultDto.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+
+        ProductImportResultDto result = response.getBody();
+        assertNotNull(result, "Response body should not be null");
+        assertEquals(4, result.getTotalRows(), "Import has unexpected total rows");
+        assertEquals(2, result.getImportedRows(), "Import has unexpected imported rows");
+        assertEquals(List.of(2, 3), result.getErrors().stream().map(ProductImportErrorDto::getRow).toList(),
+                "Import reported errors for unexpected rows");
+        assertEquals(List.of("Product price is not a number"), result.getErrors().get(0).getMessages(),
+                "Unparsable price should be reported");
+        assertEquals(List.of("Row should contain title and price"), result.getErrors().get(1).getMessages(),
+                "Row without price should be reported");
+
+        //Импортированные продукты попадают в поисковый индекс после коммита куска
+        ResponseEntity<List<ProductDto>> searchResponse = httpClient.exchange(
+                PRODUCT_RESOURCE + "/search?q=csv",
+                HttpMethod.GET,
+                null,
+                new ParameterizedTypeReference<>() {
+                }
+        );
+
+        List<ProductDto> found = searchResponse.getBody();
+        assertNotNull(found, "Response body should not be null");
+        assertEquals(Set.of("Csv banana", "Csv plum"), found.stream().map(ProductDto::getTitle).collect(Collectors.toSet()),
+                "Imported products were not added to search index");
+    }
+
+    @Test
+    public void shouldExportActiveProductsAsCsv() {
+        Product secondProduct = new Product();
+        secondProduct.setTitle("Second active product");
+        secondProduct.setPrice(new BigDecimal("5.50"));
+        secondProduct.setActive(true);
+        secondProduct.setImageUrl("http://images/second.png");
+        repository.save(secondProduct);
+
+        ResponseEntity<String> response = exportProducts("CSV");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+        assertTrue(MediaType.parseMediaType("text/csv").isCompatibleWith(response.getHeaders().getContentType()),
+                "Response has unexpected content type");
+
+        String body = response.getBody();
+        assertNotNull(body, "Response body should not be null");
+
+        //Заголовок и по строке на каждый активный продукт в порядке id, неактивный продукт не выгружается
+        Product firstProduct = repository.findAll().stream()
+                .filter(x -> x.getTitle().equals("Test active product"))
+                .findFirst()
+                .orElseThrow();
+        List<String> expectedLines = List.of(
+                "id,title,price,image_url",
+                firstProduct.getId() + ",Test active product,111.00,",
+                secondProduct.getId() + ",Second active product,5.50,http://images/second.png"
+        );
+        assertEquals(expectedLines, body.lines().toList(), "Export has unexpected rows");
+    }
+
+    @Test
+    public void shouldExportActiveProductsAsNdjson() throws Exception {
+        ResponseEntity<String> response = exportProducts("NDJSON");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+        assertTrue(MediaType.parseMediaType("application/x-ndjson").isCompatibleWith(response.getHeaders().getContentType()),
+                "Response has unexpected content type");
+
+        String body = response.getBody();
+        assertNotNull(body, "Response body should not be null");
+
+        //Одна строка - один самостоятельный JSON-документ
+        List<String> lines = body.lines().toList();
+        assertEquals(1, lines.size(), "Export has unexpected number of rows");
+
+        ProductDto exported = objectMapper.readValue(lines.get(0), ProductDto.class);
+        assertEquals("Test active product", exported.getTitle(), "Exported product has incorrect title");
+        assertEquals(new BigDecimal("111.00"), exported.getPrice(), "Exported product has incorrect price");
+    }
+
+    @Test
+    public void shouldServeCachedProductAndRefreshItAfterUpdate() {
+        Long id = findActiveProductId();
+        double hitsBefore = cacheGets("hit");
+        double missesBefore = cacheGets("miss");
+
+        //Первое чтение - промах и загрузка из БД, второе - попадание в кэш
+        assertEquals(new BigDecimal("111.00"), getProduct(id).getPrice(), "Product has incorrect price");
+        assertEquals(new BigDecimal("111.00"), getProduct(id).getPrice(), "Product has incorrect price");
+        assertEquals(missesBefore + 1, cacheGets("miss"), "First read should miss the cache");
+        assertEquals(hitsBefore + 1, cacheGets("hit"), "Second read should hit the cache");
+
+        ProductUpdateDto updateDto = new ProductUpdateDto();
+        updateDto.setNewPrice(new BigDecimal("150.00"));
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ResponseEntity<Void> updateResponse = httpClient.exchange(
+                PRODUCT_RESOURCE + "/" + id,
+                HttpMethod.PUT,
+                new HttpEntity<>(updateDto, httpHeaders),
+                Void.class
+        );
+        assertEquals(HttpStatus.OK, updateResponse.getStatusCode(), "Response has unexpected status");
+
+        //После коммита запись сброшена: следующее чтение снова идёт в БД и видит новую цену
+        assertEquals(new BigDecimal("150.00"), getProduct(id).getPrice(), "Cached product was not invalidated after update");
+        assertEquals(missesBefore + 2, cacheGets("miss"), "Read after update should miss the cache");
+    }
+
+    @Test
+    public void shouldRefreshCachedProductAfterAddingImage() throws Exception {
+        Long id = findActiveProductId();
+        when(fileService.uploadAndGetUrl(any())).thenReturn("http://images/new.png");
+
+        assertNull(getProduct(id).getImageUrl(), "Product should not have image yet");
+
+        ByteArrayResource image = new ByteArrayResource(new byte[]{1, 2, 3}) {
+            @Override
+            public String getFilename() {
+                return "new.png";
+            }
+        };
+
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("image", image);
+
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+        httpHeaders.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+        ResponseEntity<Void> response = httpClient.postForEntity(
+                PRODUCT_RESOURCE + "/" + id + "/image",
+                new HttpEntity<>(body, httpHeaders),
+                Void.class
+        );
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+
+        assertEquals("http://images/new.png", getProduct(id).getImageUrl(), "Cached product was not invalidated after adding image");
+    }
+
+    @Test
+    public void shouldCountEvictionsWhenCacheIsFull() throws InterruptedException {
+        //Отдельный маленький кэш: вес записи не меньше 1000 байт, поэтому в 2000 байт помещаются две записи
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ProductCache cache = new ProductCache(2, 2000, 60000, registry);
+
+        for (long id = 1; id <= 5; id++) {
+            Product product = new Product();
+            product.setId(id);
+            product.setTitle("Cached product");
+            product.setPrice(new BigDecimal("1.00"));
+            cache.get(id, key -> product);
+        }
+
+        //Вытеснение в Caffeine выполняется асинхронно после записи
+        long deadline = System.currentTimeMillis() + 5000;
+        while (evictions(registry) < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(3, evictions(registry), "Cache should evict entries above its limits");
+        assertEquals(5, registry.get("cache.gets").tags("cache", "products", "result", "miss").functionCounter().count(),
+                "Every first read should miss the cache");
+    }
+
+    @Test
+    public void shouldExpireCachedProductAfterTtl() throws InterruptedException {
+        //Изменение на другом узле эту копию не инвалидирует - запись должна истечь сама
+        ProductCache cache = new ProductCache(10, 100000, 100, new SimpleMeterRegistry());
+        Product product = new Product();
+        product.setId(1L);
+        product.setTitle("Cached product");
+        product.setPrice(new BigDecimal("1.00"));
+        cache.get(1L, key -> product);
+
+        Product repriced = new Product();
+        repriced.setId(1L);
+        repriced.setTitle("Cached product");
+        repriced.setPrice(new BigDecimal("2.00"));
+        assertEquals(new BigDecimal("1.00"), cache.get(1L, key -> repriced).orElseThrow().price(),
+                "Product should be read from the cache before the ttl");
+
+        Thread.sleep(200);
+        assertEquals(new BigDecimal("2.00"), cache.get(1L, key -> repriced).orElseThrow().price(),
+                "Product should be loaded again after the ttl");
+    }
+
     @BeforeEach
     public void startUp() {
         Product activeProduct = new Product();
@@ -162,6 +603,59 @@ class ProductControllerTestIT {
         userRepository.save(admin);
     }
 
+    private Long findActiveProductId() {
+        return repository.findAll().stream()
+                .filter(Product::isActive)
+                .findFirst()
+                .orElseThrow()
+                .getId();
+    }
+
+    private ProductDto getProduct(Long id) {
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        ResponseEntity<ProductDto> response = httpClient.exchange(
+                PRODUCT_RESOURCE + "/" + id,
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                ProductDto.class
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response has unexpected status");
+        assertNotNull(response.getBody(), "Response body should not be null");
+        return response.getBody();
+    }
+
+    private double cacheGets(String result) {
+        return meterRegistry.get("cache.gets").tags("cache", "products", "result", result).functionCounter().count();
+    }
+
+    private double evictions(MeterRegistry registry) {
+        return registry.get("cache.evictions").tags("cache", "products").functionCounter().count();
+    }
+
+    private ResponseEntity<String> exportProducts(String format) {
+        String tokenCookie = Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + adminAccessToken;
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, tokenCookie);
+
+        return httpClient.exchange(
+                PRODUCT_RESOURCE + "/export?format=" + format,
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                String.class
+        );
+    }
+
+    private ProductSaveDto importRow(String title, String price) {
+        ProductSaveDto dto = new ProductSaveDto();
+        dto.setTitle(title);
+        dto.setPrice(new BigDecimal(price));
+        return dto;
+    }
+
     //Метод для очистки БД после каждого теста
     @AfterEach
     public void cleanDatabase() {
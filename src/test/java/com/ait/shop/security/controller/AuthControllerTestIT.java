@@ -0,0 +1,180 @@
+package com.ait.shop.security.controller;
+
+import com.ait.shop.constants.Constants;
+import com.ait.shop.domain.User;
+import com.ait.shop.domain.enums.Role;
+import com.ait.shop.repository.UserRepository;
+import com.ait.shop.security.dto.LoginRequestDto;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import javax.crypto.SecretKey;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Аутентификация: claims access token, сессии refresh token в БД, перехеширование паролей и ограничение частоты входа
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class AuthControllerTestIT {
+
+    @Autowired
+    private TestRestTemplate httpClient;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private BCryptPasswordEncoder passwordEncoder;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${KEY_PHRASE_ACCESS}")
+    private String accessPhrase;
+
+    private static final String CUSTOMER_RESOURCE = "/customers";
+
+    @BeforeEach
+    public void setUp() {
+        User admin = new User();
+        admin.setEmail("admin@test.com");
+        admin.setPassword(passwordEncoder.encode("adminPass"));
+        admin.setName("Admin");
+        admin.setRole(Role.ROLE_ADMIN);
+        admin.setConfirmed(true);
+        userRepository.save(admin);
+    }
+
+    @AfterEach
+    public void cleanDatabase() {
+        jdbcTemplate.update("delete from refresh_token");
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void shouldAuthenticateByTokenClaimsAndRejectOutdatedVersion() {
+        SecretKey secretKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(accessPhrase));
+        Date expiration = new Date(System.currentTimeMillis() + 60 * 1000);
+
+        String currentToken = Jwts.builder()
+                .subject("admin@test.com")
+                .claim("role", Role.ROLE_ADMIN.name())
+                .claim("ver", 0)
+                .expiration(expiration)
+                .signWith(secretKey)
+                .compact();
+
+        String outdatedToken = Jwts.builder()
+                .subject("admin@test.com")
+                .claim("role", Role.ROLE_ADMIN.name())
+                .claim("ver", -5)
+                .expiration(expiration)
+                .signWith(secretKey)
+                .compact();
+
+        HttpHeaders currentHeaders = new HttpHeaders();
+        currentHeaders.add(HttpHeaders.COOKIE, Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + currentToken);
+        HttpHeaders outdatedHeaders = new HttpHeaders();
+        outdatedHeaders.add(HttpHeaders.COOKIE, Constants.ACCESS_TOKEN_COOKIE_NAME + "=" + outdatedToken);
+
+        ResponseEntity<String> currentResponse = httpClient.exchange(
+                CUSTOMER_RESOURCE + "/count", HttpMethod.GET, new HttpEntity<>(currentHeaders), String.class
+        );
+        ResponseEntity<String> outdatedResponse = httpClient.exchange(
+                CUSTOMER_RESOURCE + "/count", HttpMethod.GET, new HttpEntity<>(outdatedHeaders), String.class
+        );
+
+        assertEquals(HttpStatus.OK, currentResponse.getStatusCode(), "Token with current version should be accepted");
+        assertTrue(outdatedResponse.getStatusCode().is4xxClientError(), "Token with outdated version should be rejected");
+    }
+
+    @Test
+    public void shouldRefreshAccessTokenFromStoredSessionUntilLogout() {
+        LoginRequestDto loginDto = new LoginRequestDto();
+        loginDto.setEmail("admin@test.com");
+        loginDto.setPassword("adminPass");
+
+        ResponseEntity<Void> loginResponse = httpClient.postForEntity("/auth/login", loginDto, Void.class);
+        assertEquals(HttpStatus.OK, loginResponse.getStatusCode(), "Login should succeed");
+
+        String refreshCookie = loginResponse.getHeaders().get(HttpHeaders.SET_COOKIE).stream()
+                .filter(x -> x.startsWith(Constants.REFRESH_TOKEN_COOKIE_NAME + "="))
+                .map(x -> x.split(";")[0])
+                .findFirst()
+                .orElseThrow();
+
+        Long storedSessions = jdbcTemplate.queryForObject(
+                "select count(*) from refresh_token where email = 'admin@test.com'", Long.class
+        );
+        assertEquals(1L, storedSessions, "Refresh token session should be stored in the database");
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, refreshCookie);
+        HttpEntity<Void> request = new HttpEntity<>(httpHeaders);
+
+        ResponseEntity<Void> refreshResponse = httpClient.postForEntity("/auth/access", request, Void.class);
+        assertEquals(HttpStatus.OK, refreshResponse.getStatusCode(), "Stored session should issue a new access token");
+
+        httpClient.postForEntity("/auth/logout", request, Void.class);
+
+        ResponseEntity<String> afterLogoutResponse = httpClient.postForEntity("/auth/access", request, String.class);
+        assertTrue(afterLogoutResponse.getStatusCode().is4xxClientError(), "Session should end after logout");
+
+        storedSessions = jdbcTemplate.queryForObject("select count(*) from refresh_token", Long.class);
+        assertEquals(0L, storedSessions, "Logout should remove the stored session");
+    }
+
+    @Test
+    public void shouldRehashWeakPasswordHashOnLogin() {
+        User user = new User();
+        user.setEmail("weak@test.com");
+        user.setPassword(new BCryptPasswordEncoder(4).encode("userPass"));
+        user.setName("Weak");
+        user.setRole(Role.ROLE_USER);
+        user.setConfirmed(true);
+        userRepository.save(user);
+
+        LoginRequestDto loginDto = new LoginRequestDto();
+        loginDto.setEmail("weak@test.com");
+        loginDto.setPassword("userPass");
+
+        ResponseEntity<Void> loginResponse = httpClient.postForEntity("/auth/login", loginDto, Void.class);
+        assertEquals(HttpStatus.OK, loginResponse.getStatusCode(), "Login with weak hash should succeed");
+
+        String passwordHash = userRepository.findByEmail("weak@test.com").orElseThrow().getPassword();
+        assertFalse(passwordEncoder.upgradeEncoding(passwordHash), "Password hash should be upgraded to current strength");
+        assertTrue(passwordEncoder.matches("userPass", passwordHash), "Upgraded hash should match the same password");
+
+        loginResponse = httpClient.postForEntity("/auth/login", loginDto, Void.class);
+        assertEquals(HttpStatus.OK, loginResponse.getStatusCode(), "Login with upgraded hash should succeed");
+    }
+
+    @Test
+    public void shouldReturn429WithRetryAfterWhenLoginAttemptsForEmailExceeded() {
+        LoginRequestDto loginDto = new LoginRequestDto();
+        //Отдельный email: корзина admin@test.com нужна другим тестам этого контекста
+        loginDto.setEmail("limited@test.com");
+        loginDto.setPassword("wrongPass");
+
+        ResponseEntity<String> response = null;
+
+        for (int i = 0; i < 10 && (response == null || response.getStatusCode() != HttpStatus.TOO_MANY_REQUESTS); i++) {
+            response = httpClient.postForEntity("/auth/login", loginDto, String.class);
+        }
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode(), "Login attempts should be rate limited");
+        assertNotNull(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER), "Retry-After header should be set");
+        assertTrue(Long.parseLong(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)) > 0, "Retry-After should be positive");
+    }
+}
@@ -0,0 +1,114 @@
+package com.ait.shop.security.service;
+
+import com.ait.shop.domain.User;
+import com.ait.shop.domain.enums.Role;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenServiceTest {
+
+    private String accessPhrase;
+    private String refreshPhrase;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        accessPhrase = randomPhrase();
+        refreshPhrase = randomPhrase();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    public void shouldReturnCachedClaimsForRepeatedToken() {
+        TokenService service = new TokenService(accessPhrase, refreshPhrase, 100, 60000, meterRegistry);
+        String accessToken = service.generateAccessToken(user());
+
+        Claims first = service.verifyAccessToken(accessToken).orElseThrow();
+        Claims second = service.verifyAccessToken(accessToken).orElseThrow();
+
+        assertSame(first, second, "Repeated token should be served from the cache");
+        assertEquals(1.0, cacheGets("hit"), "Second verification should be a cache hit");
+        assertEquals(1.0, cacheGets("miss"), "First verification should be a cache miss");
+    }
+
+    @Test
+    public void shouldRejectExpiredTokenEvenIfItWasCached() throws InterruptedException {
+        TokenService service = new TokenService(accessPhrase, refreshPhrase, 100, 60000, meterRegistry);
+
+        //exp в JWT - с точностью до секунды
+        Date expiration = new Date(System.currentTimeMillis() + 1500);
+        String accessToken = Jwts.builder()
+                .subject("user@test.com")
+                .claim(TokenService.ROLE_CLAIM, Role.ROLE_USER.name())
+                .claim(TokenService.VERSION_CLAIM, 0)
+                .expiration(expiration)
+                .signWith(Keys.hmacShaKeyFor(Base64.getDecoder().decode(accessPhrase)))
+                .compact();
+
+        assertTrue(service.verifyAccessToken(accessToken).isPresent(), "Token should be valid before expiration");
+
+        Thread.sleep(expiration.getTime() / 1000 * 1000 - System.currentTimeMillis() + 100);
+
+        assertTrue(service.verifyAccessToken(accessToken).isEmpty(), "Expired token should be rejected");
+    }
+
+    @Test
+    public void shouldVerifyWithoutCacheWhenMaxEntriesIsZero() {
+        TokenService service = new TokenService(accessPhrase, refreshPhrase, 0, 60000, meterRegistry);
+        String accessToken = service.generateAccessToken(user());
+
+        Claims first = service.verifyAccessToken(accessToken).orElseThrow();
+        Claims second = service.verifyAccessToken(accessToken).orElseThrow();
+
+        assertNotSame(first, second, "Every verification should parse the token again");
+        assertNull(meterRegistry.find("cache.gets").tag("cache", "verified-tokens").functionCounter(),
+                "Disabled cache should not register metrics");
+    }
+
+    @Test
+    public void shouldRejectMissingAndForgedTokens() {
+        TokenService service = new TokenService(accessPhrase, refreshPhrase, 100, 60000, meterRegistry);
+        TokenService otherService = new TokenService(randomPhrase(), refreshPhrase, 100, 60000, new SimpleMeterRegistry());
+
+        assertEquals(Optional.empty(), service.verifyAccessToken(null), "Missing token should be rejected");
+        assertTrue(service.verifyAccessToken("not-a-token").isEmpty(), "Malformed token should be rejected");
+        assertTrue(
+                service.verifyAccessToken(otherService.generateAccessToken(user())).isEmpty(),
+                "Token signed with another key should be rejected"
+        );
+    }
+
+    private double cacheGets(String result) {
+        FunctionCounter counter = meterRegistry.get("cache.gets")
+                .tag("cache", "verified-tokens")
+                .tag("result", result)
+                .functionCounter();
+
+        return counter.count();
+    }
+
+    private static User user() {
+        User user = new User();
+        user.setEmail("user@test.com");
+        user.setRole(Role.ROLE_USER);
+        return user;
+    }
+
+    private static String randomPhrase() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,94 @@
+package com.ait.shop.service;
+
+import com.ait.shop.repository.ProductRepository;
+import com.ait.shop.repository.projection.ProductStatisticsView;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CatalogStatisticsServiceImplTest {
+
+    private ProductRepository repository;
+    private CatalogStatisticsServiceImpl service;
+
+    @BeforeEach
+    public void setUp() {
+        repository = mock(ProductRepository.class);
+        service = new CatalogStatisticsServiceImpl(repository);
+        returnFromDatabase(0, BigDecimal.ZERO);
+        service.reconcile();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void shouldNotCountCommittedChangeTwiceWhenReconciledBeforeItIsApplied() {
+        List<TransactionSynchronization> synchronizations = reportInTransaction(new BigDecimal("10.00"));
+
+        //Транзакция уже закоммичена и видна в SUM, но afterCompletion ещё не вызван
+        returnFromDatabase(1, new BigDecimal("10.00"));
+        service.reconcile();
+        complete(synchronizations, TransactionSynchronization.STATUS_COMMITTED);
+        service.reconcile();
+
+        assertEquals(1, service.getActiveCount());
+        assertEquals(0, new BigDecimal("10.00").compareTo(service.getTotalCost()));
+    }
+
+    @Test
+    public void shouldDropRolledBackChangeAndAllowReconciliationAfterwards() {
+        List<TransactionSynchronization> synchronizations = reportInTransaction(new BigDecimal("10.00"));
+
+        complete(synchronizations, TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertEquals(0, service.getActiveCount());
+
+        //Изменение в обход сервиса исправляется сверкой, т.к. в полёте ничего не осталось
+        returnFromDatabase(2, new BigDecimal("5.00"));
+        service.reconcile();
+
+        assertEquals(2, service.getActiveCount());
+        assertEquals(0, new BigDecimal("5.00").compareTo(service.getTotalCost()));
+    }
+
+    @Test
+    public void shouldApplyChangeImmediatelyWithoutTransaction() {
+        service.onProductActivated(new BigDecimal("3.50"));
+        service.onPriceChanged(new BigDecimal("3.50"), new BigDecimal("4.00"));
+
+        assertEquals(1, service.getActiveCount());
+        assertEquals(0, new BigDecimal("4.00").compareTo(service.getTotalCost()));
+    }
+
+    private List<TransactionSynchronization> reportInTransaction(BigDecimal price) {
+        TransactionSynchronizationManager.initSynchronization();
+        service.onProductActivated(price);
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        return synchronizations;
+    }
+
+    private void complete(List<TransactionSynchronization> synchronizations, int status) {
+        synchronizations.forEach(x -> x.afterCompletion(status));
+    }
+
+    private void returnFromDatabase(long count, BigDecimal totalCost) {
+        ProductStatisticsView view = mock(ProductStatisticsView.class);
+        when(view.getProductsCount()).thenReturn(count);
+        when(view.getTotalCost()).thenReturn(totalCost);
+        when(repository.getActiveStatistics()).thenReturn(view);
+    }
+}
@@ -0,0 +1,78 @@
+package com.ait.shop.service;
+
+import com.ait.shop.dto.order.OrderDto;
+import com.ait.shop.exceptions.types.EntityUpdateException;
+import com.ait.shop.exceptions.types.ServiceOverloadedException;
+import com.ait.shop.service.interfaces.CartTotalsService;
+import com.ait.shop.service.interfaces.ProductStockService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class OrderWritePipelineTest {
+
+    private static final long TIMEOUT_MS = 100;
+
+    private TransactionTemplate transactionTemplate;
+    private CountDownLatch batchStarted;
+    private CountDownLatch commitAllowed;
+    private OrderWritePipeline pipeline;
+
+    @BeforeEach
+    public void setUp() {
+        transactionTemplate = mock(TransactionTemplate.class);
+        batchStarted = new CountDownLatch(1);
+        commitAllowed = new CountDownLatch(1);
+
+        //Транзакция пачки "висит", пока тест её не отпустит. Корзины пусты - каждое оформление отклоняется
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            batchStarted.countDown();
+            assertTrue(commitAllowed.await(5, TimeUnit.SECONDS), "Commit was not allowed in time");
+            return invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null);
+        });
+
+        pipeline = new OrderWritePipeline(
+                mock(NamedParameterJdbcTemplate.class), transactionTemplate, mock(CartTotalsService.class),
+                mock(ProductStockService.class), new SimpleMeterRegistry(), 1, 0, 10, TIMEOUT_MS
+        );
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        commitAllowed.countDown();
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void shouldRemoveQueuedRequestOnTimeoutAndWaitForRequestInBatch() throws Exception {
+        CompletableFuture<OrderDto> inBatch = CompletableFuture.supplyAsync(() -> pipeline.submit(1L, 1L));
+        assertTrue(batchStarted.await(5, TimeUnit.SECONDS), "First checkout should be taken into a batch");
+
+        //Второй запрос ждёт в очереди, пока пишется первая пачка
+        assertThrows(ServiceOverloadedException.class, () -> pipeline.submit(2L, 2L),
+                "Queued checkout should time out");
+
+        Thread.sleep(TIMEOUT_MS * 2);
+        assertFalse(inBatch.isDone(), "Checkout in a running batch should wait for its commit, not time out");
+
+        commitAllowed.countDown();
+        ExecutionException result = assertThrows(ExecutionException.class, () -> inBatch.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(EntityUpdateException.class, result.getCause(), "Checkout should get the batch result");
+
+        Thread.sleep(TIMEOUT_MS);
+        verify(transactionTemplate, times(1)).execute(any());
+    }
+}
@@ -0,0 +1,85 @@
+package com.ait.shop.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextSearchIndexTest {
+
+    @Test
+    public void shouldRankWholePrefixRangeWhenItIsLargerThanMaxCandidates() {
+        TextSearchIndex<Long> index = new TextSearchIndex<>(3);
+
+        //Слово "aa" идёт в карте раньше "ab", поэтому срез по maxCandidates до ранжирования терял лучшее совпадение
+        for (long id = 1; id <= 10; id++) {
+            index.put(id, "Item aa " + id, id);
+        }
+        index.put(100L, "Ab", 100L);
+
+        assertEquals(List.of(100L), index.search("a", 0, 1));
+    }
+
+    @Test
+    public void shouldCountDocumentMatchedByManyWordsOnce() {
+        TextSearchIndex<Long> index = new TextSearchIndex<>(2);
+        index.put(1L, "Milk milky milkshake", 1L);
+        index.put(2L, "Milk chocolate", 2L);
+
+        assertEquals(List.of(2L, 1L), index.search("milk", 0, 2));
+    }
+
+    @Test
+    public void shouldPageByRankAndLimitDepthByMaxCandidates() {
+        TextSearchIndex<Long> index = new TextSearchIndex<>(4);
+        index.put(1L, "Tea green loose", 1L);
+        index.put(2L, "Tea", 2L);
+        index.put(3L, "Tea black", 3L);
+        index.put(4L, "Green tea", 4L);
+        index.put(5L, "Tea white long leaf", 5L);
+
+        assertEquals(List.of(3L, 1L), index.search("tea", 1, 2));
+        assertEquals(List.of(5L), index.search("tea", 3, 5));
+        assertEquals(List.of(), index.search("tea", 4, 5));
+    }
+
+    @Test
+    public void shouldRankShortPrefixFromBucketAndKeepBucketsInSyncWithChanges() {
+        TextSearchIndex<Long> index = new TextSearchIndex<>(10);
+        index.put(1L, "Green tea", 1L);
+        index.put(2L, "Tea", 2L);
+        index.put(3L, "Teapot large", 3L);
+        index.put(4L, "-te", 4L);
+        index.put(5L, "Te", 5L);
+
+        //Точное совпадение -> текст начинается с запроса -> совпало первое слово -> остальные
+        assertEquals(List.of(5L, 2L, 3L, 4L, 1L), index.search("te", 0, 10));
+        assertEquals(List.of(3L, 4L), index.search("te", 2, 2));
+
+        index.remove(3L);
+        index.put(2L, "Black tea", 2L);
+
+        assertEquals(List.of(5L, 4L, 1L, 2L), index.search("te", 0, 10));
+        assertEquals(List.of(2L), index.search("bl", 0, 10));
+        assertEquals(List.of(), index.search("tea p", 0, 10));
+    }
+
+    @Test
+    public void shouldNotOverwriteLiveChangesWithStaleLoadedRows() {
+        TextSearchIndex<Long> index = new TextSearchIndex<>(10);
+        index.beginLoad();
+
+        index.put(1L, "Coffee fresh", 1L);
+        index.remove(2L);
+
+        index.load(1L, "Coffee stale", 1L);
+        index.load(2L, "Coffee removed", 2L);
+        index.load(3L, "Coffee loaded", 3L);
+        index.endLoad();
+
+        assertEquals(List.of(1L, 3L), index.search("coffee", 0, 10));
+        assertEquals(List.of(), index.search("stale", 0, 10));
+        assertEquals(2, index.size());
+    }
+}